@@ -0,0 +1,47 @@
+package org.futo.inputmethod.latin.sound;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Code-to-sample lookup as done on every key press, replaying a typing trace against the
+ * bundled profiles. One operation is one press.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KeypressSoundLookupBenchmark {
+    private static final int TRACE_LENGTH = 4096;
+
+    // "blue" cycles through 26 samples round-robin; "red" maps one sample per class of key.
+    @Param({ "blue", "red" })
+    public String mProfile;
+
+    private KeypressSoundTable mTable;
+    private int[] mCodes;
+    private int mNext;
+
+    @Setup
+    public void setUp() throws Exception {
+        final KeypressSoundProfile profile = KeypressSoundProfiles.find(
+                KeypressSoundProfileParser.parse(KeypressSoundProfiles.readManifest()), mProfile);
+        mTable = KeypressSoundProfiles.createLoadedTable(profile,
+                KeypressSoundProfiles.syntheticSamples(profile.getSampleNames().size()));
+        mCodes = TypingTrace.generate(10, TRACE_LENGTH, 1).mCodes;
+    }
+
+    @Benchmark
+    public PcmSample nextSample() {
+        final int code = mCodes[mNext];
+        mNext = (mNext + 1) & (TRACE_LENGTH - 1);
+        return mTable.nextSample(code);
+    }
+}
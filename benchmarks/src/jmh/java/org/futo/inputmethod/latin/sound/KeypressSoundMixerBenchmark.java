@@ -0,0 +1,90 @@
+package org.futo.inputmethod.latin.sound;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mixing output buffers while a typing trace triggers presses in real time: each operation is
+ * one output buffer, and every press due within it is queued first, as the engine's mix thread
+ * would see it. The per-operation time is the mix thread's work per buffer, which has to stay
+ * well below the buffer's duration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KeypressSoundMixerBenchmark {
+    private static final int TRACE_LENGTH = 4096;
+    private static final int FRAMES_PER_BUFFER = 256;
+    private static final int MAX_EVENTS_PER_SECOND = 12;
+    private static final int SHORTENED_FRAMES = KeypressSoundProfiles.SAMPLE_RATE * 40 / 1000;
+    private static final long BUFFER_NANOS =
+            FRAMES_PER_BUFFER * 1000000000L / KeypressSoundProfiles.SAMPLE_RATE;
+
+    @Param({ "5", "10", "20" })
+    public int mKeysPerSecond;
+
+    @Param({ "1", "2" })
+    public int mChannelCount;
+
+    // Whether presses go through KeypressSoundThrottle, treating the whole trace as fast typing.
+    @Param({ "false", "true" })
+    public boolean mThrottled;
+
+    private KeypressSoundMixer mMixer;
+    private KeypressSoundThrottle mThrottle;
+    private KeypressSoundTable mTable;
+    private TypingTrace mTrace;
+    private short[] mOutput;
+    private int mNextPress;
+    private long mNow;
+    private long mNextPressTime;
+
+    @Setup
+    public void setUp() throws Exception {
+        final KeypressSoundProfile profile = KeypressSoundProfiles.find(
+                KeypressSoundProfileParser.parse(KeypressSoundProfiles.readManifest()), "blue");
+        mTable = KeypressSoundProfiles.createLoadedTable(profile,
+                KeypressSoundProfiles.syntheticSamples(profile.getSampleNames().size()));
+        mMixer = new KeypressSoundMixer(FRAMES_PER_BUFFER, mChannelCount,
+                KeypressSoundMixer.DEFAULT_MAX_VOICES,
+                KeypressSoundMixer.DEFAULT_VOICE_FRAME_BUDGET);
+        mThrottle = new KeypressSoundThrottle(MAX_EVENTS_PER_SECOND);
+        mTrace = TypingTrace.generate(mKeysPerSecond, TRACE_LENGTH, 2);
+        mOutput = new short[FRAMES_PER_BUFFER * mChannelCount];
+        mNextPressTime = mTrace.mIntervalNanos[0];
+    }
+
+    @Benchmark
+    public short[] mixBuffer() {
+        mNow += BUFFER_NANOS;
+        while (mNextPressTime <= mNow) {
+            press(mTrace.mCodes[mNextPress]);
+            mNextPress = (mNextPress + 1) & (TRACE_LENGTH - 1);
+            mNextPressTime += mTrace.mIntervalNanos[mNextPress];
+        }
+        mMixer.mix(mOutput, FRAMES_PER_BUFFER);
+        return mOutput;
+    }
+
+    private void press(final int code) {
+        int maxFrames = Integer.MAX_VALUE;
+        if (mThrottled) {
+            final int decision = mThrottle.onPress(mNextPressTime / 1000000L, false, true);
+            if (decision == KeypressSoundThrottle.SKIP) {
+                return;
+            }
+            if (decision == KeypressSoundThrottle.PLAY_SHORTENED) {
+                maxFrames = SHORTENED_FRAMES;
+            }
+        }
+        mMixer.play(mTable.nextSample(code), 1.0f, KeypressSoundMixer.PAN_CENTER, maxFrames, 0);
+    }
+}
@@ -0,0 +1,54 @@
+package org.futo.inputmethod.latin.sound;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Switching profiles: parsing the manifest and rebuilding the lookup table, then publishing a
+ * copy per decoded sample as the loader does. Sample decoding itself is left out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KeypressSoundProfileBenchmark {
+    @Param({ "blue", "red" })
+    public String mProfile;
+
+    private String mManifest;
+    private KeypressSoundProfile mParsedProfile;
+    private PcmSample[] mSamples;
+
+    @Setup
+    public void setUp() throws Exception {
+        mManifest = KeypressSoundProfiles.readManifest();
+        mParsedProfile = KeypressSoundProfiles.find(
+                KeypressSoundProfileParser.parse(mManifest), mProfile);
+        mSamples = KeypressSoundProfiles.syntheticSamples(
+                mParsedProfile.getSampleNames().size());
+    }
+
+    @Benchmark
+    public List<KeypressSoundProfile> parseManifest() throws Exception {
+        return KeypressSoundProfileParser.parse(mManifest);
+    }
+
+    @Benchmark
+    public KeypressSoundTable createTable() {
+        return mParsedProfile.createTable(KeypressSoundProfiles.DENSE_START,
+                KeypressSoundProfiles.DENSE_END, KeypressSoundProfiles.EXTRA_CODES);
+    }
+
+    @Benchmark
+    public KeypressSoundTable rebuildLoadedTable() {
+        return KeypressSoundProfiles.createLoadedTable(mParsedProfile, mSamples);
+    }
+}
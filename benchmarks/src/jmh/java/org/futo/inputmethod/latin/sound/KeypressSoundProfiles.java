@@ -0,0 +1,69 @@
+package org.futo.inputmethod.latin.sound;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * The bundled profile manifest and the table ranges the app builds tables with.
+ */
+final class KeypressSoundProfiles {
+    // Mirror starting_latin_character_code, ending_latin_character_code and
+    // special_character_codes_outside_latin_range in sound-ids.xml.
+    static final int DENSE_START = -19;
+    static final int DENSE_END = 591;
+    static final int[] EXTRA_CODES = { 8226, 8730, 960, 8710, 8364, 8482, 8453 };
+
+    static final int SAMPLE_RATE = 48000;
+
+    private KeypressSoundProfiles() {
+    }
+
+    static String readManifest() throws IOException {
+        try (final InputStream in = KeypressSoundProfiles.class.getClassLoader()
+                .getResourceAsStream("keypress_sound_profiles.json")) {
+            if (in == null) {
+                throw new IOException("keypress_sound_profiles.json is not on the classpath");
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static KeypressSoundProfile find(final List<KeypressSoundProfile> profiles,
+            final String name) {
+        for (final KeypressSoundProfile profile : profiles) {
+            if (profile.mName.equals(name)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("No bundled profile named " + name);
+    }
+
+    /**
+     * @return {@code profile}'s table with every sample resident, as after a finished load.
+     */
+    static KeypressSoundTable createLoadedTable(final KeypressSoundProfile profile,
+            final PcmSample[] samples) {
+        KeypressSoundTable table = profile.createTable(DENSE_START, DENSE_END, EXTRA_CODES);
+        for (int i = 0; i < table.getSampleCount(); i++) {
+            table = table.withSample(i, samples[i % samples.length]);
+        }
+        return table;
+    }
+
+    static PcmSample[] syntheticSamples(final int count) {
+        final PcmSample[] samples = new PcmSample[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = TypingTrace.syntheticClick(SAMPLE_RATE, 60 + (i % 4) * 10, i);
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,63 @@
+package org.futo.inputmethod.latin.sound;
+
+import org.futo.inputmethod.latin.common.Constants;
+
+import java.util.Random;
+
+/**
+ * A synthetic typing session: key codes with the time between presses. Letters follow rough
+ * English frequencies, with spaces, deletes and the occasional enter mixed in, and intervals
+ * jitter around the mean rate the way real typing does.
+ */
+final class TypingTrace {
+    private static final String LETTERS_BY_FREQUENCY = "etaoinshrdlcumwfgypbvkjxqz";
+
+    final int[] mCodes;
+    final long[] mIntervalNanos;
+
+    private TypingTrace(final int[] codes, final long[] intervalNanos) {
+        mCodes = codes;
+        mIntervalNanos = intervalNanos;
+    }
+
+    static TypingTrace generate(final int keysPerSecond, final int length, final long seed) {
+        final Random random = new Random(seed);
+        final int[] codes = new int[length];
+        final long[] intervals = new long[length];
+        final long meanNanos = 1000000000L / keysPerSecond;
+        for (int i = 0; i < length; i++) {
+            final float kind = random.nextFloat();
+            if (kind < 0.16f) {
+                codes[i] = Constants.CODE_SPACE;
+            } else if (kind < 0.19f) {
+                codes[i] = Constants.CODE_DELETE;
+            } else if (kind < 0.195f) {
+                codes[i] = Constants.CODE_ENTER;
+            } else {
+                // Squaring skews the pick towards the frequent letters.
+                final float rank = random.nextFloat();
+                codes[i] = LETTERS_BY_FREQUENCY.charAt(
+                        (int) (rank * rank * LETTERS_BY_FREQUENCY.length()));
+            }
+            // +-50% around the mean, so bursts briefly exceed the nominal rate.
+            intervals[i] = (long) (meanNanos * (0.5 + random.nextDouble()));
+        }
+        return new TypingTrace(codes, intervals);
+    }
+
+    /**
+     * A click-like sample: a short noise burst with an exponential decay.
+     */
+    static PcmSample syntheticClick(final int sampleRate, final int durationMillis,
+            final long seed) {
+        final Random random = new Random(seed);
+        final short[] data = new short[sampleRate * durationMillis / 1000];
+        final double decayPerFrame = Math.exp(-8.0 / data.length);
+        double envelope = 12000;
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (short) ((random.nextDouble() * 2 - 1) * envelope);
+            envelope *= decayPerFrame;
+        }
+        return new PcmSample(data, sampleRate);
+    }
+}
@@ -0,0 +1,56 @@
+package org.futo.voiceinput.shared.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records a whole dictation of the given length in 100ms chunks and prepares it for inference.
+ * {@code gc.alloc.rate.norm} shows the memory churned per dictation: the legacy buffer copies
+ * everything on every 30 second growth and once more at the end, the segmented store allocates
+ * each sample once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DictationBufferBenchmark {
+    private static final int CHUNK_SAMPLES = 1600;
+
+    @Param({ "1", "5" })
+    public int mMinutes;
+
+    private final short[] mChunk = new short[CHUNK_SAMPLES];
+    private int mChunks;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(4);
+        for (int i = 0; i < CHUNK_SAMPLES; i++) {
+            mChunk[i] = (short) (random.nextGaussian() * 3000);
+        }
+        mChunks = mMinutes * 60 * SampleStore.SAMPLE_RATE / CHUNK_SAMPLES;
+    }
+
+    @Benchmark
+    public float[] legacy() {
+        return LegacyDictationBuffer.record(mChunk, mChunks);
+    }
+
+    @Benchmark
+    public float[][] sampleStore() {
+        final SampleStore store = new SampleStore(mChunks * CHUNK_SAMPLES,
+                SampleStore.DEFAULT_SEGMENT_SAMPLES);
+        for (int i = 0; i < mChunks; i++) {
+            store.putPcm16(mChunk, CHUNK_SAMPLES);
+        }
+        return store.segments();
+    }
+}
@@ -0,0 +1,75 @@
+package org.futo.voiceinput.shared.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes Whisper's 80x3000 log-mel input for a recording of the given length. Both run the
+ * same FFT (PocketFFT is stood in for by RealFft on the JVM), so the difference is the rest of
+ * the pipeline: the legacy path works in doubles, multiplies every filter against all 201 bins
+ * and allocates and transposes whole spectrograms, the extractor reuses its buffers and only
+ * sums each filter's non-zero bins. The setup fails if the two outputs disagree.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MelSpectrogramBenchmark {
+    private static final float MAX_DIFFERENCE = 1e-3f;
+
+    @Param({ "5", "30" })
+    public int mSeconds;
+
+    private float[] mSamples;
+    private double[] mSamplesDouble;
+
+    private AudioFeatureExtraction mLegacy;
+    private MelSpectrogramExtractor mExtractor;
+    private float[] mOutput;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(17);
+        mSamples = new float[mSeconds * SampleStore.SAMPLE_RATE];
+        mSamplesDouble = new double[mSamples.length];
+        for (int i = 0; i < mSamples.length; i++) {
+            // A tone under noise, so the spectrogram isn't flat
+            mSamples[i] = (float) (0.3 * Math.sin(i * 2.0 * Math.PI * 440.0 / SampleStore.SAMPLE_RATE)
+                    + 0.05 * random.nextGaussian());
+            mSamplesDouble[i] = mSamples[i];
+        }
+
+        mLegacy = new AudioFeatureExtraction(80, SampleStore.SAMPLE_RATE, 160, 30, 400, 0.0);
+        mExtractor = new MelSpectrogramExtractor();
+        mOutput = new float[80 * mExtractor.getNumFrames()];
+
+        final float[] expected = legacy();
+        final float[] actual = extractor();
+        float maxDifference = 0.0f;
+        for (int i = 0; i < expected.length; i++) {
+            maxDifference = Math.max(maxDifference, Math.abs(expected[i] - actual[i]));
+        }
+        if (maxDifference > MAX_DIFFERENCE) {
+            throw new IllegalStateException("Extractor differs from the legacy output by "
+                    + maxDifference);
+        }
+    }
+
+    @Benchmark
+    public float[] legacy() {
+        return mLegacy.melSpectrogram(mSamplesDouble);
+    }
+
+    @Benchmark
+    public float[] extractor() {
+        return mExtractor.melSpectrogram(mSamples, mSamples.length, mOutput);
+    }
+}
@@ -0,0 +1,58 @@
+package org.futo.voiceinput.shared.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One 100ms capture chunk (1600 samples at 16kHz) converted into the dictation buffer and
+ * measured for the level meter. With the gc profiler, {@code gc.alloc.rate.norm} of
+ * {@link #sampleStore} is expected to be 0 B/op once its segments exist; {@link #legacy} is the
+ * previous code.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PcmCaptureBenchmark {
+    private static final int CHUNK_SAMPLES = 1600;
+    private static final int BUFFER_SAMPLES = 16000 * 30;
+
+    private final short[] mChunk = new short[CHUNK_SAMPLES];
+    private FloatBuffer mLegacySamples;
+    private SampleStore mSampleStore;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(3);
+        for (int i = 0; i < CHUNK_SAMPLES; i++) {
+            mChunk[i] = (short) (random.nextGaussian() * 3000);
+        }
+        mLegacySamples = FloatBuffer.allocate(BUFFER_SAMPLES);
+        mSampleStore = new SampleStore(BUFFER_SAMPLES, SampleStore.DEFAULT_SEGMENT_SAMPLES);
+    }
+
+    @Benchmark
+    public float legacy() {
+        if (mLegacySamples.remaining() < CHUNK_SAMPLES) {
+            mLegacySamples.clear();
+        }
+        return LegacyPcmCapture.putChunk(mChunk, CHUNK_SAMPLES, mLegacySamples);
+    }
+
+    @Benchmark
+    public float sampleStore() {
+        if (mSampleStore.getRemaining() < CHUNK_SAMPLES) {
+            // Keeps the segments, so steady state does not allocate.
+            mSampleStore.clear();
+        }
+        return mSampleStore.putPcm16(mChunk, CHUNK_SAMPLES);
+    }
+}
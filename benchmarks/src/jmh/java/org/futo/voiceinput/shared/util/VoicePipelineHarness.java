@@ -0,0 +1,146 @@
+package org.futo.voiceinput.shared.util;
+
+import org.futo.inputmethod.latin.sound.PcmSample;
+import org.futo.inputmethod.latin.sound.WavDecoder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Runs every WAV file in a directory through {@link VoicePipelineProfile} and prints the
+ * real-time factor, per-stage latency and peak heap of each:
+ * <pre>
+ *   ./gradlew :benchmarks:voiceHarness -PvoiceFixtures=path/to/wavs -PvoiceMaxRtf=0.05
+ * </pre>
+ * Fixtures of any format {@link WavDecoder} reads are downmixed and resampled to 16kHz. The run
+ * fails if a fixture's real-time factor is above the maximum, so CI catches regressions. Without
+ * fixtures, a synthetic dictation of tone bursts and pauses is used so every stage still runs.
+ * Inference needs the Android native library; see the instrumented VoicePipelineBenchmark.
+ */
+public final class VoicePipelineHarness {
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 5;
+
+    private VoicePipelineHarness() {
+        // This class is not publicly instantiable.
+    }
+
+    private static final class Fixture {
+        final String mName;
+        final short[] mPcm;
+
+        Fixture(final String name, final short[] pcm) {
+            mName = name;
+            mPcm = pcm;
+        }
+    }
+
+    private static List<Fixture> loadFixtures(final String directory) throws IOException {
+        final List<Fixture> fixtures = new ArrayList<>();
+        final File[] files = directory.isEmpty() ? null : new File(directory).listFiles(
+                (dir, name) -> name.toLowerCase(Locale.ROOT).endsWith(".wav"));
+        if (files == null) {
+            return fixtures;
+        }
+        Arrays.sort(files);
+        for (final File file : files) {
+            try (InputStream stream = new FileInputStream(file)) {
+                final PcmSample sample = WavDecoder.decode(stream, SampleStore.SAMPLE_RATE);
+                fixtures.add(new Fixture(file.getName(), sample.mData));
+            }
+        }
+        return fixtures;
+    }
+
+    // 20 seconds of 400ms-1.5s bursts of harmonics under noise, separated by pauses of up to 2s
+    private static Fixture synthesize() {
+        final Random random = new Random(20);
+        final short[] pcm = new short[20 * SampleStore.SAMPLE_RATE];
+        int index = 0;
+        boolean talking = false;
+        while (index < pcm.length) {
+            final int length = Math.min(pcm.length - index, (int) (SampleStore.SAMPLE_RATE
+                    * (talking ? 0.4 + random.nextDouble() * 1.1 : random.nextDouble() * 2.0)));
+            final double pitch = 100.0 + random.nextDouble() * 150.0;
+            for (int i = 0; i < length; i++) {
+                double value = random.nextGaussian() * 0.002;
+                if (talking) {
+                    final double t = (double) i / SampleStore.SAMPLE_RATE;
+                    for (int harmonic = 1; harmonic <= 8; harmonic++) {
+                        value += 0.2 / harmonic * Math.sin(2.0 * Math.PI * pitch * harmonic * t);
+                    }
+                }
+                pcm[index + i] = (short) Math.max(Short.MIN_VALUE,
+                        Math.min(Short.MAX_VALUE, value * Short.MAX_VALUE));
+            }
+            index += length;
+            talking = !talking;
+        }
+        return new Fixture("synthetic", pcm);
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final String directory = args.length > 0 ? args[0] : "";
+        final double maxRealTimeFactor = args.length > 1 && !args[1].isEmpty()
+                ? Double.parseDouble(args[1]) : Double.POSITIVE_INFINITY;
+
+        List<Fixture> fixtures = loadFixtures(directory);
+        if (fixtures.isEmpty()) {
+            System.out.println("No WAV fixtures in '" + directory + "', using a synthetic one");
+            fixtures = Arrays.asList(synthesize());
+        }
+
+        final VoicePipelineProfile profile = new VoicePipelineProfile();
+        boolean failed = false;
+        for (final Fixture fixture : fixtures) {
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                profile.run(fixture.mName, fixture.mPcm);
+            }
+
+            final double[] stageMillis = new double[4];
+            List<VoicePipelineProfile.Stage> stages = null;
+            VoicePipelineProfile.Result result = null;
+            double realTimeFactor = 0.0;
+            long peakHeapBytes = 0;
+            for (int i = 0; i < MEASURED_RUNS; i++) {
+                result = profile.run(fixture.mName, fixture.mPcm);
+                stages = result.getStages();
+                for (int stage = 0; stage < stages.size(); stage++) {
+                    stageMillis[stage] += stages.get(stage).getMillis() / MEASURED_RUNS;
+                }
+                realTimeFactor += result.getRealTimeFactor() / MEASURED_RUNS;
+                peakHeapBytes = Math.max(peakHeapBytes, result.getPeakHeapBytes());
+            }
+
+            final StringBuilder line = new StringBuilder(String.format(Locale.ROOT,
+                    "%-24s %6.1fs audio, %6.1fs kept, rtf %.4f,", fixture.mName,
+                    result.getAudioSeconds(),
+                    (double) result.getKeptSamples() / SampleStore.SAMPLE_RATE, realTimeFactor));
+            for (int stage = 0; stage < stages.size(); stage++) {
+                line.append(String.format(Locale.ROOT, " %s %.2fms,",
+                        stages.get(stage).getName(), stageMillis[stage]));
+            }
+            line.append(String.format(Locale.ROOT, " peak heap %.1fMB",
+                    peakHeapBytes / (1024.0 * 1024.0)));
+            System.out.println(line);
+
+            if (realTimeFactor > maxRealTimeFactor) {
+                System.out.println(String.format(Locale.ROOT,
+                        "  real-time factor %.4f is above the maximum of %.4f",
+                        realTimeFactor, maxRealTimeFactor));
+                failed = true;
+            }
+        }
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.futo.voiceinput.shared.util
+
+import java.nio.FloatBuffer
+import kotlin.math.pow
+import kotlin.math.sqrt
+
+/**
+ * The capture step as AudioRecognizer.recordingJob did it before convertPcm16, kept as the
+ * baseline for PcmCaptureBenchmark.
+ */
+object LegacyPcmCapture {
+    @JvmStatic
+    fun putChunk(samples: ShortArray, nRead: Int, floatSamples: FloatBuffer): Float {
+        floatSamples.put(samples.sliceArray(0 until nRead).map { it.toFloat() / Short.MAX_VALUE.toFloat() }.toFloatArray())
+        return sqrt(samples.sumOf { (it.toFloat() / Short.MAX_VALUE.toFloat()).pow(2).toDouble() } / samples.size).toFloat()
+    }
+}
+
+/**
+ * A whole dictation as AudioRecognizer stored it before SampleStore: a FloatBuffer grown by 30
+ * seconds at a time, copied out once more when inference starts.
+ */
+object LegacyDictationBuffer {
+    @JvmStatic
+    fun record(chunk: ShortArray, chunks: Int): FloatArray {
+        var floatSamples = FloatBuffer.allocate(16000 * 30)
+        for (i in 0 until chunks) {
+            if (floatSamples.remaining() < chunk.size) {
+                val newSampleBuffer = FloatBuffer.allocate(floatSamples.capacity() + 16000 * 30)
+                newSampleBuffer.put(floatSamples.array(), 0, floatSamples.capacity() - floatSamples.remaining())
+                floatSamples = newSampleBuffer
+            }
+            LegacyPcmCapture.putChunk(chunk, chunk.size, floatSamples)
+        }
+        return floatSamples.array().sliceArray(0 until floatSamples.position())
+    }
+}
@@ -0,0 +1,25 @@
+package org.futo.pocketfft
+
+import org.futo.voiceinput.shared.util.RealFft
+
+/**
+ * JVM stand-in for the PocketFFT binding, which is an Android library, so that
+ * AudioFeatureExtraction can be benchmarked. Computes the same transform with [RealFft] and
+ * writes it in PocketFFT's packed layout: `re0, im0, re1, im1, ..., re(n/2)`.
+ */
+class PocketFFT(private val n: Int) {
+    private val fft = RealFft(n)
+    private val input = FloatArray(n)
+    private val re = FloatArray(n / 2 + 1)
+    private val im = FloatArray(n / 2 + 1)
+
+    fun forward(samples: DoubleArray, output: DoubleArray) {
+        for (i in 0 until n) input[i] = samples[i].toFloat()
+        fft.spectrum(input, 0, re, im)
+        for (k in 0 until n / 2) {
+            output[k * 2] = re[k].toDouble()
+            output[k * 2 + 1] = im[k].toDouble()
+        }
+        output[n] = re[n / 2].toDouble()
+    }
+}
@@ -0,0 +1,132 @@
+package org.futo.inputmethod.keyboard;
+
+import org.futo.inputmethod.latin.common.Constants;
+import org.futo.inputmethod.latin.sound.KeypressSoundMixer;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Stereo pan of each key's press sound, derived from where the key sits horizontally.
+ *
+ * Built once per {@link Keyboard} together with its {@link ProximityInfo}; a press then
+ * resolves its pan with a single array read. Pans are packed with
+ * {@link KeypressSoundMixer#packPan} so nothing is computed per press.
+ */
+public final class KeyPanTable {
+    // How far the outermost keys are panned from the center, from 0 (mono) to 1 (hard pan).
+    private static final float PAN_WIDTH = 0.5f;
+    // Codes spanning at most this many values are stored densely; others are binary searched.
+    private static final int MAX_DENSE_SPAN = 4096;
+
+    public static final KeyPanTable EMPTY =
+            new KeyPanTable(new int[0], new int[0], new int[0], 1);
+
+    private final int mDenseStart;
+    private final int[] mDense;
+    private final int[] mSparseCodes;
+    private final int[] mSparsePans;
+
+    @Nonnull
+    public static KeyPanTable create(@Nonnull final List<Key> sortedKeys,
+            final int keyboardWidth) {
+        final int[] codes = new int[sortedKeys.size()];
+        final int[] lefts = new int[codes.length];
+        final int[] widths = new int[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            final Key key = sortedKeys.get(i);
+            codes[i] = key.getCode();
+            lefts[i] = key.getX();
+            widths[i] = key.getWidth();
+        }
+        return new KeyPanTable(codes, lefts, widths, keyboardWidth);
+    }
+
+    /**
+     * @param codes key codes in key order; when a code appears on several keys, the first
+     * one wins, like {@link Keyboard#getKey(int)}.
+     * @param lefts the left edge of each key.
+     * @param widths the width of each key.
+     */
+    KeyPanTable(final int[] codes, final int[] lefts, final int[] widths,
+            final int keyboardWidth) {
+        int count = 0;
+        final int[] uniqueCodes = new int[codes.length];
+        final int[] pans = new int[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            final int code = codes[i];
+            if (code == Constants.CODE_UNSPECIFIED || indexOf(uniqueCodes, count, code) >= 0) {
+                continue;
+            }
+            uniqueCodes[count] = code;
+            pans[count] = computePan(lefts[i] + widths[i] / 2.0f, keyboardWidth);
+            count++;
+        }
+
+        int minCode = Integer.MAX_VALUE;
+        int maxCode = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            minCode = Math.min(minCode, uniqueCodes[i]);
+            maxCode = Math.max(maxCode, uniqueCodes[i]);
+        }
+        if (count > 0 && (long) maxCode - minCode < MAX_DENSE_SPAN) {
+            mDenseStart = minCode;
+            mDense = new int[maxCode - minCode + 1];
+            Arrays.fill(mDense, KeypressSoundMixer.PAN_CENTER);
+            for (int i = 0; i < count; i++) {
+                mDense[uniqueCodes[i] - minCode] = pans[i];
+            }
+            mSparseCodes = new int[0];
+            mSparsePans = new int[0];
+        } else {
+            mDenseStart = 0;
+            mDense = new int[0];
+            final long[] sorted = new long[count];
+            for (int i = 0; i < count; i++) {
+                // Sort by code, carrying the original index in the low bits.
+                sorted[i] = ((long) uniqueCodes[i] << 32) | i;
+            }
+            Arrays.sort(sorted);
+            mSparseCodes = new int[count];
+            mSparsePans = new int[count];
+            for (int i = 0; i < count; i++) {
+                mSparseCodes[i] = (int) (sorted[i] >> 32);
+                mSparsePans[i] = pans[(int) sorted[i]];
+            }
+        }
+    }
+
+    private static int indexOf(final int[] array, final int length, final int value) {
+        for (int i = 0; i < length; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Balance law: the far channel is attenuated, the near one stays at full gain, so keys in
+    // the middle sound exactly as they did in mono.
+    private static int computePan(final float centerX, final int keyboardWidth) {
+        final float position = Math.max(-1.0f, Math.min(1.0f,
+                centerX * 2.0f / Math.max(1, keyboardWidth) - 1.0f));
+        final float pan = position * PAN_WIDTH;
+        return KeypressSoundMixer.packPan(pan > 0.0f ? 1.0f - pan : 1.0f,
+                pan < 0.0f ? 1.0f + pan : 1.0f);
+    }
+
+    /**
+     * @return the packed pan for the key with {@code code}, or
+     * {@link KeypressSoundMixer#PAN_CENTER} if there is no such key.
+     */
+    public int getPan(final int code) {
+        final int denseIndex = code - mDenseStart;
+        if (denseIndex >= 0 && denseIndex < mDense.length) {
+            return mDense[denseIndex];
+        }
+        final int sparseIndex = Arrays.binarySearch(mSparseCodes, code);
+        return sparseIndex >= 0 ? mSparsePans[sparseIndex] : KeypressSoundMixer.PAN_CENTER;
+    }
+}
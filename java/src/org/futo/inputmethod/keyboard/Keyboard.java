@@ -97,6 +97,8 @@ public class Keyboard {
     @Nonnull
     private final ProximityInfo mProximityInfo;
     @Nonnull
+    private final KeyPanTable mKeyPanTable;
+    @Nonnull
     private final KeyboardLayout mKeyboardLayout;
 
     public final boolean mAutoShift;
@@ -127,6 +129,7 @@ public class Keyboard {
         mProximityInfo = new ProximityInfo(params.GRID_WIDTH, params.GRID_HEIGHT,
                 mOccupiedWidth, mOccupiedHeight, mMostCommonKeyWidth, mMostCommonKeyHeight,
                 mSortedKeys, params.mTouchPositionCorrection);
+        mKeyPanTable = KeyPanTable.create(mSortedKeys, mOccupiedWidth);
         mProximityCharsCorrectionEnabled = params.mProximityCharsCorrectionEnabled;
         mKeyboardLayout = KeyboardLayout.newKeyboardLayout(mSortedKeys, mMostCommonKeyWidth,
                 mMostCommonKeyHeight, mOccupiedWidth, mOccupiedHeight);
@@ -153,6 +156,7 @@ public class Keyboard {
         mIconsSet = keyboard.mIconsSet;
 
         mProximityInfo = keyboard.mProximityInfo;
+        mKeyPanTable = keyboard.mKeyPanTable;
         mProximityCharsCorrectionEnabled = keyboard.mProximityCharsCorrectionEnabled;
         mKeyboardLayout = keyboard.mKeyboardLayout;
         mAutoShift = keyboard.mAutoShift;
@@ -175,6 +179,11 @@ public class Keyboard {
         return mProximityInfo;
     }
 
+    @Nonnull
+    public KeyPanTable getKeyPanTable() {
+        return mKeyPanTable;
+    }
+
     @Nonnull
     public KeyboardLayout getKeyboardLayout() {
         return mKeyboardLayout;
@@ -210,6 +210,14 @@ public final class PointerTracker implements PointerTrackerQueue.Element,
         return trackers.get(id);
     }
 
+    /**
+     * @return whether the user is typing fast at {@code eventTime}, in
+     * {@link android.os.SystemClock#uptimeMillis()}.
+     */
+    public static boolean isInFastTyping(final long eventTime) {
+        return sTypingTimeRecorder != null && sTypingTimeRecorder.isInFastTyping(eventTime);
+    }
+
     public static boolean isAnyInDraggingFinger() {
         return sPointerTrackerQueue.isAnyInDraggingFinger();
     }
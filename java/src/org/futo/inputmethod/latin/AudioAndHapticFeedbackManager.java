@@ -17,27 +17,42 @@
 package org.futo.inputmethod.latin;
 
 import android.content.Context;
-import android.content.res.TypedArray;
 import android.media.AudioManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.os.Vibrator;
 import android.view.HapticFeedbackConstants;
 import android.view.View;
 
+import org.futo.inputmethod.annotations.UsedForTesting;
+import org.futo.inputmethod.keyboard.Keyboard;
+import org.futo.inputmethod.keyboard.PointerTracker;
 import org.futo.inputmethod.latin.common.Constants;
+import org.futo.inputmethod.latin.haptic.KeypressHapticEngine;
+import org.futo.inputmethod.latin.haptic.KeypressHapticWaveforms;
 import org.futo.inputmethod.latin.settings.SettingsValues;
 
 // New imports for custom sound engine
-import android.media.SoundPool;
-import android.media.AudioAttributes;
-import org.futo.inputmethod.latin.R;
-import java.util.HashMap;
-import java.lang.Integer;
 import org.futo.inputmethod.latin.settings.Settings;
-import android.content.res.Resources;
-import android.content.res.TypedArray;
-import android.content.Context;
+import org.futo.inputmethod.latin.sound.KeypressFeedbackStats;
+import org.futo.inputmethod.latin.sound.KeypressSoundEngine;
+import org.futo.inputmethod.latin.sound.KeypressSoundMixer;
+import org.futo.inputmethod.latin.sound.KeypressSoundPackImporter;
+import org.futo.inputmethod.latin.sound.KeypressSoundProfileLoader;
+import org.futo.inputmethod.latin.sound.KeypressSoundReadiness;
+import org.futo.inputmethod.latin.sound.KeypressSoundTable;
+import org.futo.inputmethod.latin.sound.KeypressSoundThrottle;
+import org.futo.inputmethod.latin.sound.PcmSample;
+import org.futo.inputmethod.latin.utils.ExecutorUtils;
 import android.util.Log;
 
+import kotlinx.coroutines.flow.MutableStateFlow;
+import kotlinx.coroutines.flow.StateFlow;
+import kotlinx.coroutines.flow.StateFlowKt;
+
+import javax.annotation.Nullable;
+
 /**
  * This class gathers audio feedback and haptic feedback functions.
  *
@@ -47,23 +62,26 @@ import android.util.Log;
 public final class AudioAndHapticFeedbackManager {
     private AudioManager mAudioManager;
     private Vibrator mVibrator;
+    private KeypressHapticEngine mHapticEngine;
 
     private SettingsValues mSettingsValues;
     private boolean mSoundOn;
     // New variables for custom sound engine
-    private SoundPool mSoundPool;
-    private HashMap<Integer, Integer> mSoundMap = new HashMap<>();
-    private int mLastSelectedProfile;
-    private boolean mSoundsLoaded = false;
+    private KeypressSoundEngine mSoundEngine;
+    private KeypressSoundProfileLoader mProfileLoader;
+    // No profile id is negative, so the first settings always trigger a load.
+    private int mLastSelectedProfile = -1;
+    private boolean mWarmingUp;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final MutableStateFlow<KeypressSoundReadiness> mSoundReadiness =
+            StateFlowKt.MutableStateFlow(KeypressSoundReadiness.STARTING);
+    private int mLastSoundPackImportCount;
+    private KeypressSoundThrottle mSoundThrottle;
+    private int mShortenedSoundMillis;
+    private int mShortenedSoundFrames = Integer.MAX_VALUE;
     private Context mContext;
-    private int mExpectedSoundCount = 0;
-    private int mLoadedSoundCount = 0;
     private static final String TAG = "AudioFeedbackManager";
-    private int deleteSoundId;
-    private int enterSoundId;
-    private int spaceSoundId;
-    private int[] keypressSoundId;
-    private int numberOfUniqueSounds;
+    private static final long PRIMING_TIMEOUT_MILLIS = 1000;
     private static final AudioAndHapticFeedbackManager sInstance =
             new AudioAndHapticFeedbackManager();
 
@@ -88,143 +106,104 @@ public final class AudioAndHapticFeedbackManager {
 
         mAudioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
         mVibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
+        if (mHapticEngine == null && hasVibrator()) {
+            mHapticEngine = new KeypressHapticEngine(mVibrator);
+        }
+        mSoundThrottle = new KeypressSoundThrottle(context.getResources().getInteger(
+                R.integer.config_keypress_sound_max_events_per_second));
+        mShortenedSoundMillis = context.getResources().getInteger(
+                R.integer.config_keypress_sound_shortened_duration);
+    }
 
-        // Initialize SoundPool
-        AudioAttributes audioAttributes = new AudioAttributes.Builder()
-                .setUsage(AudioAttributes.USAGE_ASSISTANCE_SONIFICATION)
-                .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
-                .build();
-        mSoundPool = new SoundPool.Builder()
-                .setMaxStreams(8) // Max simultaneous sounds
-                .setAudioAttributes(audioAttributes)
-                .build();
-
-        mSoundPool.setOnLoadCompleteListener((soundPool, sampleId, status) -> {
-            if (status == 0) { // success
-                mLoadedSoundCount++;
-                Log.d(TAG, "Sound loaded: " + sampleId +
-                        " (" + mLoadedSoundCount + "/" + mExpectedSoundCount + ")");
-                if (mLoadedSoundCount >= mExpectedSoundCount) {
-                    mapAllSounds();
-                    Log.i(TAG, "All sounds loaded successfully");
+    /**
+     * Opens and primes the keypress sound output in the background, then starts decoding the
+     * selected profile, so the first key press does not pay for any of it. Must be called on
+     * the UI thread; progress is published through {@link #getSoundReadiness()}.
+     */
+    public void warmUp() {
+        if (mSoundEngine != null || mWarmingUp || mContext == null) {
+            return;
+        }
+        mWarmingUp = true;
+        final Context context = mContext;
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(() -> {
+            // A single streaming output track replaces SoundPool; overlapping presses are mixed
+            // in software instead of competing for a fixed number of SoundPool streams.
+            final KeypressSoundEngine engine = KeypressSoundEngine.create(context);
+            if (engine != null) {
+                try {
+                    engine.awaitPrimed(PRIMING_TIMEOUT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-            } else {
-                Log.e(TAG, "Error loading sound " + sampleId + ", status: " + status);
             }
+            mMainHandler.post(() -> onSoundEngineReady(engine));
         });
     }
-    private void mapAllSounds() {
-        Resources res = mContext.getResources();
-        int startCharacterCode = res.getInteger(R.integer.starting_latin_character_code);
-        int endCharacterCode = res.getInteger(R.integer.ending_latin_character_code);
 
-        //MAPPING LATIN CHARACTER CODES
-        for (int characterCode = startCharacterCode; characterCode <= endCharacterCode; characterCode++) {
-            int soundIndex = (characterCode - startCharacterCode) % numberOfUniqueSounds; // cycles automatically
-            Log.i(TAG, "Mapping code: " + characterCode + " to " + keypressSoundId[soundIndex]);
-            mSoundMap.put(characterCode, keypressSoundId[soundIndex]);
+    private void onSoundEngineReady(final KeypressSoundEngine engine) {
+        if (!mWarmingUp) {
+            // Released while warming up.
+            if (engine != null) {
+                engine.release();
+            }
+            return;
+        }
+        mWarmingUp = false;
+        if (engine == null) {
+            mSoundReadiness.setValue(KeypressSoundReadiness.UNAVAILABLE);
+            return;
         }
-        //MAPPING OUTLIER CODES
-        int[] specialCharacterCodes = res.getIntArray(R.array.special_character_codes_outside_latin_range);
-        for (int specialCharacterIndex = 0; specialCharacterIndex < specialCharacterCodes.length; specialCharacterIndex++){
-            int soundIndex = specialCharacterIndex % numberOfUniqueSounds; // cycles automatically
-            Log.i(TAG, "Mapping code: " + specialCharacterCodes[specialCharacterIndex] + " to " + keypressSoundId[soundIndex]);
-            mSoundMap.put(specialCharacterCodes[specialCharacterIndex], keypressSoundId[soundIndex]);
+        mSoundEngine = engine;
+        mShortenedSoundFrames = engine.getSampleRate() * mShortenedSoundMillis / 1000;
+        mProfileLoader = new KeypressSoundProfileLoader(mContext, engine,
+                () -> mSoundReadiness.setValue(KeypressSoundReadiness.READY));
+        mSoundReadiness.setValue(KeypressSoundReadiness.PRIMED);
+        if (mSettingsValues != null) {
+            loadSoundsForCurrentProfile();
         }
-        //  These have to be Mapped AFTER all the others because these
-        //  are actually being REmapped, i.e. they were mapped to soundIds
-        //  in the latin for-loop above, but I want to remap them to give them
-        //  their own special flavour.
-        //  You might be asking: Why not map them correctly to begin with
-        //  and avoid a remap?
-        //  My answer: I would have to put an if-statement in the for-loop just
-        //  for these special cases, and that seems costly. However, remapping
-        //  costs almost nothing...
-        mSoundMap.put(Constants.CODE_DELETE, deleteSoundId);
-        mSoundMap.put(Constants.CODE_ENTER, enterSoundId);
-        mSoundMap.put(Constants.CODE_SPACE, spaceSoundId);
+    }
 
-        mSoundsLoaded = true;
+    /**
+     * @return the startup state of keypress sound playback.
+     */
+    public StateFlow<KeypressSoundReadiness> getSoundReadiness() {
+        return mSoundReadiness;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} of the last audible buffer played by the keypress
+     * sound engine, or 0 if none was played or the engine is not ready.
+     */
+    @UsedForTesting
+    public long getLastAudibleSoundNanos() {
+        final KeypressSoundEngine engine = mSoundEngine;
+        return engine != null ? engine.getLastAudibleWriteNanos() : 0;
     }
 
     private void loadSoundsForCurrentProfile() {
-        if (mSoundPool != null) {
-            for (int soundId : mSoundMap.values()) {
-                mSoundPool.unload(soundId);
-            }
+        mLastSelectedProfile = mSettingsValues.mCustomKeypressSoundsProfile;
+        mLastSoundPackImportCount = KeypressSoundPackImporter.getImportCount();
+        if (mProfileLoader == null) {
+            // Still warming up; the profile is loaded once the output is ready.
+            return;
         }
-        mSoundMap.clear();
-        mSoundsLoaded = false;
-        mExpectedSoundCount = 0;
-        mLoadedSoundCount = 0;
-        Log.d(TAG, "Loading sounds for profile: " + mSettingsValues.mCustomKeypressSoundsProfile);
-
-        try {
-            Resources res = mContext.getResources();
-            int deleteSoundResId = 0;
-            int enterSoundResId = 0;
-            int spaceSoundResId = 0;
-            int[] keypressSoundResIds;
-            TypedArray ta;
-            switch (mSettingsValues.mCustomKeypressSoundsProfile) {
-                case Settings.BLUE_KEYPRESS_PROFILE: // blue profile
-                    Log.i(TAG, "Using 'blue' sound profile.");
-                    deleteSoundResId = R.raw.blue_delete;
-                    enterSoundResId = R.raw.blue_enter;
-                    spaceSoundResId = R.raw.blue_space;
-                    ta = res.obtainTypedArray(R.array.blue_keypress_sound_res_ids);
-                    keypressSoundResIds = new int[ta.length()];
-                    for (int i = 0; i < ta.length(); i++) {
-                        keypressSoundResIds[i] = ta.getResourceId(i, 0);
-                    }
-                    ta.recycle();
-                    mLastSelectedProfile = Settings.BLUE_KEYPRESS_PROFILE;
-                    break;
-                case Settings.RED_KEYPRESS_PROFILE: // red profile
-                    Log.i(TAG, "Using 'default' sound profile.");
-                    deleteSoundResId = R.raw.default_delete;
-                    enterSoundResId = R.raw.default_enter;
-                    spaceSoundResId = R.raw.default_space;
-                    keypressSoundResIds = new int[] { R.raw.default_keypress };
-                    mLastSelectedProfile = Settings.RED_KEYPRESS_PROFILE;
-                break;
-                default: // Fallback to old method, loading nothing
-                    Log.i(TAG, "FALLBACK TO DEFAULT METHOD");
-                    keypressSoundResIds = new int[] {0};
-                    mLastSelectedProfile = Settings.DEFAULT_KEYPRESS_PROFILE;
-                break;
-            }
-            if (keypressSoundResIds[0] == 0){
-                Log.i(TAG, "Exiting because keypressSoundResIds = 0");
-                return;
-            }
-            mExpectedSoundCount = keypressSoundResIds.length + 3;
-            //Loading Sounds
-
-            deleteSoundId = mSoundPool.load(mContext, deleteSoundResId, 1);
-            enterSoundId = mSoundPool.load(mContext, enterSoundResId, 1);
-            spaceSoundId = mSoundPool.load(mContext, spaceSoundResId, 1);
-            numberOfUniqueSounds = keypressSoundResIds.length;
-
-            keypressSoundId = new int[numberOfUniqueSounds];
-            int currentIndex = 0;
-            for (int soundResId : keypressSoundResIds) {
-                Log.i(TAG, "Loading sound: " + soundResId);
-                keypressSoundId[currentIndex] = mSoundPool.load(mContext, soundResId, 1);
-                currentIndex += 1;
-            }
-
-        } catch (Resources.NotFoundException e) {
-            Log.e(TAG, "Error loading sounds: A resource was not found for profile " + mSettingsValues.mCustomKeypressSoundsProfile + ". Check your res/raw folder and R class. " + e.getMessage());
-            mSoundsLoaded = false;
-        } catch (Exception e) {
-            Log.e(TAG, "Unexpected error loading sounds for profile " + mSettingsValues.mCustomKeypressSoundsProfile + ": " + e.getMessage());
-            mSoundsLoaded = false;
+        mSoundEngine.stopAll();
+        Log.d(TAG, "Loading sounds for profile: " + mLastSelectedProfile);
+        if (mLastSelectedProfile == Settings.DEFAULT_KEYPRESS_PROFILE) {
+            mProfileLoader.unload();
+            mSoundReadiness.setValue(KeypressSoundReadiness.READY);
+            return;
         }
+        // Decoding dozens of WAVs takes a while on low-end devices, so the loader works in the
+        // background and presses fall back to the system sounds until their sample is ready.
+        mSoundReadiness.setValue(KeypressSoundReadiness.PRIMED);
+        mProfileLoader.load(mLastSelectedProfile);
     }
+
     public void performHapticAndAudioFeedback(final int code,
             final View viewToPerformHapticFeedbackOn) {
-        performHapticFeedback(viewToPerformHapticFeedbackOn, false);
+        performHapticFeedback(viewToPerformHapticFeedbackOn, code, false);
         performAudioFeedback(code);
     }
 
@@ -232,13 +211,6 @@ public final class AudioAndHapticFeedbackManager {
         return mVibrator != null && mVibrator.hasVibrator();
     }
 
-    public void vibrate(final long milliseconds) {
-        if (mVibrator == null) {
-            return;
-        }
-        mVibrator.vibrate(milliseconds);
-    }
-
     private boolean reevaluateIfSoundIsOn() {
         if (mSettingsValues == null || !mSettingsValues.mSoundOn || mAudioManager == null) {
             return false;
@@ -247,21 +219,58 @@ public final class AudioAndHapticFeedbackManager {
     }
 
     public void performAudioFeedback(final int code) {
-        Log.d(TAG, "performAudioFeedback - code: " + code + ", mSoundOn: " + mSettingsValues.mSoundOn);
+        performAudioFeedback(code, false, null);
+    }
+
+    /**
+     * @param repeatKey whether the press comes from key repeat. Repeats and fast typing above
+     * the configured rate get shortened or coalesced clicks to bound overlapping voices.
+     * @param keyboard the keyboard the key was pressed on, used to pan the click towards the
+     * key. Null plays it centered.
+     */
+    public void performAudioFeedback(final int code, final boolean repeatKey,
+            @Nullable final Keyboard keyboard) {
         if (!mSoundOn) {
             return;
         }
-        if (mSoundsLoaded) {
-            int soundId = mSoundMap.getOrDefault(code, 0);
-            if (soundId != 0){
-                mSoundPool.play(soundId, mSettingsValues.mKeypressSoundVolume, mSettingsValues.mKeypressSoundVolume, 1, 0, 1.0f);
-                return;
-            } else {
-                Log.e(TAG, "Sound Id is 0 but should not be!");
-            }
-
+        final long now = SystemClock.uptimeMillis();
+        final int throttle = mSoundThrottle.onPress(now, repeatKey,
+                PointerTracker.isInFastTyping(now));
+        if (throttle == KeypressSoundThrottle.SKIP) {
+            KeypressFeedbackStats.onCoalesced();
+            return;
+        }
+        final int maxFrames;
+        if (throttle == KeypressSoundThrottle.PLAY_SHORTENED) {
+            maxFrames = mShortenedSoundFrames;
+            KeypressFeedbackStats.onShortened();
         } else {
-            Log.w(TAG, "Custom soundId not found or failed to load for code: " + code);
+            maxFrames = Integer.MAX_VALUE;
+        }
+        // Only timestamp presses while the debug panel collects stats.
+        final long pressNanos = KeypressFeedbackStats.isEnabled() ? System.nanoTime() : 0;
+        final KeypressSoundTable soundTable =
+                mProfileLoader != null ? mProfileLoader.getTable() : null;
+        if (soundTable != null) {
+            final int sampleIndex = soundTable.nextSampleIndex(code);
+            if (sampleIndex != KeypressSoundTable.NO_SOUND) {
+                final PcmSample sample = soundTable.getSampleAt(sampleIndex);
+                if (sample != null) {
+                    // A negative volume means "system default", which is full scale for the mixer.
+                    final float volume = mSettingsValues.mKeypressSoundVolume;
+                    final int pan = keyboard != null ? keyboard.getKeyPanTable().getPan(code)
+                            : KeypressSoundMixer.PAN_CENTER;
+                    mSoundEngine.play(sample, volume < 0.0f ? 1.0f : volume, pan, maxFrames,
+                            pressNanos);
+                    return;
+                }
+                // Not decoded yet; have it decoded next and use the system sound meanwhile.
+                mProfileLoader.requestSample(sampleIndex);
+                KeypressFeedbackStats.onFallback();
+            }
+        } else if (mLastSelectedProfile != Settings.DEFAULT_KEYPRESS_PROFILE) {
+            // The profile is still warming up or could not be loaded.
+            KeypressFeedbackStats.onFallback();
         }
         // if mAudioManager is null, we can't play a sound anyway, so return
         if (mAudioManager == null){
@@ -285,12 +294,16 @@ public final class AudioAndHapticFeedbackManager {
         mAudioManager.playSoundEffect(sound, mSettingsValues.mKeypressSoundVolume);
     }
 
-    public void performHapticFeedback(final View viewToPerformHapticFeedbackOn, final boolean repeatKey) {
+    public void performHapticFeedback(final View viewToPerformHapticFeedbackOn, final int code,
+            final boolean repeatKey) {
         if (!mSettingsValues.mVibrateOn) {
             return;
         }
         if (mSettingsValues.mKeypressVibrationDuration >= 0) {
-            vibrate(mSettingsValues.mKeypressVibrationDuration / (repeatKey ? 2 : 1));
+            // A zero duration turns key press vibration off.
+            if (mHapticEngine != null && mSettingsValues.mKeypressVibrationDuration > 0) {
+                mHapticEngine.enqueue(KeypressHapticWaveforms.getKeyClass(code, repeatKey));
+            }
             return;
         }
         // Go ahead with the system default
@@ -303,7 +316,13 @@ public final class AudioAndHapticFeedbackManager {
     public void onSettingsChanged(final SettingsValues settingsValues) {
         mSettingsValues = settingsValues;
         mSoundOn = reevaluateIfSoundIsOn();
-        if (mSettingsValues.mCustomKeypressSoundsProfile != mLastSelectedProfile) {
+        if (mHapticEngine != null && settingsValues.mKeypressVibrationDuration >= 0) {
+            mHapticEngine.setBaseDuration(settingsValues.mKeypressVibrationDuration);
+        }
+        if (mSettingsValues.mCustomKeypressSoundsProfile != mLastSelectedProfile
+                || (mLastSelectedProfile == Settings.IMPORTED_KEYPRESS_PROFILE
+                        && KeypressSoundPackImporter.getImportCount()
+                                != mLastSoundPackImportCount)) {
             loadSoundsForCurrentProfile();
         }
     }
@@ -313,12 +332,17 @@ public final class AudioAndHapticFeedbackManager {
     }
 
     public void release() {
-        Log.d(TAG, "Releasing SoundPool.");
-        if (mSoundPool != null) {
-            mSoundPool.release();
-            mSoundPool = null;
+        Log.d(TAG, "Releasing keypress sound engine.");
+        if (mProfileLoader != null) {
+            mProfileLoader.unload();
+            mProfileLoader = null;
+        }
+        if (mSoundEngine != null) {
+            mSoundEngine.release();
+            mSoundEngine = null;
         }
-        mSoundMap.clear();
-        mSoundsLoaded = false;
+        mLastSelectedProfile = -1;
+        mWarmingUp = false;
+        mSoundReadiness.setValue(KeypressSoundReadiness.STARTING);
     }
 }
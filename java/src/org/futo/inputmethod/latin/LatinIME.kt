@@ -397,6 +397,10 @@ class LatinIME : InputMethodServiceCompose(), LatinIMELegacy.SuggestionStripCont
 
         latinIMELegacy.onCreate()
 
+        // Open the keypress sound output and decode the sound profile now rather than on the
+        // first key press.
+        AudioAndHapticFeedbackManager.getInstance().warmUp()
+
         languageModelFacilitator.launchProcessor()
 
         if(isDirectBootUnlocked) {
@@ -794,11 +798,13 @@ class LatinIME : InputMethodServiceCompose(), LatinIMELegacy.SuggestionStripCont
     override fun onLowMemory() {
         super.onLowMemory()
         uixManager.cleanUpPersistentStates()
+        languageModelFacilitator.onTrimMemory()
     }
 
     override fun onTrimMemory(level: Int) {
         super.onTrimMemory(level)
         uixManager.cleanUpPersistentStates()
+        languageModelFacilitator.onTrimMemory()
     }
 
     @RequiresApi(Build.VERSION_CODES.R)
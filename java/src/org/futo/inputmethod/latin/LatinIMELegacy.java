@@ -1698,8 +1698,9 @@ public class LatinIMELegacy implements KeyboardActionListener,
         }
         final AudioAndHapticFeedbackManager feedbackManager =
                 AudioAndHapticFeedbackManager.getInstance();
-        feedbackManager.performHapticFeedback(keyboardView, repeatCount > 0);
-        feedbackManager.performAudioFeedback(code);
+        feedbackManager.performHapticFeedback(keyboardView, code, repeatCount > 0);
+        feedbackManager.performAudioFeedback(code, repeatCount > 0,
+                keyboardView != null ? keyboardView.getKeyboard() : null);
     }
 
     // Callback of the {@link KeyboardActionListener}. This is called when a key is depressed;
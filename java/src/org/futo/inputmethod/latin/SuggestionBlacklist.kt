@@ -11,10 +11,21 @@ import org.futo.inputmethod.latin.uix.getSetting
 import org.futo.inputmethod.latin.uix.getSettingFlow
 import org.futo.inputmethod.latin.uix.settings.badWords
 import org.futo.inputmethod.latin.uix.settings.isFiltered
+import org.futo.inputmethod.latin.xlm.VersionedWords
 
 class SuggestionBlacklist(val settings: Settings, val context: Context, val lifecycleScope: LifecycleCoroutineScope) {
     var offensiveWordsAdded = false
     var currentBlacklist: Set<String> = setOf()
+        set(value) {
+            field = value
+            versionedBlacklist = VersionedWords.of(value.toList())
+        }
+
+    /**
+     * [currentBlacklist], with a version that changes only when it does.
+     */
+    @Volatile var versionedBlacklist = VersionedWords.Empty
+        private set
 
     fun init() {
         lifecycleScope.launch {
@@ -0,0 +1,106 @@
+package org.futo.inputmethod.latin.haptic;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.VibrationEffect;
+import android.os.Vibrator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays key press vibrations from a dedicated thread so the UI thread never calls into the
+ * vibrator service.
+ *
+ * {@link #enqueue} only sets a bit in an atomic mask and, if the dispatch thread was idle,
+ * unparks it. While a waveform plays, further presses accumulate in the mask and are played as
+ * a single waveform of the strongest class once it ends, so a burst of presses costs one
+ * vibrator call instead of one per key.
+ */
+public final class KeypressHapticEngine {
+    private static final String THREAD_NAME = KeypressHapticEngine.class.getSimpleName();
+
+    private final Vibrator mVibrator;
+    private final AtomicInteger mPendingClasses = new AtomicInteger();
+    private final Thread mDispatchThread;
+    private volatile KeypressHapticWaveforms mWaveforms;
+    // VibrationEffect per key class on O and later, built with the waveforms.
+    private volatile Object[] mEffects;
+    private volatile boolean mReleased;
+
+    public KeypressHapticEngine(final Vibrator vibrator) {
+        mVibrator = vibrator;
+        mDispatchThread = new Thread(this::runDispatchLoop, THREAD_NAME);
+        mDispatchThread.start();
+    }
+
+    /**
+     * Rebuilds the waveforms for a new keypress vibration duration. Cheap when the duration did
+     * not change, so it can be called on every settings change.
+     */
+    public void setBaseDuration(final int baseDurationMillis) {
+        final KeypressHapticWaveforms current = mWaveforms;
+        if (current != null && current.getBaseDurationMillis() == baseDurationMillis) {
+            return;
+        }
+        final KeypressHapticWaveforms waveforms = new KeypressHapticWaveforms(baseDurationMillis);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            final Object[] effects = new Object[KeypressHapticWaveforms.CLASS_COUNT];
+            for (int keyClass = 0; keyClass < effects.length; keyClass++) {
+                effects[keyClass] = VibrationEffect.createWaveform(waveforms.getTimings(keyClass),
+                        waveforms.getAmplitudes(keyClass), -1);
+            }
+            mEffects = effects;
+        }
+        mWaveforms = waveforms;
+    }
+
+    /**
+     * Requests a vibration for a press of {@code keyClass}. Lock-free and safe to call from any
+     * thread; does nothing until {@link #setBaseDuration} has been called.
+     */
+    public void enqueue(final int keyClass) {
+        final int bit = 1 << keyClass;
+        int pending;
+        do {
+            pending = mPendingClasses.get();
+            if ((pending & bit) != 0) {
+                return;
+            }
+        } while (!mPendingClasses.compareAndSet(pending, pending | bit));
+        if (pending == 0) {
+            LockSupport.unpark(mDispatchThread);
+        }
+    }
+
+    public void release() {
+        mReleased = true;
+        LockSupport.unpark(mDispatchThread);
+    }
+
+    private void runDispatchLoop() {
+        // Below the UI thread: a late vibration is better than a late frame.
+        Process.setThreadPriority(
+                Process.THREAD_PRIORITY_DEFAULT + Process.THREAD_PRIORITY_LESS_FAVORABLE);
+        while (!mReleased) {
+            final int classes = mPendingClasses.getAndSet(0);
+            final KeypressHapticWaveforms waveforms = mWaveforms;
+            if (classes == 0 || waveforms == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            final int keyClass = KeypressHapticWaveforms.getStrongestClass(classes);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                mVibrator.vibrate((VibrationEffect) mEffects[keyClass]);
+            } else {
+                mVibrator.vibrate(waveforms.getDurationMillis(keyClass));
+            }
+            // Presses arriving while this waveform plays are merged into the next one.
+            final long end = System.nanoTime() + waveforms.getDurationMillis(keyClass) * 1000000L;
+            long remaining;
+            while (!mReleased && (remaining = end - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.futo.inputmethod.latin.haptic;
+
+import org.futo.inputmethod.latin.common.Constants;
+
+/**
+ * Precomputed vibration waveforms for each class of key press, built once per vibration
+ * duration setting. This class has no Android dependencies so that it can be unit-tested on a
+ * plain JVM.
+ *
+ * Key classes are ordered by strength, so when several presses are coalesced into one
+ * vibration, the highest set bit of their class mask picks the waveform to play.
+ */
+public final class KeypressHapticWaveforms {
+    public static final int CLASS_REPEAT = 0;
+    public static final int CLASS_LETTER = 1;
+    public static final int CLASS_SPACE = 2;
+    public static final int CLASS_DELETE = 3;
+    public static final int CLASS_ENTER = 4;
+    public static final int CLASS_COUNT = 5;
+
+    /** Same value as {@code VibrationEffect.DEFAULT_AMPLITUDE}. */
+    public static final int DEFAULT_AMPLITUDE = -1;
+
+    // Amplitudes on the 1..255 scale of VibrationEffect. Regular presses keep the device default
+    // strength of the old fixed vibration; only repeats are softer, and enter adds a softer tail.
+    // Devices without amplitude control play any non-zero amplitude at full strength.
+    private static final int[][] AMPLITUDES = {
+            { 120 },                        // CLASS_REPEAT
+            { DEFAULT_AMPLITUDE },          // CLASS_LETTER
+            { DEFAULT_AMPLITUDE },          // CLASS_SPACE
+            { DEFAULT_AMPLITUDE },          // CLASS_DELETE
+            { DEFAULT_AMPLITUDE, 100 },     // CLASS_ENTER
+    };
+
+    private final int mBaseDurationMillis;
+    private final long[][] mTimings = new long[CLASS_COUNT][];
+    private final long[] mDurations = new long[CLASS_COUNT];
+
+    public KeypressHapticWaveforms(final int baseDurationMillis) {
+        mBaseDurationMillis = baseDurationMillis;
+        final long base = Math.max(1, baseDurationMillis);
+        mTimings[CLASS_REPEAT] = new long[] { Math.max(1, base / 2) };
+        mTimings[CLASS_LETTER] = new long[] { base };
+        mTimings[CLASS_SPACE] = new long[] { base };
+        mTimings[CLASS_DELETE] = new long[] { base };
+        mTimings[CLASS_ENTER] = new long[] { base, Math.max(1, base / 2) };
+        for (int keyClass = 0; keyClass < CLASS_COUNT; keyClass++) {
+            long duration = 0;
+            for (final long timing : mTimings[keyClass]) {
+                duration += timing;
+            }
+            mDurations[keyClass] = duration;
+        }
+    }
+
+    public int getBaseDurationMillis() {
+        return mBaseDurationMillis;
+    }
+
+    public static int getKeyClass(final int code, final boolean repeatKey) {
+        if (repeatKey) {
+            return CLASS_REPEAT;
+        }
+        switch (code) {
+        case Constants.CODE_SPACE:
+            return CLASS_SPACE;
+        case Constants.CODE_DELETE:
+            return CLASS_DELETE;
+        case Constants.CODE_ENTER:
+            return CLASS_ENTER;
+        default:
+            return CLASS_LETTER;
+        }
+    }
+
+    /**
+     * @param classMask a non-zero mask with bit {@code 1 << keyClass} set for each press.
+     * @return the strongest key class in {@code classMask}.
+     */
+    public static int getStrongestClass(final int classMask) {
+        return 31 - Integer.numberOfLeadingZeros(classMask);
+    }
+
+    /**
+     * @return the segment durations of the waveform, in milliseconds. Must not be modified.
+     */
+    public long[] getTimings(final int keyClass) {
+        return mTimings[keyClass];
+    }
+
+    /**
+     * @return the amplitude of each segment of {@link #getTimings}. Must not be modified.
+     */
+    public int[] getAmplitudes(final int keyClass) {
+        return AMPLITUDES[keyClass];
+    }
+
+    public long getDurationMillis(final int keyClass) {
+        return mDurations[keyClass];
+    }
+}
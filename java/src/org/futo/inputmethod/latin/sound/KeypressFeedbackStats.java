@@ -0,0 +1,188 @@
+package org.futo.inputmethod.latin.sound;
+
+/**
+ * Debug counters for keypress feedback, shown by the debug action panel.
+ *
+ * Collection is off by default. While it is off, every hook below is a single read of a
+ * volatile flag and callers skip taking timestamps, so the typing path does no extra work.
+ *
+ * Each counter has a single writer: plays, fallbacks and throttled presses are counted on the UI
+ * thread, drops where triggers are queued, and steals and latencies on the audio thread. Readers
+ * may see slightly stale values, which is fine for a debug view.
+ */
+public final class KeypressFeedbackStats {
+    // Bucket 0 holds latencies below FIRST_BUCKET_MICROS; bucket i > 0 holds
+    // [FIRST_BUCKET_MICROS << (i - 1), FIRST_BUCKET_MICROS << i). The last bucket is open-ended.
+    public static final int LATENCY_BUCKET_COUNT = 12;
+    public static final int FIRST_BUCKET_MICROS = 250;
+
+    private static volatile boolean sEnabled;
+    private static volatile int sPlays;
+    private static volatile int sDrops;
+    private static volatile int sFallbacks;
+    private static volatile int sSteals;
+    private static volatile int sShortened;
+    private static volatile int sCoalesced;
+    private static final int[] sLatencyBuckets = new int[LATENCY_BUCKET_COUNT];
+
+    private KeypressFeedbackStats() {
+        // This utility class is not publicly instantiable.
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Turns collection on or off. Turning it on clears the previous counts.
+     */
+    public static void setEnabled(final boolean enabled) {
+        if (enabled && !sEnabled) {
+            reset();
+        }
+        sEnabled = enabled;
+    }
+
+    public static void reset() {
+        sPlays = 0;
+        sDrops = 0;
+        sFallbacks = 0;
+        sSteals = 0;
+        sShortened = 0;
+        sCoalesced = 0;
+        synchronized (sLatencyBuckets) {
+            for (int i = 0; i < LATENCY_BUCKET_COUNT; i++) {
+                sLatencyBuckets[i] = 0;
+            }
+        }
+    }
+
+    /** A sample was handed to the mixer. */
+    public static void onPlay() {
+        if (sEnabled) {
+            sPlays++;
+        }
+    }
+
+    /** A press was not played because the trigger queue was full. */
+    public static void onDrop() {
+        if (sEnabled) {
+            sDrops++;
+        }
+    }
+
+    /** A press of a custom profile played the system sound because its sample was not ready. */
+    public static void onFallback() {
+        if (sEnabled) {
+            sFallbacks++;
+        }
+    }
+
+    /** A playing voice was cut short to make room for a new one or to stay within budget. */
+    public static void onVoiceStolen() {
+        if (sEnabled) {
+            sSteals++;
+        }
+    }
+
+    /** A press was played shortened by {@link KeypressSoundThrottle}. */
+    public static void onShortened() {
+        if (sEnabled) {
+            sShortened++;
+        }
+    }
+
+    /** A press was coalesced into the previous click by {@link KeypressSoundThrottle}. */
+    public static void onCoalesced() {
+        if (sEnabled) {
+            sCoalesced++;
+        }
+    }
+
+    /** Records the time between a key press and its voice starting in the mixer. */
+    public static void recordLatency(final long nanos) {
+        if (!sEnabled) {
+            return;
+        }
+        final int bucket = getBucket(nanos / 1000);
+        // Only the audio thread writes; the lock just keeps reset() from racing with it.
+        synchronized (sLatencyBuckets) {
+            sLatencyBuckets[bucket]++;
+        }
+    }
+
+    static int getBucket(final long micros) {
+        if (micros < FIRST_BUCKET_MICROS) {
+            return 0;
+        }
+        return Math.min(LATENCY_BUCKET_COUNT - 1,
+                64 - Long.numberOfLeadingZeros(micros / FIRST_BUCKET_MICROS));
+    }
+
+    /**
+     * @return the exclusive upper bound of {@code bucket} in microseconds, or
+     * {@link Long#MAX_VALUE} for the last bucket.
+     */
+    public static long getBucketUpperBoundMicros(final int bucket) {
+        return bucket == LATENCY_BUCKET_COUNT - 1 ? Long.MAX_VALUE
+                : (long) FIRST_BUCKET_MICROS << bucket;
+    }
+
+    public static Snapshot snapshot() {
+        final int[] buckets;
+        synchronized (sLatencyBuckets) {
+            buckets = sLatencyBuckets.clone();
+        }
+        return new Snapshot(sPlays, sDrops, sFallbacks, sSteals, sShortened, sCoalesced,
+                buckets);
+    }
+
+    public static final class Snapshot {
+        public final int mPlays;
+        public final int mDrops;
+        public final int mFallbacks;
+        public final int mSteals;
+        public final int mShortened;
+        public final int mCoalesced;
+        public final int[] mLatencyBuckets;
+
+        Snapshot(final int plays, final int drops, final int fallbacks, final int steals,
+                final int shortened, final int coalesced, final int[] latencyBuckets) {
+            mPlays = plays;
+            mDrops = drops;
+            mFallbacks = fallbacks;
+            mSteals = steals;
+            mShortened = shortened;
+            mCoalesced = coalesced;
+            mLatencyBuckets = latencyBuckets;
+        }
+
+        public int getLatencyCount() {
+            int count = 0;
+            for (final int bucketCount : mLatencyBuckets) {
+                count += bucketCount;
+            }
+            return count;
+        }
+
+        /**
+         * @return the upper bound, in microseconds, of the bucket holding the given percentile
+         * of recorded latencies, or 0 if none were recorded.
+         */
+        public long getLatencyPercentileMicros(final float percentile) {
+            final int count = getLatencyCount();
+            if (count == 0) {
+                return 0;
+            }
+            final long target = (long) Math.ceil(count * percentile / 100.0f);
+            long seen = 0;
+            for (int bucket = 0; bucket < mLatencyBuckets.length; bucket++) {
+                seen += mLatencyBuckets[bucket];
+                if (seen >= target) {
+                    return getBucketUpperBoundMicros(bucket);
+                }
+            }
+            return getBucketUpperBoundMicros(mLatencyBuckets.length - 1);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package org.futo.inputmethod.latin.sound;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays keypress samples through a single streaming {@link AudioTrack}.
+ *
+ * Samples are decoded from {@code res/raw} once and kept as PCM. Overlapping presses are summed
+ * by {@link KeypressSoundMixer} on a dedicated audio thread, which parks itself and pauses the
+ * track after a short period of silence so an idle keyboard does not keep the output open.
+ *
+ * Before parking for the first time, the audio thread primes the output by playing a few
+ * buffers of silence. This makes the platform set up the (fast) output path at startup instead
+ * of on the first key press, which would otherwise be noticeably late.
+ */
+public final class KeypressSoundEngine {
+    private static final String TAG = KeypressSoundEngine.class.getSimpleName();
+
+    private static final int DEFAULT_SAMPLE_RATE = 44100;
+    private static final int DEFAULT_FRAMES_PER_BUFFER = 256;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int IDLE_MILLIS_BEFORE_PAUSE = 1500;
+    private static final int PRIMING_BUFFER_COUNT = 2;
+
+    private final Resources mResources;
+    private final AudioTrack mTrack;
+    private final KeypressSoundMixer mMixer;
+    private final int mSampleRate;
+    private final int mFramesPerBuffer;
+    private final Object mSignal = new Object();
+    private final SparseArray<PcmSample> mDecodedSamples = new SparseArray<>();
+    private final Thread mMixThread;
+    private final CountDownLatch mPrimed = new CountDownLatch(1);
+    private volatile boolean mReleased;
+    private volatile long mLastAudibleWriteNanos;
+
+    /**
+     * @return a running engine, or null if no output track could be opened on this device.
+     */
+    public static KeypressSoundEngine create(final Context context) {
+        final AudioManager audioManager =
+                (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        final int sampleRate = getOutputSampleRate(context);
+        final int framesPerBuffer = readIntProperty(audioManager,
+                AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER, DEFAULT_FRAMES_PER_BUFFER);
+        try {
+            return new KeypressSoundEngine(context.getApplicationContext(), sampleRate,
+                    framesPerBuffer);
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            Log.e(TAG, "Could not open keypress sound output", e);
+            return null;
+        }
+    }
+
+    private KeypressSoundEngine(final Context context, final int sampleRate,
+            final int framesPerBuffer) {
+        mResources = context.getResources();
+        mSampleRate = sampleRate;
+        mFramesPerBuffer = framesPerBuffer;
+        // Stereo so presses can be panned by key position; mono devices downmix.
+        mMixer = new KeypressSoundMixer(framesPerBuffer, CHANNEL_COUNT,
+                KeypressSoundMixer.DEFAULT_MAX_VOICES,
+                KeypressSoundMixer.DEFAULT_VOICE_FRAME_BUDGET);
+
+        final int minBufferBytes = AudioTrack.getMinBufferSize(sampleRate,
+                AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT);
+        final AudioTrack.Builder builder = new AudioTrack.Builder()
+                .setAudioAttributes(new AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_ASSISTANCE_SONIFICATION)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                        .build())
+                .setAudioFormat(new AudioFormat.Builder()
+                        .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                        .setSampleRate(sampleRate)
+                        .setChannelMask(AudioFormat.CHANNEL_OUT_STEREO)
+                        .build())
+                .setTransferMode(AudioTrack.MODE_STREAM)
+                .setBufferSizeInBytes(Math.max(minBufferBytes,
+                        framesPerBuffer * CHANNEL_COUNT * 2));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            builder.setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY);
+        }
+        mTrack = builder.build();
+        if (mTrack.getState() != AudioTrack.STATE_INITIALIZED) {
+            mTrack.release();
+            throw new UnsupportedOperationException("AudioTrack failed to initialize");
+        }
+
+        mMixThread = new Thread(this::runMixLoop, TAG);
+        mMixThread.start();
+    }
+
+    /**
+     * @return the native output rate of the device, which is the rate samples are decoded to.
+     */
+    public static int getOutputSampleRate(final Context context) {
+        return readIntProperty((AudioManager) context.getSystemService(Context.AUDIO_SERVICE),
+                AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE, DEFAULT_SAMPLE_RATE);
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * Blocks until the output has been primed, the engine was released, or the timeout expires.
+     *
+     * @return true if the output is primed.
+     */
+    public boolean awaitPrimed(final long timeoutMillis) throws InterruptedException {
+        return mPrimed.await(timeoutMillis, TimeUnit.MILLISECONDS) && !mReleased;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the last buffer containing at least one
+     * voice was handed to the track, or 0 if nothing has been played yet.
+     */
+    public long getLastAudibleWriteNanos() {
+        return mLastAudibleWriteNanos;
+    }
+
+    /**
+     * Decodes a raw WAV resource, or returns the cached copy if it was decoded before. Safe to
+     * call from any thread, but decoding is slow enough that it should stay off the UI thread.
+     */
+    public PcmSample loadRawResource(final int resId) throws IOException {
+        synchronized (mDecodedSamples) {
+            final PcmSample cached = mDecodedSamples.get(resId);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final PcmSample sample;
+        try (InputStream stream = mResources.openRawResource(resId)) {
+            sample = WavDecoder.decode(stream, mSampleRate);
+        }
+        synchronized (mDecodedSamples) {
+            mDecodedSamples.put(resId, sample);
+        }
+        return sample;
+    }
+
+    public void play(final PcmSample sample, final float gain) {
+        play(sample, gain, KeypressSoundMixer.PAN_CENTER, Integer.MAX_VALUE, 0);
+    }
+
+    /**
+     * @param pan per-channel gains from {@link KeypressSoundMixer#packPan}.
+     * @param maxFrames plays at most this many frames of {@code sample}, see
+     * {@link KeypressSoundMixer#play(PcmSample, float, int, int, long)}.
+     * @param pressNanos {@link System#nanoTime()} of the key press, used to measure latency in
+     * {@link KeypressFeedbackStats}, or 0.
+     */
+    public void play(final PcmSample sample, final float gain, final int pan,
+            final int maxFrames, final long pressNanos) {
+        if (mReleased || !mMixer.play(sample, gain, pan, maxFrames, pressNanos)) {
+            return;
+        }
+        KeypressFeedbackStats.onPlay();
+        synchronized (mSignal) {
+            mSignal.notify();
+        }
+    }
+
+    public void stopAll() {
+        mMixer.stopAll();
+    }
+
+    public void release() {
+        mReleased = true;
+        mPrimed.countDown();
+        synchronized (mSignal) {
+            mSignal.notify();
+        }
+        try {
+            mMixThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mTrack.release();
+        synchronized (mDecodedSamples) {
+            mDecodedSamples.clear();
+        }
+    }
+
+    private void runMixLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        final int bufferValues = mFramesPerBuffer * CHANNEL_COUNT;
+        final short[] buffer = new short[bufferValues];
+        prime(buffer);
+        final int idleBuffersBeforePause =
+                Math.max(1, mSampleRate * IDLE_MILLIS_BEFORE_PAUSE / 1000 / mFramesPerBuffer);
+        boolean playing = false;
+        int idleBuffers = 0;
+        while (!mReleased) {
+            if (!playing) {
+                synchronized (mSignal) {
+                    while (!mReleased && !mMixer.hasPendingTriggers()) {
+                        try {
+                            mSignal.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+                if (mReleased) {
+                    break;
+                }
+                mTrack.play();
+                playing = true;
+                idleBuffers = 0;
+            }
+            final int voices = mMixer.mix(buffer, mFramesPerBuffer);
+            final int written = mTrack.write(buffer, 0, bufferValues);
+            if (written < 0) {
+                Log.e(TAG, "AudioTrack write failed: " + written);
+                mTrack.pause();
+                playing = false;
+                continue;
+            }
+            if (voices > 0) {
+                mLastAudibleWriteNanos = System.nanoTime();
+                idleBuffers = 0;
+            } else if (++idleBuffers >= idleBuffersBeforePause && mMixer.isIdle()) {
+                mTrack.pause();
+                mTrack.flush();
+                playing = false;
+            }
+        }
+        if (playing) {
+            mTrack.stop();
+        }
+    }
+
+    private void prime(final short[] silence) {
+        try {
+            mTrack.play();
+            for (int i = 0; i < PRIMING_BUFFER_COUNT && !mReleased; i++) {
+                mTrack.write(silence, 0, silence.length);
+            }
+            mTrack.pause();
+            mTrack.flush();
+        } catch (IllegalStateException e) {
+            // Priming is only an optimization; the first press will open the path instead.
+            Log.w(TAG, "Could not prime the keypress sound output", e);
+        }
+        mPrimed.countDown();
+    }
+
+    private static int readIntProperty(final AudioManager audioManager, final String key,
+            final int defaultValue) {
+        if (audioManager == null) {
+            return defaultValue;
+        }
+        final String value = audioManager.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final int parsed = Integer.parseInt(value);
+            return parsed > 0 ? parsed : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package org.futo.inputmethod.latin.sound;
+
+import java.util.Arrays;
+
+/**
+ * Software mixer for keypress samples. This class has no Android dependencies so that it can be
+ * unit-tested and benchmarked on a plain JVM.
+ *
+ * Threading: {@link #play} and {@link #stopAll} may be called from any thread. Every other
+ * method belongs to the single mixing thread. Triggers are handed over through a bounded
+ * ring buffer, so the mixing thread never takes a lock and the callers never wait on mixing.
+ *
+ * Output is mono or interleaved stereo. In stereo, each voice carries its own left and right
+ * gain, so key presses can be panned without extra samples; see {@link #packPan}.
+ *
+ * Voices are kept in start order (oldest first). When every voice is busy, or when the per-buffer
+ * work budget does not allow all active voices to be mixed, the oldest voices are stolen.
+ */
+public final class KeypressSoundMixer {
+    public static final int DEFAULT_MAX_VOICES = 12;
+    // Upper bound of sample frames summed per {@link #mix} call across all voices. This caps the
+    // mixer CPU time per output buffer regardless of how fast keys are pressed.
+    public static final int DEFAULT_VOICE_FRAME_BUDGET = 8 * 1024;
+    // Voices cut short by a frame limit fade out over this many frames instead of clicking.
+    static final int FADE_OUT_FRAMES = 128;
+
+    // Pans are packed as two 15-bit gains, left in the high half, so callers can keep a whole
+    // pan in one int and hand it over without any math on the press path.
+    private static final int PAN_GAIN_BITS = 15;
+    private static final int PAN_GAIN_MAX = (1 << PAN_GAIN_BITS) - 1;
+    private static final int PAN_GAIN_MASK = 0xFFFF;
+    /** Full gain on both channels. */
+    public static final int PAN_CENTER = (PAN_GAIN_MAX << 16) | PAN_GAIN_MAX;
+
+    private final int mChannelCount;
+    private final int mMaxVoices;
+    private final int mMaxFramesPerBuffer;
+    private final int mVoiceFrameBudget;
+
+    // Trigger ring buffer. Producers serialize on mTriggerLock; the consumer only reads
+    // mPendingHead and publishes mPendingTail, both volatile.
+    private final Object mTriggerLock = new Object();
+    private final PcmSample[] mPendingSamples;
+    private final float[] mPendingGains;
+    private final int[] mPendingPans;
+    private final int[] mPendingFrameLimits;
+    // System.nanoTime() of the press behind each trigger, or 0 when latency is not measured.
+    private final long[] mPendingPressNanos;
+    private final int mPendingMask;
+    private volatile int mPendingHead;
+    private volatile int mPendingTail;
+    // Head of the queue at the last stopAll(). Triggers queued before it, and the voices they
+    // started, are discarded by the next mix() that sees a new value.
+    private volatile int mStopHead;
+    private int mAppliedStopHead;
+
+    // Voice state, owned by the mixing thread.
+    private final PcmSample[] mVoiceSamples;
+    private final int[] mVoicePositions;
+    // Queue position of the trigger that started each voice, compared against mStopHead.
+    private final int[] mVoiceTriggers;
+    // Frame at which each voice ends; below the sample length for shortened voices.
+    private final int[] mVoiceEnds;
+    // Per-voice gains; mono mixers only use the left one.
+    private final float[] mVoiceGains;
+    private final float[] mVoiceRightGains;
+    private int mActiveVoiceCount;
+    private final float[] mAccumulator;
+
+    private volatile int mStolenVoiceCount;
+    private volatile int mDroppedTriggerCount;
+
+    public KeypressSoundMixer(final int maxFramesPerBuffer) {
+        this(maxFramesPerBuffer, DEFAULT_MAX_VOICES, DEFAULT_VOICE_FRAME_BUDGET);
+    }
+
+    public KeypressSoundMixer(final int maxFramesPerBuffer, final int maxVoices,
+            final int voiceFrameBudget) {
+        this(maxFramesPerBuffer, 1, maxVoices, voiceFrameBudget);
+    }
+
+    /**
+     * @param channelCount 1 for mono output, 2 for interleaved stereo output.
+     */
+    public KeypressSoundMixer(final int maxFramesPerBuffer, final int channelCount,
+            final int maxVoices, final int voiceFrameBudget) {
+        if (maxFramesPerBuffer <= 0 || maxVoices <= 0 || voiceFrameBudget <= 0) {
+            throw new IllegalArgumentException("Mixer sizes must be positive");
+        }
+        if (channelCount != 1 && channelCount != 2) {
+            throw new IllegalArgumentException("Unsupported channel count " + channelCount);
+        }
+        mChannelCount = channelCount;
+        mMaxFramesPerBuffer = maxFramesPerBuffer;
+        mMaxVoices = maxVoices;
+        mVoiceFrameBudget = voiceFrameBudget;
+
+        final int pendingCapacity = Integer.highestOneBit(maxVoices * 2 - 1) << 1;
+        mPendingSamples = new PcmSample[pendingCapacity];
+        mPendingGains = new float[pendingCapacity];
+        mPendingPans = new int[pendingCapacity];
+        mPendingFrameLimits = new int[pendingCapacity];
+        mPendingPressNanos = new long[pendingCapacity];
+        mPendingMask = pendingCapacity - 1;
+
+        mVoiceSamples = new PcmSample[maxVoices];
+        mVoicePositions = new int[maxVoices];
+        mVoiceTriggers = new int[maxVoices];
+        mVoiceEnds = new int[maxVoices];
+        mVoiceGains = new float[maxVoices];
+        mVoiceRightGains = new float[maxVoices];
+        mAccumulator = new float[maxFramesPerBuffer * channelCount];
+    }
+
+    public int getMaxFramesPerBuffer() {
+        return mMaxFramesPerBuffer;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * Packs per-channel gains for {@link #play(PcmSample, float, int, int, long)}.
+     *
+     * @param left the left channel gain, clamped to [0, 1].
+     * @param right the right channel gain, clamped to [0, 1].
+     */
+    public static int packPan(final float left, final float right) {
+        return (toPanGain(left) << 16) | toPanGain(right);
+    }
+
+    private static int toPanGain(final float gain) {
+        return Math.round(Math.max(0.0f, Math.min(1.0f, gain)) * PAN_GAIN_MAX);
+    }
+
+    static float getLeftGain(final int pan) {
+        return ((pan >>> 16) & PAN_GAIN_MASK) / (float) PAN_GAIN_MAX;
+    }
+
+    static float getRightGain(final int pan) {
+        return (pan & PAN_GAIN_MASK) / (float) PAN_GAIN_MAX;
+    }
+
+    /**
+     * Queues a sample to start at the beginning of the next mixed buffer.
+     *
+     * @return false if the trigger queue was full and the press was dropped.
+     */
+    public boolean play(final PcmSample sample, final float gain) {
+        return play(sample, gain, PAN_CENTER, Integer.MAX_VALUE, 0);
+    }
+
+    /**
+     * Same as {@link #play(PcmSample, float)} with extra controls.
+     *
+     * @param pan per-channel gains from {@link #packPan}, applied on top of {@code gain}.
+     * Ignored by mono mixers.
+     * @param maxFrames plays at most this many frames of {@code sample}, fading out at the end.
+     * @param pressNanos {@link System#nanoTime()} of the key press; the time until the voice
+     * starts is recorded in {@link KeypressFeedbackStats}. 0 to skip.
+     */
+    public boolean play(final PcmSample sample, final float gain, final int pan,
+            final int maxFrames, final long pressNanos) {
+        if (sample == null || sample.mData.length == 0 || gain <= 0.0f || maxFrames <= 0) {
+            return false;
+        }
+        synchronized (mTriggerLock) {
+            final int head = mPendingHead;
+            if (head - mPendingTail > mPendingMask) {
+                mDroppedTriggerCount++;
+                KeypressFeedbackStats.onDrop();
+                return false;
+            }
+            mPendingSamples[head & mPendingMask] = sample;
+            mPendingGains[head & mPendingMask] = gain;
+            mPendingPans[head & mPendingMask] = pan;
+            mPendingFrameLimits[head & mPendingMask] = maxFrames;
+            mPendingPressNanos[head & mPendingMask] = pressNanos;
+            mPendingHead = head + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Silences every voice and discards every trigger queued so far, at the start of the next
+     * buffer. Triggers queued after this call are kept, even if the mixing thread is parked and
+     * only applies the stop once they have arrived.
+     */
+    public void stopAll() {
+        synchronized (mTriggerLock) {
+            mStopHead = mPendingHead;
+        }
+    }
+
+    public boolean hasPendingTriggers() {
+        return mPendingHead != mPendingTail;
+    }
+
+    /**
+     * Only meaningful on the mixing thread.
+     */
+    public boolean isIdle() {
+        return mActiveVoiceCount == 0 && !hasPendingTriggers();
+    }
+
+    public int getStolenVoiceCount() {
+        return mStolenVoiceCount;
+    }
+
+    public int getDroppedTriggerCount() {
+        return mDroppedTriggerCount;
+    }
+
+    /**
+     * Mixes the next {@code frameCount} frames into {@code output}, overwriting it. Stereo
+     * frames are interleaved, so {@code output} must hold {@code frameCount * channelCount}
+     * values.
+     *
+     * @return the number of voices that contributed to this buffer.
+     */
+    public int mix(final short[] output, final int frameCount) {
+        final int channelCount = mChannelCount;
+        if (frameCount > mMaxFramesPerBuffer || frameCount * channelCount > output.length) {
+            throw new IllegalArgumentException("Buffer of " + frameCount + " frames is larger than "
+                    + "the mixer was configured for");
+        }
+        final int stopHead = mStopHead;
+        if (stopHead != mAppliedStopHead) {
+            mAppliedStopHead = stopHead;
+            clearVoicesBefore(stopHead);
+        }
+        drainTriggers();
+
+        final int voiceLimit = Math.max(1, Math.min(mMaxVoices, mVoiceFrameBudget / frameCount));
+        while (mActiveVoiceCount > voiceLimit) {
+            stealOldestVoice();
+        }
+
+        final float[] accumulator = mAccumulator;
+        final int valueCount = frameCount * channelCount;
+        Arrays.fill(accumulator, 0, valueCount, 0.0f);
+        final int mixedVoices = mActiveVoiceCount;
+        int survivors = 0;
+        for (int voice = 0; voice < mixedVoices; voice++) {
+            final PcmSample sample = mVoiceSamples[voice];
+            final short[] data = sample.mData;
+            final int position = mVoicePositions[voice];
+            final int end = mVoiceEnds[voice];
+            final float gain = mVoiceGains[voice];
+            final float rightGain = mVoiceRightGains[voice];
+            final int frames = Math.min(frameCount, end - position);
+            final int unfaded;
+            final float fadeStep;
+            if (end < data.length) {
+                // Shortened voice: linear fade over the last frames before the cut.
+                final int fadeStart = Math.max(0, end - FADE_OUT_FRAMES);
+                fadeStep = 1.0f / (end - fadeStart);
+                unfaded = Math.max(0, Math.min(frames, fadeStart - position));
+            } else {
+                fadeStep = 0.0f;
+                unfaded = frames;
+            }
+            int i = 0;
+            if (channelCount == 1) {
+                for (; i < unfaded; i++) {
+                    accumulator[i] += data[position + i] * gain;
+                }
+                for (; i < frames; i++) {
+                    accumulator[i] += data[position + i] * gain * fadeStep * (end - position - i);
+                }
+            } else {
+                for (; i < unfaded; i++) {
+                    final float value = data[position + i];
+                    accumulator[2 * i] += value * gain;
+                    accumulator[2 * i + 1] += value * rightGain;
+                }
+                for (; i < frames; i++) {
+                    final float value = data[position + i] * fadeStep * (end - position - i);
+                    accumulator[2 * i] += value * gain;
+                    accumulator[2 * i + 1] += value * rightGain;
+                }
+            }
+            if (position + frames < end) {
+                // Compact in place; order is preserved so index 0 stays the oldest voice.
+                mVoiceSamples[survivors] = sample;
+                mVoicePositions[survivors] = position + frames;
+                mVoiceTriggers[survivors] = mVoiceTriggers[voice];
+                mVoiceEnds[survivors] = end;
+                mVoiceGains[survivors] = gain;
+                mVoiceRightGains[survivors] = rightGain;
+                survivors++;
+            }
+        }
+        for (int voice = survivors; voice < mixedVoices; voice++) {
+            mVoiceSamples[voice] = null;
+        }
+        mActiveVoiceCount = survivors;
+
+        for (int i = 0; i < valueCount; i++) {
+            final float value = accumulator[i];
+            if (value >= Short.MAX_VALUE) {
+                output[i] = Short.MAX_VALUE;
+            } else if (value <= Short.MIN_VALUE) {
+                output[i] = Short.MIN_VALUE;
+            } else {
+                output[i] = (short) value;
+            }
+        }
+        return mixedVoices;
+    }
+
+    private void drainTriggers() {
+        final int head = mPendingHead;
+        int tail = mPendingTail;
+        long now = 0;
+        while (tail != head) {
+            final int slot = tail & mPendingMask;
+            final long pressNanos = mPendingPressNanos[slot];
+            if (pressNanos != 0) {
+                if (now == 0) {
+                    now = System.nanoTime();
+                }
+                KeypressFeedbackStats.recordLatency(now - pressNanos);
+            }
+            startVoice(tail, mPendingSamples[slot], mPendingGains[slot], mPendingPans[slot],
+                    mPendingFrameLimits[slot]);
+            mPendingSamples[slot] = null;
+            tail++;
+        }
+        mPendingTail = tail;
+    }
+
+    private void startVoice(final int trigger, final PcmSample sample, final float gain,
+            final int pan, final int maxFrames) {
+        if (mActiveVoiceCount == mMaxVoices) {
+            stealOldestVoice();
+        }
+        final int voice = mActiveVoiceCount++;
+        mVoiceSamples[voice] = sample;
+        mVoicePositions[voice] = 0;
+        mVoiceTriggers[voice] = trigger;
+        mVoiceEnds[voice] = Math.min(sample.mData.length, maxFrames);
+        if (mChannelCount == 1) {
+            mVoiceGains[voice] = gain;
+        } else {
+            mVoiceGains[voice] = gain * getLeftGain(pan);
+            mVoiceRightGains[voice] = gain * getRightGain(pan);
+        }
+    }
+
+    private void stealOldestVoice() {
+        final int remaining = mActiveVoiceCount - 1;
+        System.arraycopy(mVoiceSamples, 1, mVoiceSamples, 0, remaining);
+        System.arraycopy(mVoicePositions, 1, mVoicePositions, 0, remaining);
+        System.arraycopy(mVoiceTriggers, 1, mVoiceTriggers, 0, remaining);
+        System.arraycopy(mVoiceEnds, 1, mVoiceEnds, 0, remaining);
+        System.arraycopy(mVoiceGains, 1, mVoiceGains, 0, remaining);
+        System.arraycopy(mVoiceRightGains, 1, mVoiceRightGains, 0, remaining);
+        mVoiceSamples[remaining] = null;
+        mActiveVoiceCount = remaining;
+        mStolenVoiceCount++;
+        KeypressFeedbackStats.onVoiceStolen();
+    }
+
+    // Queue positions wrap around, so they are compared by the sign of their difference.
+    private void clearVoicesBefore(final int stopHead) {
+        int survivors = 0;
+        for (int voice = 0; voice < mActiveVoiceCount; voice++) {
+            if (mVoiceTriggers[voice] - stopHead >= 0) {
+                mVoiceSamples[survivors] = mVoiceSamples[voice];
+                mVoicePositions[survivors] = mVoicePositions[voice];
+                mVoiceTriggers[survivors] = mVoiceTriggers[voice];
+                mVoiceEnds[survivors] = mVoiceEnds[voice];
+                mVoiceGains[survivors] = mVoiceGains[voice];
+                mVoiceRightGains[survivors] = mVoiceRightGains[voice];
+                survivors++;
+            }
+        }
+        Arrays.fill(mVoiceSamples, survivors, mActiveVoiceCount, null);
+        mActiveVoiceCount = survivors;
+
+        int tail = mPendingTail;
+        for (; stopHead - tail > 0; tail++) {
+            mPendingSamples[tail & mPendingMask] = null;
+        }
+        mPendingTail = tail;
+    }
+}
@@ -0,0 +1,234 @@
+package org.futo.inputmethod.latin.sound;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * An imported keypress sound pack: a profile manifest plus every sample it uses, transcoded once
+ * to mono 16-bit PCM and stored in a single file that is memory-mapped when the profile loads.
+ *
+ * Layout, all little-endian:
+ * <pre>
+ *   int    magic ("KSPK")
+ *   int    version
+ *   int    sample rate
+ *   int    sample count
+ *   int    manifest length in bytes, followed by the UTF-8 manifest
+ *   per sample: short name length, UTF-8 name, int first frame, int frame count
+ *   int16  PCM frames of every sample, back to back, starting at an even offset
+ * </pre>
+ * Opening a pack only reads the header and index. Samples are copied out of the mapping one at
+ * a time as the loader needs them, so importing is the only time audio gets decoded.
+ */
+public final class KeypressSoundPack {
+    public static final String FILE_EXTENSION = "kspk";
+
+    private static final int MAGIC = 0x4B50534B; // "KSPK" read as a little-endian int.
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+
+    private final ByteBuffer mBuffer;
+    private final int mSampleRate;
+    private final String mManifest;
+    private final List<String> mSampleNames;
+    private final HashMap<String, Integer> mIndices;
+    private final int[] mFirstFrames;
+    private final int[] mFrameCounts;
+    private final int mDataOffset;
+
+    private KeypressSoundPack(final ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a keypress sound pack");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported sound pack version " + buffer.getInt(4));
+        }
+        mSampleRate = buffer.getInt(8);
+        final int sampleCount = buffer.getInt(12);
+        final int manifestLength = buffer.getInt(16);
+        if (mSampleRate <= 0 || sampleCount < 0 || manifestLength < 0
+                || manifestLength > buffer.limit() - HEADER_SIZE) {
+            throw new IOException("Corrupt sound pack header");
+        }
+        mManifest = readString(buffer, HEADER_SIZE, manifestLength);
+
+        final ArrayList<String> names = new ArrayList<>(sampleCount);
+        mIndices = new HashMap<>();
+        mFirstFrames = new int[sampleCount];
+        mFrameCounts = new int[sampleCount];
+        int offset = HEADER_SIZE + manifestLength;
+        long totalFrames = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            if (offset + 2 > buffer.limit()) {
+                throw new IOException("Truncated sound pack index");
+            }
+            final int nameLength = buffer.getShort(offset) & 0xFFFF;
+            offset += 2;
+            if (offset + nameLength + 8 > buffer.limit()) {
+                throw new IOException("Truncated sound pack index");
+            }
+            final String name = readString(buffer, offset, nameLength);
+            offset += nameLength;
+            mFirstFrames[i] = buffer.getInt(offset);
+            mFrameCounts[i] = buffer.getInt(offset + 4);
+            offset += 8;
+            if (mFirstFrames[i] < 0 || mFrameCounts[i] < 0) {
+                throw new IOException("Corrupt index entry for " + name);
+            }
+            totalFrames = Math.max(totalFrames, (long) mFirstFrames[i] + mFrameCounts[i]);
+            names.add(name);
+            mIndices.put(name, i);
+        }
+        mDataOffset = offset + (offset & 1);
+        if (mDataOffset + totalFrames * 2 > buffer.limit()) {
+            throw new IOException("Truncated sound pack data");
+        }
+        mSampleNames = Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Maps {@code file} read-only and parses its index. The mapping outlives the file handle,
+     * which is closed before returning, and is released when the pack is garbage collected.
+     */
+    public static KeypressSoundPack open(final File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            final FileChannel channel = randomAccessFile.getChannel();
+            final MappedByteBuffer buffer =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new KeypressSoundPack(buffer.order(ByteOrder.LITTLE_ENDIAN));
+        }
+    }
+
+    /**
+     * Parses a pack that is already in memory. Used by tests and by callers that cannot map.
+     */
+    public static KeypressSoundPack wrap(final byte[] bytes) throws IOException {
+        return new KeypressSoundPack(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * @return the manifest JSON, in the format read by {@link KeypressSoundProfileParser}.
+     */
+    public String getManifest() {
+        return mManifest;
+    }
+
+    public List<String> getSampleNames() {
+        return mSampleNames;
+    }
+
+    /**
+     * Copies one sample out of the pack, resampling it if the output runs at a different rate
+     * than the device the pack was imported on.
+     *
+     * @throws IOException if the pack has no sample called {@code name}.
+     */
+    public PcmSample readSample(final String name, final int targetSampleRate)
+            throws IOException {
+        final Integer index = mIndices.get(name);
+        if (index == null) {
+            throw new IOException("No sample named " + name + " in the sound pack");
+        }
+        final short[] data = new short[mFrameCounts[index]];
+        // duplicate() keeps concurrent readers from sharing a position.
+        final ByteBuffer view = mBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(mDataOffset + mFirstFrames[index] * 2);
+        final ShortBuffer shorts = view.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        shorts.get(data);
+        return WavDecoder.resample(new PcmSample(data, mSampleRate), targetSampleRate);
+    }
+
+    /**
+     * Writes a pack to {@code file}. All samples must share {@code sampleRate}. The file is
+     * written next to its destination first and renamed into place, so a failed import leaves
+     * the previous pack untouched.
+     */
+    public static void write(final File file, final int sampleRate, final String manifest,
+            final List<String> sampleNames, final List<PcmSample> samples) throws IOException {
+        final File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream stream = new FileOutputStream(temp)) {
+            write(stream, sampleRate, manifest, sampleNames, samples);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not move the sound pack to " + file);
+        }
+    }
+
+    public static void write(final OutputStream stream, final int sampleRate,
+            final String manifest, final List<String> sampleNames, final List<PcmSample> samples)
+            throws IOException {
+        if (sampleNames.size() != samples.size()) {
+            throw new IllegalArgumentException("Every sample needs a name");
+        }
+        final byte[] manifestBytes = manifest.getBytes(StandardCharsets.UTF_8);
+        final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        final DataOutputStream indexOut = new DataOutputStream(index);
+        int firstFrame = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            final PcmSample sample = samples.get(i);
+            if (sample.mSampleRate != sampleRate) {
+                throw new IllegalArgumentException("Sample " + sampleNames.get(i) + " is at "
+                        + sample.mSampleRate + "Hz instead of " + sampleRate + "Hz");
+            }
+            final byte[] name = sampleNames.get(i).getBytes(StandardCharsets.UTF_8);
+            if (name.length > 0xFFFF) {
+                throw new IllegalArgumentException("Sample name too long");
+            }
+            indexOut.writeShort(Short.reverseBytes((short) name.length));
+            indexOut.write(name);
+            indexOut.writeInt(Integer.reverseBytes(firstFrame));
+            indexOut.writeInt(Integer.reverseBytes(sample.getLengthInFrames()));
+            firstFrame += sample.getLengthInFrames();
+        }
+
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(Integer.reverseBytes(MAGIC));
+        out.writeInt(Integer.reverseBytes(VERSION));
+        out.writeInt(Integer.reverseBytes(sampleRate));
+        out.writeInt(Integer.reverseBytes(samples.size()));
+        out.writeInt(Integer.reverseBytes(manifestBytes.length));
+        out.write(manifestBytes);
+        index.writeTo(out);
+        if (((HEADER_SIZE + manifestBytes.length + index.size()) & 1) != 0) {
+            out.writeByte(0);
+        }
+        for (final PcmSample sample : samples) {
+            for (final short value : sample.mData) {
+                out.writeShort(Short.reverseBytes(value));
+            }
+        }
+        out.flush();
+    }
+
+    private static String readString(final ByteBuffer buffer, final int offset,
+            final int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,184 @@
+package org.futo.inputmethod.latin.sound;
+
+import android.content.Context;
+
+import org.futo.inputmethod.latin.settings.Settings;
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Turns a user-provided sound pack archive into a {@link KeypressSoundPack}.
+ *
+ * The archive is a zip with a {@link #MANIFEST_ENTRY} describing one profile (same rules as
+ * {@code raw/keypress_sound_profiles.json}, without an id) next to the audio files it names.
+ * A sample called {@code click} may be stored as {@code click}, {@code click.wav},
+ * {@code click.ogg} or any other extension the platform can decode, in any directory of the
+ * archive. Every sample is decoded and resampled once, here, so loading the profile later is a
+ * plain copy out of the mapped pack.
+ */
+public final class KeypressSoundPackImporter {
+    public static final String MANIFEST_ENTRY = "sound_pack.json";
+    public static final String PACK_FILE_NAME =
+            "keypress_sound_pack." + KeypressSoundPack.FILE_EXTENSION;
+
+    // Guards against zip bombs; real packs are a few hundred kilobytes.
+    private static final long MAX_UNCOMPRESSED_BYTES = 32L * 1024 * 1024;
+
+    // Bumped on every successful import so an already loaded pack gets reloaded even though
+    // the selected profile id did not change.
+    private static volatile int sImportCount;
+
+    private KeypressSoundPackImporter() {
+        // This utility class is not publicly instantiable.
+    }
+
+    public static File getPackFile(final Context context) {
+        return new File(context.getExternalFilesDir(null), PACK_FILE_NAME);
+    }
+
+    public static boolean hasImportedPack(final Context context) {
+        return getPackFile(context).isFile();
+    }
+
+    public static int getImportCount() {
+        return sImportCount;
+    }
+
+    /**
+     * Reads through the archive up to its manifest, inflating every entry before it, so it
+     * should stay off the UI thread.
+     *
+     * @return the profile name declared by the archive's manifest, or null if {@code stream}
+     * is not a sound pack archive.
+     */
+    public static String readPackName(final InputStream stream) {
+        try (ZipInputStream zip = new ZipInputStream(stream)) {
+            final String manifest = readManifestAndEntries(zip, null);
+            if (manifest == null) {
+                return null;
+            }
+            return KeypressSoundProfileParser.parseSoundPack(manifest,
+                    Settings.IMPORTED_KEYPRESS_PROFILE).mName;
+        } catch (IOException | JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes every sample of the archive and replaces the imported pack with the result.
+     *
+     * @return the name of the imported profile.
+     * @throws IOException if the archive is not a valid sound pack or a sample cannot be decoded.
+     */
+    public static String importPack(final Context context, final InputStream stream)
+            throws IOException {
+        final HashMap<String, byte[]> entries = new HashMap<>();
+        final String manifest;
+        try (ZipInputStream zip = new ZipInputStream(stream)) {
+            manifest = readManifestAndEntries(zip, entries);
+        }
+        if (manifest == null) {
+            throw new IOException("The archive has no " + MANIFEST_ENTRY);
+        }
+        final KeypressSoundProfile profile;
+        try {
+            profile = KeypressSoundProfileParser.parseSoundPack(manifest,
+                    Settings.IMPORTED_KEYPRESS_PROFILE);
+        } catch (JSONException e) {
+            throw new IOException("Invalid " + MANIFEST_ENTRY + ": " + e.getMessage(), e);
+        }
+
+        final int sampleRate = KeypressSoundEngine.getOutputSampleRate(context);
+        final List<String> names = profile.getSampleNames();
+        final ArrayList<PcmSample> samples = new ArrayList<>(names.size());
+        for (final String name : names) {
+            final byte[] bytes = entries.get(name);
+            if (bytes == null) {
+                throw new IOException("The archive has no audio file for sample " + name);
+            }
+            samples.add(decode(context, name, bytes, sampleRate));
+        }
+
+        KeypressSoundPack.write(getPackFile(context), sampleRate, manifest, names, samples);
+        sImportCount++;
+        return profile.mName;
+    }
+
+    private static PcmSample decode(final Context context, final String name,
+            final byte[] bytes, final int sampleRate) throws IOException {
+        if (bytes.length >= 4 && bytes[0] == 'R' && bytes[1] == 'I' && bytes[2] == 'F'
+                && bytes[3] == 'F') {
+            return WavDecoder.decode(bytes, sampleRate);
+        }
+        // MediaExtractor wants a seekable source, so compressed samples go through a file.
+        final File temp = File.createTempFile("keypress_sample", null, context.getCacheDir());
+        try {
+            try (OutputStream out = new FileOutputStream(temp)) {
+                out.write(bytes);
+            }
+            return MediaCodecSampleDecoder.decode(temp, sampleRate);
+        } catch (IOException e) {
+            throw new IOException("Could not decode sample " + name + ": " + e.getMessage(), e);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Reads the archive, returning the manifest and, if {@code entries} is not null, filling
+     * it with every other file keyed by both its file name and its file name without extension.
+     */
+    private static String readManifestAndEntries(final ZipInputStream zip,
+            final HashMap<String, byte[]> entries) throws IOException {
+        String manifest = null;
+        long totalBytes = 0;
+        final byte[] buffer = new byte[8 * 1024];
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            final String path = entry.getName();
+            final String fileName = path.substring(path.lastIndexOf('/') + 1);
+            final boolean isManifest = fileName.equals(MANIFEST_ENTRY);
+            if (!isManifest && entries == null) {
+                continue;
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int read;
+            while ((read = zip.read(buffer)) != -1) {
+                totalBytes += read;
+                if (totalBytes > MAX_UNCOMPRESSED_BYTES) {
+                    throw new IOException("Sound pack is too large");
+                }
+                out.write(buffer, 0, read);
+            }
+            if (isManifest) {
+                manifest = new String(out.toByteArray(), StandardCharsets.UTF_8);
+                if (entries == null) {
+                    return manifest;
+                }
+                continue;
+            }
+            final byte[] bytes = out.toByteArray();
+            entries.put(fileName, bytes);
+            final int dot = fileName.lastIndexOf('.');
+            if (dot > 0 && !entries.containsKey(fileName.substring(0, dot))) {
+                entries.put(fileName.substring(0, dot), bytes);
+            }
+        }
+        return manifest;
+    }
+}
@@ -0,0 +1,138 @@
+package org.futo.inputmethod.latin.sound;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Declarative description of a keypress sound profile: which samples it uses and which keys
+ * play them. Parsed from a manifest by {@link KeypressSoundProfileParser}.
+ *
+ * Rules are applied in order, so a later rule overrides earlier ones for the codes it matches.
+ * This lets a profile map "every key" first and then give delete, enter and space their own
+ * flavour.
+ */
+public final class KeypressSoundProfile {
+    public static final int MODE_PER_KEY = 0;
+    public static final int MODE_ROUND_ROBIN = 1;
+    public static final int MODE_SEQUENCE = 2;
+
+    public static final class Rule {
+        // When set, the rule applies to the whole dense range plus the extra codes given to
+        // createTable(), ignoring mCodes.
+        public final boolean mMatchAll;
+        public final int[] mCodes;
+        public final int[] mSampleIndices;
+        public final int mMode;
+        // Only used by MODE_SEQUENCE: positions into mSampleIndices, in play order.
+        public final int[] mOrder;
+
+        public Rule(final boolean matchAll, final int[] codes, final int[] sampleIndices,
+                final int mode, final int[] order) {
+            if (sampleIndices.length == 0) {
+                throw new IllegalArgumentException("A rule needs at least one sample");
+            }
+            if (mode == MODE_SEQUENCE && (order == null || order.length == 0)) {
+                throw new IllegalArgumentException("A sequence rule needs an order");
+            }
+            mMatchAll = matchAll;
+            mCodes = codes;
+            mSampleIndices = sampleIndices;
+            mMode = mode;
+            mOrder = order;
+        }
+    }
+
+    public final int mId;
+    public final String mName;
+    private final List<String> mSampleNames;
+    private final List<Rule> mRules;
+
+    public KeypressSoundProfile(final int id, final String name, final List<String> sampleNames,
+            final List<Rule> rules) {
+        mId = id;
+        mName = name;
+        mSampleNames = Collections.unmodifiableList(new ArrayList<>(sampleNames));
+        mRules = Collections.unmodifiableList(new ArrayList<>(rules));
+    }
+
+    public List<String> getSampleNames() {
+        return mSampleNames;
+    }
+
+    public List<Rule> getRules() {
+        return mRules;
+    }
+
+    /**
+     * Builds the lookup table for this profile with every sample pending. Sample index {@code i}
+     * of the table is {@code getSampleNames().get(i)}.
+     *
+     * @param denseStart first code of the directly indexed range, inclusive.
+     * @param denseEnd last code of the directly indexed range, inclusive.
+     * @param extraCodes codes outside the dense range that "match all" rules also cover.
+     */
+    public KeypressSoundTable createTable(final int denseStart, final int denseEnd,
+            final int[] extraCodes) {
+        final KeypressSoundTable.Builder builder =
+                new KeypressSoundTable.Builder(denseStart, denseEnd);
+        for (int i = 0; i < mSampleNames.size(); i++) {
+            builder.addPendingSample();
+        }
+        for (final Rule rule : mRules) {
+            switch (rule.mMode) {
+                case MODE_ROUND_ROBIN:
+                    mapCycle(builder, rule, builder.addCycle(rule.mSampleIndices),
+                            denseStart, denseEnd, extraCodes);
+                    break;
+                case MODE_SEQUENCE:
+                    final int[] sequence = new int[rule.mOrder.length];
+                    for (int i = 0; i < sequence.length; i++) {
+                        sequence[i] = rule.mSampleIndices[rule.mOrder[i]];
+                    }
+                    mapCycle(builder, rule, builder.addCycle(sequence),
+                            denseStart, denseEnd, extraCodes);
+                    break;
+                default:
+                    mapPerKey(builder, rule, denseStart, denseEnd, extraCodes);
+                    break;
+            }
+        }
+        return builder.build();
+    }
+
+    // Each key keeps the same sample; samples are spread over the keys by position.
+    private static void mapPerKey(final KeypressSoundTable.Builder builder, final Rule rule,
+            final int denseStart, final int denseEnd, final int[] extraCodes) {
+        final int[] samples = rule.mSampleIndices;
+        if (rule.mMatchAll) {
+            for (int code = denseStart; code <= denseEnd; code++) {
+                builder.map(code, samples[(code - denseStart) % samples.length]);
+            }
+            for (int i = 0; i < extraCodes.length; i++) {
+                builder.map(extraCodes[i], samples[i % samples.length]);
+            }
+        } else {
+            for (int i = 0; i < rule.mCodes.length; i++) {
+                builder.map(rule.mCodes[i], samples[i % samples.length]);
+            }
+        }
+    }
+
+    private static void mapCycle(final KeypressSoundTable.Builder builder, final Rule rule,
+            final int cycleId, final int denseStart, final int denseEnd,
+            final int[] extraCodes) {
+        if (rule.mMatchAll) {
+            for (int code = denseStart; code <= denseEnd; code++) {
+                builder.mapCycle(code, cycleId);
+            }
+            for (final int code : extraCodes) {
+                builder.mapCycle(code, cycleId);
+            }
+        } else {
+            for (final int code : rule.mCodes) {
+                builder.mapCycle(code, cycleId);
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package org.futo.inputmethod.latin.sound;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.Log;
+
+import org.futo.inputmethod.latin.R;
+import org.futo.inputmethod.latin.common.Constants;
+import org.futo.inputmethod.latin.settings.Settings;
+import org.futo.inputmethod.latin.utils.ExecutorUtils;
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loads the keypress sound profiles declared in {@code raw/keypress_sound_profiles.json}, and
+ * the imported sound pack for {@link Settings#IMPORTED_KEYPRESS_PROFILE}.
+ *
+ * Loading is asynchronous and incremental: the profile's table is published as soon as it is
+ * built, with every sample pending, and a new copy is published after each decoded sample.
+ * Samples used by the most common keys are decoded first, and a press on a pending sample moves
+ * it to the front of the queue. Callers fall back to the system sounds for pending samples.
+ */
+public final class KeypressSoundProfileLoader {
+    private static final String TAG = KeypressSoundProfileLoader.class.getSimpleName();
+
+    private interface SampleSource {
+        PcmSample decode(String name) throws IOException;
+    }
+
+    // Rough order in which keys are first needed while typing.
+    private static final int[] FIRST_NEEDED_CODES = {
+            Constants.CODE_SPACE, Constants.CODE_DELETE, 'e', 't', 'a', 'o', 'i', 'n', 's', 'h',
+            'r', Constants.CODE_ENTER, 'd', 'l', 'c', 'u', 'm', 'w', 'f', 'g', 'y', 'p', 'b',
+            Constants.CODE_PERIOD, Constants.CODE_COMMA, 'v', 'k', 'j', 'x', 'q', 'z',
+            Constants.CODE_SHIFT
+    };
+
+    private final Context mContext;
+    private final Resources mResources;
+    private final String mPackageName;
+    private final KeypressSoundEngine mEngine;
+    // Run on the loader thread once the current profile has been loaded as far as it can be.
+    private final Runnable mOnProfileLoaded;
+    private final AtomicReference<KeypressSoundTable> mTable = new AtomicReference<>();
+    // Bumped on every profile switch so a slow loader cannot publish an outdated profile.
+    private volatile int mGeneration;
+    private volatile int mRequestedSample = KeypressSoundTable.NO_SOUND;
+    // Only touched on the keyboard executor.
+    private List<KeypressSoundProfile> mProfiles;
+
+    public KeypressSoundProfileLoader(final Context context, final KeypressSoundEngine engine,
+            final Runnable onProfileLoaded) {
+        mContext = context;
+        mOnProfileLoaded = onProfileLoaded;
+        mResources = context.getResources();
+        mPackageName = context.getPackageName();
+        mEngine = engine;
+    }
+
+    /**
+     * @return the table for the current profile, or null if none is loaded. Some samples of the
+     * returned table may still be pending.
+     */
+    public KeypressSoundTable getTable() {
+        return mTable.get();
+    }
+
+    /**
+     * Asks the loader to decode {@code sampleIndex} of the current table before anything else.
+     */
+    public void requestSample(final int sampleIndex) {
+        mRequestedSample = sampleIndex;
+    }
+
+    /**
+     * Starts loading {@code profileId} in the background, replacing the current profile right
+     * away. Profiles that have no manifest entry leave no table, so callers keep using the
+     * system sounds.
+     */
+    public void load(final int profileId) {
+        mTable.set(null);
+        final int generation = ++mGeneration;
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute(
+                () -> loadInBackground(generation, profileId));
+    }
+
+    public void unload() {
+        mGeneration++;
+        mTable.set(null);
+    }
+
+    private void loadInBackground(final int generation, final int profileId) {
+        decodeProfile(generation, profileId);
+        // Also reported when loading failed: presses for missing samples keep using the system
+        // sounds, and waiting longer would not change that.
+        if (generation == mGeneration) {
+            mOnProfileLoaded.run();
+        }
+    }
+
+    private void decodeProfile(final int generation, final int profileId) {
+        final KeypressSoundProfile profile;
+        final SampleSource source;
+        if (profileId == Settings.IMPORTED_KEYPRESS_PROFILE) {
+            final KeypressSoundPack pack;
+            try {
+                pack = KeypressSoundPack.open(KeypressSoundPackImporter.getPackFile(mContext));
+                profile = KeypressSoundProfileParser.parseSoundPack(pack.getManifest(),
+                        profileId);
+            } catch (IOException | JSONException e) {
+                Log.e(TAG, "Could not open the imported sound pack", e);
+                return;
+            }
+            final int sampleRate = mEngine.getSampleRate();
+            source = name -> pack.readSample(name, sampleRate);
+        } else {
+            profile = findProfile(profileId);
+            if (profile == null) {
+                Log.i(TAG, "No sound manifest entry for profile " + profileId);
+                return;
+            }
+            source = this::decodeRawSample;
+        }
+        KeypressSoundTable table;
+        try {
+            table = profile.createTable(
+                    mResources.getInteger(R.integer.starting_latin_character_code),
+                    mResources.getInteger(R.integer.ending_latin_character_code),
+                    mResources.getIntArray(R.array.special_character_codes_outside_latin_range));
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            Log.e(TAG, "Invalid sound profile " + profileId, e);
+            return;
+        }
+        if (!publish(generation, table)) {
+            return;
+        }
+
+        final List<String> sampleNames = profile.getSampleNames();
+        final int[] order = table.getLoadOrder(FIRST_NEEDED_CODES);
+        final boolean[] done = new boolean[order.length];
+        int nextInOrder = 0;
+        for (int remaining = order.length; remaining > 0; remaining--) {
+            int index = mRequestedSample;
+            mRequestedSample = KeypressSoundTable.NO_SOUND;
+            if (index < 0 || index >= done.length || done[index]) {
+                while (done[order[nextInOrder]]) {
+                    nextInOrder++;
+                }
+                index = order[nextInOrder];
+            }
+            done[index] = true;
+            try {
+                table = table.withSample(index, source.decode(sampleNames.get(index)));
+            } catch (IOException | Resources.NotFoundException e) {
+                // The sample stays pending and keeps falling back to the system sound.
+                Log.e(TAG, "Could not decode " + sampleNames.get(index) + ": " + e.getMessage());
+                continue;
+            }
+            if (!publish(generation, table)) {
+                return;
+            }
+        }
+    }
+
+    private PcmSample decodeRawSample(final String name) throws IOException {
+        final int resId = mResources.getIdentifier(name, "raw", mPackageName);
+        if (resId == 0) {
+            throw new IOException("No raw resource named " + name);
+        }
+        return mEngine.loadRawResource(resId);
+    }
+
+    private boolean publish(final int generation, final KeypressSoundTable table) {
+        if (generation != mGeneration) {
+            return false;
+        }
+        mTable.set(table);
+        if (generation != mGeneration) {
+            // A profile switch raced with the swap above; withdraw the stale table.
+            mTable.compareAndSet(table, null);
+            return false;
+        }
+        return true;
+    }
+
+    private KeypressSoundProfile findProfile(final int profileId) {
+        if (mProfiles == null) {
+            try (InputStream stream = mResources.openRawResource(R.raw.keypress_sound_profiles)) {
+                mProfiles = KeypressSoundProfileParser.parse(readFully(stream));
+            } catch (IOException | JSONException e) {
+                Log.e(TAG, "Could not read the sound profile manifest", e);
+                return null;
+            }
+        }
+        for (final KeypressSoundProfile profile : mProfiles) {
+            if (profile.mId == profileId) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    private static String readFully(final InputStream stream) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,193 @@
+package org.futo.inputmethod.latin.sound;
+
+import org.futo.inputmethod.latin.common.Constants;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses keypress sound profile manifests.
+ *
+ * A manifest is a JSON object with a {@code profiles} array. Each profile has an integer
+ * {@code id} (matching the {@code Settings.*_KEYPRESS_PROFILE} constants), a {@code name} and
+ * an ordered list of {@code rules}. Each rule selects keys with exactly one of:
+ * <ul>
+ *   <li>{@code "keys": "all"} - every code in the Latin range and the special codes,</li>
+ *   <li>{@code "chars": "qwertyuiop"} - the listed characters, e.g. one keyboard row,</li>
+ *   <li>{@code "codes": ["delete", 8364]} - key codes, by name or value.</li>
+ * </ul>
+ * and plays {@code samples} (sample names, with {@code name_{0..25}} expanding to a numbered
+ * range) according to {@code mode}:
+ * <ul>
+ *   <li>{@code per_key} (default) - each key always plays the same sample,</li>
+ *   <li>{@code round_robin} - every press plays the next sample,</li>
+ *   <li>{@code sequence} - every press plays the next entry of {@code order}, a list of
+ *   positions into {@code samples} that may repeat, e.g. the notes of a melody.</li>
+ * </ul>
+ * Imported sound packs carry a single profile object without an {@code id}; see
+ * {@link #parseSoundPack}.
+ */
+public final class KeypressSoundProfileParser {
+    private static final Pattern RANGE_PATTERN = Pattern.compile("\\{(\\d+)\\.\\.(\\d+)\\}");
+    private static final HashMap<String, Integer> NAMED_CODES = new HashMap<>();
+    static {
+        NAMED_CODES.put("delete", Constants.CODE_DELETE);
+        NAMED_CODES.put("enter", Constants.CODE_ENTER);
+        NAMED_CODES.put("space", Constants.CODE_SPACE);
+        NAMED_CODES.put("tab", Constants.CODE_TAB);
+        NAMED_CODES.put("shift", Constants.CODE_SHIFT);
+        NAMED_CODES.put("capslock", Constants.CODE_CAPSLOCK);
+        NAMED_CODES.put("switch_alpha_symbol", Constants.CODE_SWITCH_ALPHA_SYMBOL);
+        NAMED_CODES.put("symbol_shift", Constants.CODE_SYMBOL_SHIFT);
+        NAMED_CODES.put("shift_enter", Constants.CODE_SHIFT_ENTER);
+        NAMED_CODES.put("emoji", Constants.CODE_EMOJI);
+        NAMED_CODES.put("language_switch", Constants.CODE_LANGUAGE_SWITCH);
+        NAMED_CODES.put("settings", Constants.CODE_SETTINGS);
+    }
+
+    private KeypressSoundProfileParser() {
+        // This utility class is not publicly instantiable.
+    }
+
+    public static List<KeypressSoundProfile> parse(final String json) throws JSONException {
+        final JSONArray profiles = new JSONObject(json).getJSONArray("profiles");
+        final ArrayList<KeypressSoundProfile> result = new ArrayList<>(profiles.length());
+        for (int i = 0; i < profiles.length(); i++) {
+            final JSONObject profile = profiles.getJSONObject(i);
+            result.add(parseProfile(profile, profile.getInt("id")));
+        }
+        return result;
+    }
+
+    /**
+     * Parses the manifest of an imported sound pack: one profile object, whose samples name
+     * files of the pack. The pack always plays as profile {@code id}.
+     */
+    public static KeypressSoundProfile parseSoundPack(final String json, final int id)
+            throws JSONException {
+        return parseProfile(new JSONObject(json), id);
+    }
+
+    private static KeypressSoundProfile parseProfile(final JSONObject profile, final int id)
+            throws JSONException {
+        final String name = profile.optString("name", Integer.toString(id));
+        final ArrayList<String> sampleNames = new ArrayList<>();
+        final HashMap<String, Integer> sampleIndices = new HashMap<>();
+        final ArrayList<KeypressSoundProfile.Rule> rules = new ArrayList<>();
+
+        final JSONArray rulesJson = profile.getJSONArray("rules");
+        for (int i = 0; i < rulesJson.length(); i++) {
+            final JSONObject rule = rulesJson.getJSONObject(i);
+
+            final List<String> samples = expandSampleNames(rule.getJSONArray("samples"));
+            final int[] indices = new int[samples.size()];
+            for (int s = 0; s < indices.length; s++) {
+                final String sampleName = samples.get(s);
+                Integer index = sampleIndices.get(sampleName);
+                if (index == null) {
+                    index = sampleNames.size();
+                    sampleNames.add(sampleName);
+                    sampleIndices.put(sampleName, index);
+                }
+                indices[s] = index;
+            }
+
+            final int mode = parseMode(rule.optString("mode", "per_key"));
+            int[] order = null;
+            if (mode == KeypressSoundProfile.MODE_SEQUENCE) {
+                final JSONArray orderJson = rule.getJSONArray("order");
+                order = new int[orderJson.length()];
+                for (int o = 0; o < order.length; o++) {
+                    order[o] = orderJson.getInt(o);
+                    if (order[o] < 0 || order[o] >= indices.length) {
+                        throw new JSONException("Sequence position " + order[o]
+                                + " is out of range in profile " + id);
+                    }
+                }
+            }
+
+            final boolean matchAll;
+            final int[] codes;
+            if (rule.has("keys")) {
+                if (!"all".equals(rule.getString("keys"))) {
+                    throw new JSONException("Unknown key selector " + rule.getString("keys"));
+                }
+                matchAll = true;
+                codes = new int[0];
+            } else if (rule.has("chars")) {
+                matchAll = false;
+                codes = rule.getString("chars").codePoints().toArray();
+            } else if (rule.has("codes")) {
+                matchAll = false;
+                codes = parseCodes(rule.getJSONArray("codes"));
+            } else {
+                throw new JSONException("Rule " + i + " of profile " + id + " selects no keys");
+            }
+
+            try {
+                rules.add(new KeypressSoundProfile.Rule(matchAll, codes, indices, mode, order));
+            } catch (IllegalArgumentException e) {
+                throw new JSONException("Invalid rule " + i + " in profile " + id + ": "
+                        + e.getMessage());
+            }
+        }
+        return new KeypressSoundProfile(id, name, sampleNames, rules);
+    }
+
+    private static int parseMode(final String mode) throws JSONException {
+        switch (mode) {
+            case "per_key":
+                return KeypressSoundProfile.MODE_PER_KEY;
+            case "round_robin":
+                return KeypressSoundProfile.MODE_ROUND_ROBIN;
+            case "sequence":
+                return KeypressSoundProfile.MODE_SEQUENCE;
+            default:
+                throw new JSONException("Unknown playback mode " + mode);
+        }
+    }
+
+    private static int[] parseCodes(final JSONArray codesJson) throws JSONException {
+        final int[] codes = new int[codesJson.length()];
+        for (int i = 0; i < codes.length; i++) {
+            final Object value = codesJson.get(i);
+            if (value instanceof String) {
+                final Integer code = NAMED_CODES.get(value);
+                if (code == null) {
+                    throw new JSONException("Unknown key name " + value);
+                }
+                codes[i] = code;
+            } else {
+                codes[i] = codesJson.getInt(i);
+            }
+        }
+        return codes;
+    }
+
+    private static List<String> expandSampleNames(final JSONArray samplesJson)
+            throws JSONException {
+        final ArrayList<String> names = new ArrayList<>();
+        for (int i = 0; i < samplesJson.length(); i++) {
+            final String name = samplesJson.getString(i);
+            final Matcher matcher = RANGE_PATTERN.matcher(name);
+            if (!matcher.find()) {
+                names.add(name);
+                continue;
+            }
+            final int from = Integer.parseInt(matcher.group(1));
+            final int to = Integer.parseInt(matcher.group(2));
+            final String prefix = name.substring(0, matcher.start());
+            final String suffix = name.substring(matcher.end());
+            for (int n = from; n <= to; n++) {
+                names.add(prefix + n + suffix);
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,16 @@
+package org.futo.inputmethod.latin.sound;
+
+/**
+ * How far keypress sound playback got during startup, published by
+ * {@code AudioAndHapticFeedbackManager#getSoundReadiness()}.
+ */
+public enum KeypressSoundReadiness {
+    /** The output is being opened; presses play the system sounds. */
+    STARTING,
+    /** The output is open and primed, but the selected profile is still being decoded. */
+    PRIMED,
+    /** Every press plays its final sound. */
+    READY,
+    /** No output could be opened; presses keep playing the system sounds. */
+    UNAVAILABLE
+}
@@ -0,0 +1,273 @@
+package org.futo.inputmethod.latin.sound;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable code-to-sample lookup used on every key press.
+ *
+ * Codes inside the dense range (the Latin range plus the small negative {@code CODE_*} values)
+ * resolve with a single array read; everything else goes through a binary search over a sorted
+ * primitive array. Nothing is boxed on lookup. Instances are built off the UI thread with
+ * {@link Builder} and published by swapping a single reference.
+ *
+ * A code maps either to one sample or to a cycle of samples that advances on every press (used
+ * for round-robin and sequence playback). Samples may still be pending while a profile is being
+ * decoded; {@link #withSample} returns a copy with one more sample resident.
+ */
+public final class KeypressSoundTable {
+    public static final int NO_SOUND = -1;
+    // Table entries at or below this value refer to cycle (CYCLE_BASE - entry).
+    private static final int CYCLE_BASE = -2;
+
+    private final PcmSample[] mSamples;
+    private final int mPendingSampleCount;
+    private final int mDenseStart;
+    private final int[] mDense;
+    private final int[] mSparseCodes;
+    private final int[] mSparseEntries;
+    private final int[][] mCycles;
+    // Shared by every copy made through withSample(), so cycles keep their position while a
+    // profile finishes loading. Only advanced from the UI thread.
+    private final int[] mCycleCursors;
+
+    private KeypressSoundTable(final PcmSample[] samples, final int denseStart,
+            final int[] dense, final int[] sparseCodes, final int[] sparseEntries,
+            final int[][] cycles, final int[] cycleCursors) {
+        mSamples = samples;
+        mDenseStart = denseStart;
+        mDense = dense;
+        mSparseCodes = sparseCodes;
+        mSparseEntries = sparseEntries;
+        mCycles = cycles;
+        mCycleCursors = cycleCursors;
+        int pending = 0;
+        for (final PcmSample sample : samples) {
+            if (sample == null) {
+                pending++;
+            }
+        }
+        mPendingSampleCount = pending;
+    }
+
+    private int lookupEntry(final int code) {
+        final int denseIndex = code - mDenseStart;
+        if (denseIndex >= 0 && denseIndex < mDense.length) {
+            return mDense[denseIndex];
+        }
+        final int sparseIndex = Arrays.binarySearch(mSparseCodes, code);
+        return sparseIndex >= 0 ? mSparseEntries[sparseIndex] : NO_SOUND;
+    }
+
+    /**
+     * Resolves the sample index for the next press of {@code code}, advancing its cycle if it
+     * has one. Must only be called from the UI thread.
+     *
+     * @return the sample index for {@code code}, or {@link #NO_SOUND}.
+     */
+    public int nextSampleIndex(final int code) {
+        final int entry = lookupEntry(code);
+        if (entry > CYCLE_BASE) {
+            return entry;
+        }
+        final int cycleId = CYCLE_BASE - entry;
+        final int[] cycle = mCycles[cycleId];
+        final int position = mCycleCursors[cycleId];
+        mCycleCursors[cycleId] = position + 1 == cycle.length ? 0 : position + 1;
+        return cycle[position];
+    }
+
+    /**
+     * Same as {@link #nextSampleIndex} but returns the sample itself.
+     *
+     * @return the sample to play for {@code code}, or null if the code has no sound or its
+     * sample is not resident yet.
+     */
+    public PcmSample nextSample(final int code) {
+        final int index = nextSampleIndex(code);
+        return index == NO_SOUND ? null : mSamples[index];
+    }
+
+    /**
+     * @return the sample index the next press of {@code code} would play, without advancing.
+     */
+    public int lookup(final int code) {
+        final int entry = lookupEntry(code);
+        if (entry > CYCLE_BASE) {
+            return entry;
+        }
+        final int cycleId = CYCLE_BASE - entry;
+        return mCycles[cycleId][mCycleCursors[cycleId]];
+    }
+
+    public PcmSample getSampleAt(final int index) {
+        return mSamples[index];
+    }
+
+    public int getSampleCount() {
+        return mSamples.length;
+    }
+
+    public boolean isComplete() {
+        return mPendingSampleCount == 0;
+    }
+
+    /**
+     * @return a copy of this table with {@code sample} resident at {@code index}. The lookup
+     * arrays are shared with this table, only the sample array is copied.
+     */
+    public KeypressSoundTable withSample(final int index, final PcmSample sample) {
+        if (sample == null) {
+            throw new NullPointerException("sample");
+        }
+        final PcmSample[] samples = mSamples.clone();
+        samples[index] = sample;
+        return new KeypressSoundTable(samples, mDenseStart, mDense, mSparseCodes, mSparseEntries,
+                mCycles, mCycleCursors);
+    }
+
+    /**
+     * Orders sample indices so that the samples played first by {@code priorityCodes} come
+     * first, followed by every remaining sample in index order. Used to decode a profile
+     * incrementally, most useful samples first.
+     */
+    public int[] getLoadOrder(final int[] priorityCodes) {
+        final int[] order = new int[mSamples.length];
+        final boolean[] added = new boolean[mSamples.length];
+        int count = 0;
+        for (final int code : priorityCodes) {
+            final int index = lookup(code);
+            if (index != NO_SOUND && !added[index]) {
+                added[index] = true;
+                order[count++] = index;
+            }
+        }
+        for (int index = 0; index < mSamples.length; index++) {
+            if (!added[index]) {
+                order[count++] = index;
+            }
+        }
+        return order;
+    }
+
+    public static final class Builder {
+        private final int mDenseStart;
+        private final int[] mDense;
+        private final TreeMap<Integer, Integer> mSparse = new TreeMap<>();
+        private PcmSample[] mSamples = new PcmSample[8];
+        private int mSampleCount;
+        private int[][] mCycles = new int[2][];
+        private int mCycleCount;
+
+        /**
+         * @param denseStart first code of the directly indexed range, inclusive.
+         * @param denseEnd last code of the directly indexed range, inclusive.
+         */
+        public Builder(final int denseStart, final int denseEnd) {
+            if (denseEnd < denseStart) {
+                throw new IllegalArgumentException("Empty dense range " + denseStart + ".."
+                        + denseEnd);
+            }
+            mDenseStart = denseStart;
+            mDense = new int[denseEnd - denseStart + 1];
+            Arrays.fill(mDense, NO_SOUND);
+        }
+
+        /**
+         * @return the index to pass to {@link #map} for this sample.
+         */
+        public int addSample(final PcmSample sample) {
+            if (sample == null) {
+                throw new NullPointerException("sample");
+            }
+            return addSlot(sample);
+        }
+
+        /**
+         * Reserves an index for a sample that will be provided later through
+         * {@link KeypressSoundTable#withSample}.
+         */
+        public int addPendingSample() {
+            return addSlot(null);
+        }
+
+        private int addSlot(final PcmSample sample) {
+            if (mSampleCount == mSamples.length) {
+                mSamples = Arrays.copyOf(mSamples, mSampleCount * 2);
+            }
+            mSamples[mSampleCount] = sample;
+            return mSampleCount++;
+        }
+
+        /**
+         * Declares a list of sample indices played one after the other, wrapping around.
+         * Indices may repeat.
+         *
+         * @return the cycle id to pass to {@link #mapCycle}.
+         */
+        public int addCycle(final int[] sampleIndices) {
+            if (sampleIndices.length == 0) {
+                throw new IllegalArgumentException("Empty cycle");
+            }
+            for (final int index : sampleIndices) {
+                checkSampleIndex(index);
+            }
+            if (mCycleCount == mCycles.length) {
+                mCycles = Arrays.copyOf(mCycles, mCycleCount * 2);
+            }
+            mCycles[mCycleCount] = sampleIndices.clone();
+            return mCycleCount++;
+        }
+
+        /**
+         * Maps {@code code} to a sample previously added with {@link #addSample} or
+         * {@link #addPendingSample}. Mapping the same code again replaces the earlier mapping.
+         */
+        public Builder map(final int code, final int sampleIndex) {
+            checkSampleIndex(sampleIndex);
+            putEntry(code, sampleIndex);
+            return this;
+        }
+
+        /**
+         * Maps {@code code} to a cycle previously added with {@link #addCycle}.
+         */
+        public Builder mapCycle(final int code, final int cycleId) {
+            if (cycleId < 0 || cycleId >= mCycleCount) {
+                throw new IndexOutOfBoundsException("No cycle with id " + cycleId);
+            }
+            putEntry(code, CYCLE_BASE - cycleId);
+            return this;
+        }
+
+        private void checkSampleIndex(final int sampleIndex) {
+            if (sampleIndex < 0 || sampleIndex >= mSampleCount) {
+                throw new IndexOutOfBoundsException("No sample at index " + sampleIndex);
+            }
+        }
+
+        private void putEntry(final int code, final int entry) {
+            final int denseIndex = code - mDenseStart;
+            if (denseIndex >= 0 && denseIndex < mDense.length) {
+                mDense[denseIndex] = entry;
+            } else {
+                mSparse.put(code, entry);
+            }
+        }
+
+        public KeypressSoundTable build() {
+            final int[] sparseCodes = new int[mSparse.size()];
+            final int[] sparseEntries = new int[mSparse.size()];
+            int i = 0;
+            for (final Map.Entry<Integer, Integer> entry : mSparse.entrySet()) {
+                sparseCodes[i] = entry.getKey();
+                sparseEntries[i] = entry.getValue();
+                i++;
+            }
+            return new KeypressSoundTable(Arrays.copyOf(mSamples, mSampleCount), mDenseStart,
+                    mDense.clone(), sparseCodes, sparseEntries,
+                    Arrays.copyOf(mCycles, mCycleCount), new int[mCycleCount]);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.futo.inputmethod.latin.sound;
+
+/**
+ * Decides how to sound each key press so bursts of presses cannot pile up voices in the mixer.
+ *
+ * Presses below the configured rate always play in full. Key repeats, and presses made while
+ * typing fast above the rate, play shortened so fewer voices overlap; presses that arrive
+ * sooner than the mixer could usefully separate them are coalesced into the previous click.
+ * The throttle is used from the UI thread only.
+ */
+public final class KeypressSoundThrottle {
+    public static final int PLAY = 0;
+    public static final int PLAY_SHORTENED = 1;
+    public static final int SKIP = 2;
+
+    // The rate is estimated over this many recent presses.
+    private static final int RATE_WINDOW = 8;
+
+    private final long mMinIntervalMillis;
+    private final long mCoalesceIntervalMillis;
+    private final long[] mPressTimes = new long[RATE_WINDOW];
+    private int mPressCount;
+    private long mLastSoundedMillis;
+    private boolean mHasSounded;
+
+    /**
+     * @param maxEventsPerSecond the press rate above which clicks are shortened or coalesced.
+     */
+    public KeypressSoundThrottle(final int maxEventsPerSecond) {
+        if (maxEventsPerSecond <= 0) {
+            throw new IllegalArgumentException("maxEventsPerSecond must be positive");
+        }
+        mMinIntervalMillis = 1000 / maxEventsPerSecond;
+        mCoalesceIntervalMillis = mMinIntervalMillis / 2;
+    }
+
+    /**
+     * @param nowMillis the press time, in {@link android.os.SystemClock#uptimeMillis()}.
+     * @param isRepeat whether the press comes from key repeat.
+     * @param isFastTyping whether the user is typing fast, as reported by the pointer tracker.
+     * @return one of {@link #PLAY}, {@link #PLAY_SHORTENED} or {@link #SKIP}.
+     */
+    public int onPress(final long nowMillis, final boolean isRepeat, final boolean isFastTyping) {
+        mPressTimes[mPressCount % RATE_WINDOW] = nowMillis;
+        mPressCount++;
+        final long sinceLastSound = mHasSounded ? nowMillis - mLastSoundedMillis : Long.MAX_VALUE;
+        final int decision;
+        if (isRepeat) {
+            // Repeats are evenly spaced, so keep at most one per interval.
+            decision = sinceLastSound < mMinIntervalMillis ? SKIP : PLAY_SHORTENED;
+        } else if (isFastTyping && isAboveRate(nowMillis)) {
+            decision = sinceLastSound < mCoalesceIntervalMillis ? SKIP : PLAY_SHORTENED;
+        } else {
+            decision = PLAY;
+        }
+        if (decision != SKIP) {
+            mLastSoundedMillis = nowMillis;
+            mHasSounded = true;
+        }
+        return decision;
+    }
+
+    private boolean isAboveRate(final long nowMillis) {
+        final int samples = Math.min(mPressCount, RATE_WINDOW);
+        if (samples < 2) {
+            return false;
+        }
+        final long oldest = mPressTimes[(mPressCount - samples) % RATE_WINDOW];
+        // The average interval over the window is below the minimum interval.
+        return (nowMillis - oldest) < mMinIntervalMillis * (samples - 1);
+    }
+}
@@ -0,0 +1,125 @@
+package org.futo.inputmethod.latin.sound;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Decodes compressed keypress samples (OGG Vorbis, Opus, MP3...) with the platform codecs.
+ * Only used while importing a sound pack, so speed does not matter much; the result goes
+ * through the same downmix and resampling as {@link WavDecoder}.
+ */
+final class MediaCodecSampleDecoder {
+    private static final long TIMEOUT_MICROS = 10000;
+    // Keypress samples are short; anything longer is almost certainly not meant as one.
+    private static final int MAX_DURATION_SECONDS = 10;
+
+    private MediaCodecSampleDecoder() {
+        // This utility class is not publicly instantiable.
+    }
+
+    static PcmSample decode(final File file, final int targetSampleRate) throws IOException {
+        final MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(file.getPath());
+            MediaFormat format = null;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                final MediaFormat trackFormat = extractor.getTrackFormat(i);
+                final String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    extractor.selectTrack(i);
+                    format = trackFormat;
+                    break;
+                }
+            }
+            if (format == null) {
+                throw new IOException("No audio track in " + file.getName());
+            }
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+            return drain(extractor, codec, format, targetSampleRate);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new IOException("Could not decode " + file.getName(), e);
+        } finally {
+            if (codec != null) {
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    private static PcmSample drain(final MediaExtractor extractor, final MediaCodec codec,
+            final MediaFormat inputFormat, final int targetSampleRate) throws IOException {
+        int channels = inputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        int sampleRate = inputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        final int maxFrames = sampleRate * MAX_DURATION_SECONDS;
+        float[] mono = new float[sampleRate / 2];
+        int frameCount = 0;
+
+        final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        boolean inputDone = false;
+        while (true) {
+            if (!inputDone) {
+                final int inputIndex = codec.dequeueInputBuffer(TIMEOUT_MICROS);
+                if (inputIndex >= 0) {
+                    final ByteBuffer input = codec.getInputBuffer(inputIndex);
+                    final int size = extractor.readSampleData(input, 0);
+                    if (size < 0) {
+                        codec.queueInputBuffer(inputIndex, 0, 0, 0,
+                                MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        inputDone = true;
+                    } else {
+                        codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                        extractor.advance();
+                    }
+                }
+            }
+
+            final int outputIndex = codec.dequeueOutputBuffer(info, TIMEOUT_MICROS);
+            if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                final MediaFormat outputFormat = codec.getOutputFormat();
+                channels = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                continue;
+            }
+            if (outputIndex < 0) {
+                continue;
+            }
+            final ByteBuffer output = codec.getOutputBuffer(outputIndex);
+            output.position(info.offset).limit(info.offset + info.size);
+            // Decoders output 16-bit PCM unless asked otherwise.
+            final ShortBuffer pcm = output.slice().order(ByteOrder.nativeOrder()).asShortBuffer();
+            final int frames = pcm.remaining() / channels;
+            if (frameCount + frames > maxFrames) {
+                codec.releaseOutputBuffer(outputIndex, false);
+                throw new IOException("Sample is longer than " + MAX_DURATION_SECONDS + "s");
+            }
+            if (frameCount + frames > mono.length) {
+                mono = Arrays.copyOf(mono, Math.max(mono.length * 2,
+                        frameCount + frames));
+            }
+            for (int frame = 0; frame < frames; frame++) {
+                float sum = 0.0f;
+                for (int channel = 0; channel < channels; channel++) {
+                    sum += pcm.get() / 32768.0f;
+                }
+                mono[frameCount++] = sum / channels;
+            }
+            codec.releaseOutputBuffer(outputIndex, false);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                break;
+            }
+        }
+        return WavDecoder.fromMono(Arrays.copyOf(mono, frameCount), sampleRate,
+                targetSampleRate);
+    }
+}
@@ -0,0 +1,31 @@
+package org.futo.inputmethod.latin.sound;
+
+/**
+ * A decoded, mono, 16-bit PCM sample that is ready to be mixed.
+ *
+ * Instances are immutable once built; the mixer reads {@link #mData} directly from the audio
+ * thread, so callers must not write to the array after construction.
+ */
+public final class PcmSample {
+    public final short[] mData;
+    public final int mSampleRate;
+
+    public PcmSample(final short[] data, final int sampleRate) {
+        if (data == null) {
+            throw new NullPointerException("data");
+        }
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("Invalid sample rate: " + sampleRate);
+        }
+        mData = data;
+        mSampleRate = sampleRate;
+    }
+
+    public int getLengthInFrames() {
+        return mData.length;
+    }
+
+    public long getDurationMillis() {
+        return mData.length * 1000L / mSampleRate;
+    }
+}
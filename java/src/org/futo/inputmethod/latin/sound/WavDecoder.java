@@ -0,0 +1,209 @@
+package org.futo.inputmethod.latin.sound;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Minimal RIFF/WAVE decoder for keypress samples.
+ *
+ * Supports 8/16/24/32-bit integer PCM and 32-bit IEEE float data, including the
+ * WAVE_FORMAT_EXTENSIBLE wrapper. Every channel is downmixed to mono and the result is
+ * linearly resampled to the requested output rate, so the mixer never converts anything on
+ * the audio thread.
+ */
+public final class WavDecoder {
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_IEEE_FLOAT = 3;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private WavDecoder() {
+        // This utility class is not publicly instantiable.
+    }
+
+    public static PcmSample decode(final InputStream stream, final int targetSampleRate)
+            throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(32 * 1024);
+        final byte[] buffer = new byte[8 * 1024];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return decode(out.toByteArray(), targetSampleRate);
+    }
+
+    public static PcmSample decode(final byte[] bytes, final int targetSampleRate)
+            throws IOException {
+        if (bytes.length < 12 || !matchesTag(bytes, 0, "RIFF") || !matchesTag(bytes, 8, "WAVE")) {
+            throw new IOException("Not a RIFF/WAVE file");
+        }
+        int format = -1;
+        int channels = 0;
+        int sampleRate = 0;
+        int bitsPerSample = 0;
+        int dataOffset = -1;
+        int dataLength = 0;
+
+        int offset = 12;
+        while (offset + 8 <= bytes.length) {
+            final int chunkLength = readInt(bytes, offset + 4);
+            final int chunkStart = offset + 8;
+            if (chunkLength < 0) {
+                throw new IOException("Corrupt chunk length at " + offset);
+            }
+            if (matchesTag(bytes, offset, "fmt ")) {
+                if (chunkLength < 16 || chunkStart + 16 > bytes.length) {
+                    throw new IOException("Truncated fmt chunk");
+                }
+                format = readShort(bytes, chunkStart) & 0xFFFF;
+                channels = readShort(bytes, chunkStart + 2) & 0xFFFF;
+                sampleRate = readInt(bytes, chunkStart + 4);
+                bitsPerSample = readShort(bytes, chunkStart + 14) & 0xFFFF;
+                if (format == FORMAT_EXTENSIBLE && chunkLength >= 26) {
+                    // The first two bytes of the sub-format GUID hold the actual format tag.
+                    format = readShort(bytes, chunkStart + 24) & 0xFFFF;
+                }
+            } else if (matchesTag(bytes, offset, "data")) {
+                dataOffset = chunkStart;
+                // Some encoders write a bogus length for the final chunk; clamp it to the file.
+                dataLength = Math.min(chunkLength, bytes.length - chunkStart);
+                break;
+            }
+            // Chunks are padded to an even length.
+            offset = chunkStart + chunkLength + (chunkLength & 1);
+        }
+
+        if (format < 0) {
+            throw new IOException("Missing fmt chunk");
+        }
+        if (dataOffset < 0) {
+            throw new IOException("Missing data chunk");
+        }
+        if (channels <= 0 || sampleRate <= 0) {
+            throw new IOException("Invalid channel count or sample rate");
+        }
+        if (format != FORMAT_PCM && !(format == FORMAT_IEEE_FLOAT && bitsPerSample == 32)) {
+            throw new IOException("Unsupported WAV format " + format + "/" + bitsPerSample);
+        }
+        if (bitsPerSample != 8 && bitsPerSample != 16 && bitsPerSample != 24
+                && bitsPerSample != 32) {
+            throw new IOException("Unsupported bit depth " + bitsPerSample);
+        }
+
+        final int bytesPerSample = bitsPerSample / 8;
+        final int frameSize = bytesPerSample * channels;
+        final int frameCount = dataLength / frameSize;
+        final float[] mono = new float[frameCount];
+        final boolean isFloat = format == FORMAT_IEEE_FLOAT;
+        for (int frame = 0; frame < frameCount; frame++) {
+            final int frameOffset = dataOffset + frame * frameSize;
+            float sum = 0.0f;
+            for (int channel = 0; channel < channels; channel++) {
+                sum += readSample(bytes, frameOffset + channel * bytesPerSample,
+                        bitsPerSample, isFloat);
+            }
+            mono[frame] = sum / channels;
+        }
+        return fromMono(mono, sampleRate, targetSampleRate);
+    }
+
+    /**
+     * Converts decoded mono audio in [-1, 1] to a sample at {@code targetSampleRate}, or at the
+     * source rate if {@code targetSampleRate} is not positive. Shared with the other decoders of
+     * this package so every sample ends up in the same format.
+     */
+    static PcmSample fromMono(final float[] mono, final int sourceSampleRate,
+            final int targetSampleRate) {
+        return new PcmSample(toShorts(resample(mono, sourceSampleRate, targetSampleRate)),
+                targetSampleRate > 0 ? targetSampleRate : sourceSampleRate);
+    }
+
+    /**
+     * @return {@code sample} resampled to {@code targetSampleRate}, or {@code sample} itself if
+     * it already has that rate.
+     */
+    static PcmSample resample(final PcmSample sample, final int targetSampleRate) {
+        if (targetSampleRate <= 0 || sample.mSampleRate == targetSampleRate) {
+            return sample;
+        }
+        final float[] mono = new float[sample.mData.length];
+        for (int i = 0; i < mono.length; i++) {
+            mono[i] = sample.mData[i] / 32768.0f;
+        }
+        return fromMono(mono, sample.mSampleRate, targetSampleRate);
+    }
+
+    private static float readSample(final byte[] bytes, final int offset, final int bits,
+            final boolean isFloat) {
+        switch (bits) {
+            case 8:
+                // 8-bit WAV data is unsigned.
+                return ((bytes[offset] & 0xFF) - 128) / 128.0f;
+            case 16:
+                return readShort(bytes, offset) / 32768.0f;
+            case 24:
+                return (((bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8)
+                        | (bytes[offset + 2] << 16))) / 8388608.0f;
+            default:
+                if (isFloat) {
+                    return Float.intBitsToFloat(readInt(bytes, offset));
+                }
+                return readInt(bytes, offset) / 2147483648.0f;
+        }
+    }
+
+    private static float[] resample(final float[] input, final int fromRate, final int toRate) {
+        if (toRate <= 0 || fromRate == toRate || input.length == 0) {
+            return input;
+        }
+        final int outputLength = (int) ((long) input.length * toRate / fromRate);
+        final float[] output = new float[outputLength];
+        final double step = (double) fromRate / toRate;
+        final int last = input.length - 1;
+        for (int i = 0; i < outputLength; i++) {
+            final double position = i * step;
+            final int index = (int) position;
+            final float fraction = (float) (position - index);
+            final float a = input[Math.min(index, last)];
+            final float b = input[Math.min(index + 1, last)];
+            output[i] = a + (b - a) * fraction;
+        }
+        return output;
+    }
+
+    private static short[] toShorts(final float[] input) {
+        final short[] output = new short[input.length];
+        for (int i = 0; i < input.length; i++) {
+            final float scaled = input[i] * 32767.0f;
+            if (scaled >= Short.MAX_VALUE) {
+                output[i] = Short.MAX_VALUE;
+            } else if (scaled <= Short.MIN_VALUE) {
+                output[i] = Short.MIN_VALUE;
+            } else {
+                output[i] = (short) scaled;
+            }
+        }
+        return output;
+    }
+
+    private static boolean matchesTag(final byte[] bytes, final int offset, final String tag) {
+        if (offset + 4 > bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < 4; i++) {
+            if (bytes[offset + i] != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static short readShort(final byte[] bytes, final int offset) {
+        return (short) ((bytes[offset] & 0xFF) | (bytes[offset + 1] << 8));
+    }
+
+    private static int readInt(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8)
+                | ((bytes[offset + 2] & 0xFF) << 16) | (bytes[offset + 3] << 24);
+    }
+}
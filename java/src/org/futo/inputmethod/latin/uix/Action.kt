@@ -165,6 +165,12 @@ interface PersistentActionState {
 
 
     suspend fun onDeviceUnlocked() { }
+
+    /**
+     * Called when the action's button is pressed down, before it is known whether the press will
+     * trigger the action. Must return quickly. Not called before the state has been created.
+     */
+    fun onActionPressed() { }
 }
 
 enum class PersistentStateInitialization {
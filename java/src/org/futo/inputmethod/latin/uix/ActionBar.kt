@@ -8,6 +8,8 @@ import androidx.compose.foundation.Canvas
 import androidx.compose.foundation.ExperimentalFoundationApi
 import androidx.compose.foundation.background
 import androidx.compose.foundation.combinedClickable
+import androidx.compose.foundation.gestures.awaitEachGesture
+import androidx.compose.foundation.gestures.awaitFirstDown
 import androidx.compose.foundation.layout.Box
 import androidx.compose.foundation.layout.Column
 import androidx.compose.foundation.layout.Row
@@ -55,6 +57,8 @@ import androidx.compose.ui.graphics.RectangleShape
 import androidx.compose.ui.graphics.drawscope.Fill
 import androidx.compose.ui.graphics.drawscope.scale
 import androidx.compose.ui.graphics.drawscope.translate
+import androidx.compose.ui.input.pointer.PointerEventPass
+import androidx.compose.ui.input.pointer.pointerInput
 import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.platform.LocalDensity
 import androidx.compose.ui.platform.LocalInspectionMode
@@ -451,9 +455,17 @@ fun RowScope.SuggestionItems(words: SuggestedWords, onClick: (i: Int) -> Unit, o
     }
 }
 
+// Reports the start of a press without consuming it, so the click still goes to combinedClickable
+private fun Modifier.onPressDown(key: Any, onPress: () -> Unit) = pointerInput(key) {
+    awaitEachGesture {
+        awaitFirstDown(requireUnconsumed = false, pass = PointerEventPass.Initial)
+        onPress()
+    }
+}
+
 @OptIn(ExperimentalFoundationApi::class)
 @Composable
-fun LazyItemScope.ActionItem(idx: Int, action: Action, onSelect: (Action) -> Unit, onLongSelect: (Action) -> Unit) {
+fun LazyItemScope.ActionItem(idx: Int, action: Action, onSelect: (Action) -> Unit, onLongSelect: (Action) -> Unit, onPress: (Action) -> Unit = { }) {
     val width = 56.dp
 
     val modifier = Modifier
@@ -464,6 +476,7 @@ fun LazyItemScope.ActionItem(idx: Int, action: Action, onSelect: (Action) -> Uni
 
     Box(modifier = modifier
         .clip(CircleShape)
+        .onPressDown(action) { onPress(action) }
         .combinedClickable(
             onLongClick = action.altPressImpl?.let { { onLongSelect(action) } },
             onClick = { onSelect(action) }), contentAlignment = Center) {
@@ -478,7 +491,7 @@ fun LazyItemScope.ActionItem(idx: Int, action: Action, onSelect: (Action) -> Uni
 
 @OptIn(ExperimentalFoundationApi::class)
 @Composable
-fun ActionItemSmall(action: Action, onSelect: (Action) -> Unit, onLongSelect: (Action) -> Unit) {
+fun ActionItemSmall(action: Action, onSelect: (Action) -> Unit, onLongSelect: (Action) -> Unit, onPress: (Action) -> Unit = { }) {
     val bgCol = LocalKeyboardScheme.current.keyboardContainer
     val fgCol = LocalKeyboardScheme.current.onKeyboardContainer
 
@@ -497,6 +510,7 @@ fun ActionItemSmall(action: Action, onSelect: (Action) -> Unit, onLongSelect: (A
             )
         }
         .clip(CircleShape)
+        .onPressDown(action) { onPress(action) }
         .combinedClickable(onLongClick = action.altPressImpl?.let { { onLongSelect(action) } }) {
             onSelect(
                 action
@@ -515,7 +529,7 @@ fun ActionItemSmall(action: Action, onSelect: (Action) -> Unit, onLongSelect: (A
 
 
 @Composable
-fun ActionItems(onSelect: (Action) -> Unit, onLongSelect: (Action) -> Unit) {
+fun ActionItems(onSelect: (Action) -> Unit, onLongSelect: (Action) -> Unit, onPress: (Action) -> Unit = { }) {
     val context = LocalContext.current
     val lifecycle = LocalLifecycleOwner.current
     val actions = if(!LocalInspectionMode.current) {
@@ -567,7 +581,7 @@ fun ActionItems(onSelect: (Action) -> Unit, onLongSelect: (Action) -> Unit) {
 
             }
             items(actionItems.size, key = { actionItems[it].name }) {
-                ActionItem(it, actionItems[it], onSelect, onLongSelect)
+                ActionItem(it, actionItems[it], onSelect, onLongSelect, onPress)
             }
         }
 
@@ -693,7 +707,7 @@ fun ImportantNoticeView(
 }
 
 @Composable
-fun RowScope.PinnedActionItems(onSelect: (Action) -> Unit, onLongSelect: (Action) -> Unit) {
+fun RowScope.PinnedActionItems(onSelect: (Action) -> Unit, onLongSelect: (Action) -> Unit, onPress: (Action) -> Unit = { }) {
     val actions = if(!LocalInspectionMode.current) {
         useDataStoreValue(PinnedActions)
     } else {
@@ -705,7 +719,7 @@ fun RowScope.PinnedActionItems(onSelect: (Action) -> Unit, onLongSelect: (Action
     }
 
     actionItems.forEach {
-        ActionItemSmall(it, onSelect, onLongSelect)
+        ActionItemSmall(it, onSelect, onLongSelect, onPress)
     }
 }
 
@@ -734,7 +748,8 @@ fun ActionBar(
     importantNotice: ImportantNotice? = null,
     keyboardManagerForAction: KeyboardManagerForAction? = null,
     quickClipState: QuickClipState? = null,
-    onQuickClipDismiss: () -> Unit = {}
+    onQuickClipDismiss: () -> Unit = {},
+    onActionPressed: (Action) -> Unit = {}
 ) {
     val view = LocalView.current
     val context = LocalContext.current
@@ -760,7 +775,7 @@ fun ActionBar(
                     .weight(1.0f),
                 color = LocalKeyboardScheme.current.keyboardSurfaceDim//actionBarColor()
             ) {
-                ActionItems(onActionActivated, onActionAltActivated)
+                ActionItems(onActionActivated, onActionAltActivated, onActionPressed)
             }
         }
 
@@ -785,7 +800,7 @@ fun ActionBar(
                     Box(modifier = Modifier
                         .weight(1.0f)
                         .fillMaxHeight()) {
-                        ActionItems(onActionActivated, onActionAltActivated)
+                        ActionItems(onActionActivated, onActionAltActivated, onActionPressed)
                     }
                 } else {
                     if (importantNotice != null) {
@@ -819,7 +834,7 @@ fun ActionBar(
                         }
 
                         if(inlineSuggestions.isEmpty()) {
-                            PinnedActionItems(onActionActivated, onActionAltActivated)
+                            PinnedActionItems(onActionActivated, onActionAltActivated, onActionPressed)
                         }
                     }
                 }
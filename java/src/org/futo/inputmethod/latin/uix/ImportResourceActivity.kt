@@ -3,7 +3,9 @@ package org.futo.inputmethod.latin.uix
 import android.content.Context
 import android.net.Uri
 import android.os.Bundle
+import android.util.Log
 import android.view.inputmethod.InputMethodSubtype
+import android.widget.Toast
 import androidx.activity.ComponentActivity
 import androidx.activity.compose.setContent
 import androidx.compose.foundation.layout.Box
@@ -43,6 +45,9 @@ import org.futo.inputmethod.latin.R
 import org.futo.inputmethod.latin.ReadOnlyBinaryDictionary
 import org.futo.inputmethod.latin.Subtypes
 import org.futo.inputmethod.latin.SubtypesSetting
+import org.futo.inputmethod.latin.settings.Settings
+import org.futo.inputmethod.latin.sound.KeypressSoundPack
+import org.futo.inputmethod.latin.sound.KeypressSoundPackImporter
 import org.futo.inputmethod.latin.uix.settings.NavigationItem
 import org.futo.inputmethod.latin.uix.settings.NavigationItemStyle
 import org.futo.inputmethod.latin.uix.settings.ScreenTitle
@@ -61,6 +66,7 @@ import org.futo.voiceinput.shared.BUILTIN_ENGLISH_MODEL
 import org.futo.voiceinput.shared.types.ModelFileFile
 import org.futo.voiceinput.shared.types.ModelLoader
 import java.io.File
+import java.io.IOException
 import java.io.InputStream
 import java.nio.ByteBuffer
 import java.util.Locale
@@ -87,13 +93,13 @@ fun getActiveLanguages(context: Context): List<InputLanguage> {
 
 
 fun FileKind.preferenceKeyFor(locale: String): Preferences.Key<String> {
-    assert(this != FileKind.Invalid)
+    assert(this != FileKind.Invalid && this != FileKind.SoundPack)
     val locale = locale.replace("#", "H")
     return stringPreferencesKey("resource_${name}_${locale}")
 }
 
 fun FileKind.namePreferenceKeyFor(locale: String): Preferences.Key<String> {
-    assert(this != FileKind.Invalid)
+    assert(this != FileKind.Invalid && this != FileKind.SoundPack)
     val locale = locale.replace("#", "H")
     return stringPreferencesKey("resourcename_${name}_${locale}")
 }
@@ -144,6 +150,45 @@ fun SettingsImportScreen(
     }
 }
 
+@Composable
+fun SoundPackImportScreen(fileKind: FileKindAndInfo, onApply: () -> Unit, onCancel: () -> Unit) {
+    val importing = remember { mutableStateOf(false) }
+    ScrollableList {
+        ScreenTitleWithIcon(title = stringResource(R.string.resource_importer_import_title, stringResource(R.string.file_kind_sound_pack)), painter = painterResource(id = FileKind.SoundPack.icon()))
+
+        fileKind.name?.let {
+            Text(stringResource(R.string.resource_importer_file_info, it), modifier = Modifier.padding(16.dp, 8.dp))
+            Spacer(modifier = Modifier.height(32.dp))
+        }
+
+        if(importing.value) {
+            Box(modifier = Modifier
+                .fillMaxWidth()
+                .padding(32.dp)) {
+                CircularProgressIndicator(modifier = Modifier.align(Alignment.Center))
+            }
+            Text(stringResource(R.string.resource_importer_importing_sound_pack), textAlign = TextAlign.Center, modifier = Modifier.fillMaxWidth())
+        } else {
+            Text(stringResource(R.string.resource_importer_sound_pack_info), modifier = Modifier.padding(16.dp, 8.dp))
+            NavigationItem(
+                title = stringResource(R.string.resource_importer_import_button),
+                style = NavigationItemStyle.MiscNoArrow,
+                navigate = {
+                    importing.value = true
+                    onApply()
+                }
+            )
+            NavigationItem(
+                title = stringResource(R.string.resource_importer_cancel_button),
+                style = NavigationItemStyle.MiscNoArrow,
+                navigate = {
+                    onCancel()
+                }
+            )
+        }
+    }
+}
+
 @Composable
 fun ImportScreen(fileKind: FileKindAndInfo, file: String?, onApply: (FileKindAndInfo, InputMethodSubtype) -> Unit, onCancel: () -> Unit) {
     val context = LocalContext.current
@@ -225,6 +270,7 @@ enum class FileKind {
     VoiceInput,
     Transformer,
     Dictionary,
+    SoundPack,
     Invalid;
 
     fun getAddonUrlForLocale(locale: Locale?): String {
@@ -232,6 +278,7 @@ enum class FileKind {
             VoiceInput -> "https://keyboard.futo.org/voice-input-models?locale=${locale?.toLanguageTag() ?: ""}"
             Transformer -> "https://keyboard.futo.org/models?locale=${locale?.toLanguageTag() ?: ""}"
             Dictionary -> "https://keyboard.futo.org/dictionaries?locale=${locale?.toLanguageTag() ?: ""}"
+            SoundPack -> "https://keyboard.futo.org/"
             Invalid -> "https://keyboard.futo.org/"
         }
     }
@@ -242,6 +289,7 @@ fun FileKind.kindTitle(context: Context): String {
         FileKind.VoiceInput -> context.getString(R.string.file_kind_voice_input_model)
         FileKind.Transformer -> context.getString(R.string.file_kind_transformer_model)
         FileKind.Dictionary -> context.getString(R.string.file_kind_dictionary)
+        FileKind.SoundPack -> context.getString(R.string.file_kind_sound_pack)
         FileKind.Invalid -> context.getString(R.string.file_kind_invalid_file)
     }
 }
@@ -251,6 +299,7 @@ fun FileKind.icon(): Int {
         FileKind.VoiceInput -> R.drawable.mic
         FileKind.Transformer -> R.drawable.cpu
         FileKind.Dictionary -> R.drawable.book
+        FileKind.SoundPack -> R.drawable.keyboard
         FileKind.Invalid -> R.drawable.close
     }
 }
@@ -260,6 +309,7 @@ fun FileKind.extension(): String {
         FileKind.VoiceInput -> ".bin"
         FileKind.Transformer -> ".gguf"
         FileKind.Dictionary -> ".dict"
+        FileKind.SoundPack -> ".${KeypressSoundPack.FILE_EXTENSION}"
         FileKind.Invalid -> ""
     }
 }
@@ -352,6 +402,7 @@ fun determineFileKind(context: Context, file: Uri): FileKindAndInfo {
         val voiceInputMagic = 0x6c6d6767.toUInt()
         val transformerMagic = 0x47475546.toUInt()
         val dictionaryMagic = 0x9bc13afe.toUInt()
+        val zipMagic = 0x504b0304.toUInt()
 
         val magic = ByteBuffer.wrap(array).getInt().toUInt()
 
@@ -368,6 +419,19 @@ fun determineFileKind(context: Context, file: Uri): FileKindAndInfo {
                 )
             }
 
+            // Configuration backups are zips too, and may hold large models. Their version entry
+            // comes first, so they are recognized without reading through the rest; only other
+            // zips are searched for a sound pack manifest
+            magic == zipMagic -> if(contentResolver.openInputStream(file)?.let { SettingsExporter.getCfgFileMetadata(it) } != null) {
+                FileKindAndInfo(FileKind.Invalid, null, null)
+            } else {
+                contentResolver.openInputStream(file)?.use {
+                    KeypressSoundPackImporter.readPackName(it)
+                }?.let {
+                    FileKindAndInfo(FileKind.SoundPack, name = it, locale = null)
+                } ?: FileKindAndInfo(FileKind.Invalid, null, null)
+            }
+
             (magic == 0x1f8b0808.toUInt()) || (magic == 0x1f8b0800.toUInt()) || (magic == 0x64696374.toUInt()) ->
                 FileKindAndInfo(FileKind.Invalid, null, null, InvalidFileHint.ImportedWordListInsteadOfDict)
 
@@ -450,6 +514,7 @@ class ImportResourceActivity : ComponentActivity() {
     private val fileBeingImported: MutableState<String?> = mutableStateOf(null)
     private val fileKind: MutableState<FileKindAndInfo> = mutableStateOf(FileKindAndInfo(FileKind.Invalid, null, null))
     private val settingsCfgImportMetadata: MutableState<SettingsExporter.CfgFileMetadata?> = mutableStateOf(null)
+    private val fileKindDetermined: MutableState<Boolean> = mutableStateOf(false)
     private var uri: Uri? = null
 
     private fun applySetting(fileKind: FileKindAndInfo, inputMethodSubtype: InputMethodSubtype) {
@@ -508,6 +573,31 @@ class ImportResourceActivity : ComponentActivity() {
         }
     }
 
+    private fun applySoundPack() {
+        lifecycleScope.launch {
+            val imported = withContext(Dispatchers.IO) {
+                try {
+                    contentResolver.openInputStream(uri!!)!!.use {
+                        KeypressSoundPackImporter.importPack(applicationContext, it)
+                    }
+                    PreferenceUtils.getDefaultSharedPreferences(applicationContext).edit()
+                        .putInt(
+                            Settings.PREF_CUSTOM_KEYPRESS_PROFILE,
+                            Settings.IMPORTED_KEYPRESS_PROFILE
+                        ).apply()
+                    true
+                } catch (e: IOException) {
+                    Log.e("ImportResourceActivity", "Failed to import sound pack", e)
+                    false
+                }
+            }
+            if(!imported) {
+                Toast.makeText(applicationContext, R.string.resource_importer_error_sound_pack, Toast.LENGTH_LONG).show()
+            }
+            finish()
+        }
+    }
+
     private fun updateContent() {
         setContent {
             themeOption.value?.let { themeOption ->
@@ -520,7 +610,9 @@ class ImportResourceActivity : ComponentActivity() {
                         color = MaterialTheme.colorScheme.background
                     ) {
                         Box(Modifier.safeDrawingPadding()) {
-                            settingsCfgImportMetadata.value?.let {
+                            if(!fileKindDetermined.value) {
+                                CircularProgressIndicator(modifier = Modifier.align(Alignment.Center))
+                            } else settingsCfgImportMetadata.value?.let {
                                 SettingsImportScreen(
                                     metadata = it,
                                     onApply = {
@@ -544,7 +636,13 @@ class ImportResourceActivity : ComponentActivity() {
                                     }
                                 )
                                 it
-                            } ?: run {
+                            } ?: if(fileKind.value.kind == FileKind.SoundPack) {
+                                SoundPackImportScreen(
+                                    fileKind = fileKind.value,
+                                    onApply = { applySoundPack() },
+                                    onCancel = { finish() }
+                                )
+                            } else {
                                 ImportScreen(
                                     fileKind = fileKind.value,
                                     file = fileBeingImported.value,
@@ -571,11 +669,24 @@ class ImportResourceActivity : ComponentActivity() {
 
         val filePath = intent?.data?.path
         fileBeingImported.value = filePath
-        fileKind.value = determineFileKind(applicationContext, uri!!)
-        settingsCfgImportMetadata.value = if(fileKind.value.kind == FileKind.Invalid) {
-            SettingsExporter.getCfgFileMetadata(contentResolver.openInputStream(uri!!)!!)
-        } else {
-            null
+
+        // Reading the file can take a while for large archives, so it stays off the main thread
+        lifecycleScope.launch {
+            val uri = uri!!
+            withContext(Dispatchers.IO) {
+                val kind = determineFileKind(applicationContext, uri)
+                val metadata = if(kind.kind == FileKind.Invalid) {
+                    SettingsExporter.getCfgFileMetadata(contentResolver.openInputStream(uri)!!)
+                } else {
+                    null
+                }
+
+                withContext(Dispatchers.Main) {
+                    fileKind.value = kind
+                    settingsCfgImportMetadata.value = metadata
+                    fileKindDetermined.value = true
+                }
+            }
         }
 
         lifecycleScope.launch {
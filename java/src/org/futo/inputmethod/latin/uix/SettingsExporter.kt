@@ -38,6 +38,7 @@ import okio.sink
 import okio.source
 import org.futo.inputmethod.latin.R
 import org.futo.inputmethod.latin.localeFromString
+import org.futo.inputmethod.latin.sound.KeypressSoundPack
 import org.futo.inputmethod.latin.uix.PreferenceUtils.getDefaultSharedPreferences
 import org.futo.inputmethod.latin.uix.actions.ClipboardFileName
 import org.futo.inputmethod.latin.uix.actions.ClipboardHistoryManager.Companion.onClipboardImportedFlow
@@ -300,8 +301,11 @@ object SettingsExporter {
 
         // Collect resources
         context.getExternalFilesDir(null)?.listFiles()?.forEach { resourceFile ->
-            // if includeHeavyResources, then only include this if its not a .dict
-            if (resourceFile.extension == "dict" || includeHeavyResources) {
+            // if includeHeavyResources, then only include this if its not a .dict or sound pack
+            if (resourceFile.extension == "dict"
+                || resourceFile.extension == KeypressSoundPack.FILE_EXTENSION
+                || includeHeavyResources
+            ) {
                 zipOut.putNextEntry(ZipEntry("ext/${resourceFile.name}"))
                 resourceFile.inputStream().use { it.copyTo(zipOut) }
                 zipOut.closeEntry()
@@ -600,6 +600,24 @@ class UixManager(private val latinIME: LatinIME) {
         }
     }
 
+    fun onActionPressed(rawAction: Action) {
+        val action = runBlocking {
+            ActionRegistry.getActionOverride(latinIME, rawAction)
+        }
+
+        // Creating a state can be slow, so a press only reaches one that already exists
+        if (action.windowImpl != null) {
+            persistentStates[action]?.onActionPressed()
+        }
+    }
+
+    private fun getOrCreatePersistentState(action: Action): PersistentActionState? {
+        if (persistentStates[action] == null) {
+            persistentStates[action] = action.persistentState?.let { it(keyboardManagerForAction) }
+        }
+        return persistentStates[action]
+    }
+
     fun onActionAltActivated(rawAction: Action) {
         latinIME.inputLogic.finishInput()
 
@@ -656,7 +674,8 @@ class UixManager(private val latinIME: LatinIME) {
                     quickClipState = run {
                         if(!inlineStuffHiddenByTyping.value) quickClipState.value else null
                     },
-                    onQuickClipDismiss = { quickClipState.value = null }
+                    onQuickClipDismiss = { quickClipState.value = null },
+                    onActionPressed = { onActionPressed(it) }
                 )
             }
         }
@@ -667,11 +686,7 @@ class UixManager(private val latinIME: LatinIME) {
 
         currWindowAction.value = action
 
-        if (persistentStates[action] == null) {
-            persistentStates[action] = action.persistentState?.let { it(keyboardManagerForAction) }
-        }
-
-        currWindowActionWindow.value = (action.windowImpl!!)(keyboardManagerForAction, persistentStates[action])
+        currWindowActionWindow.value = (action.windowImpl!!)(keyboardManagerForAction, getOrCreatePersistentState(action))
 
         mainKeyboardHidden.value = currWindowActionWindow.value?.onlyShowAboveKeyboard == false
 
@@ -49,6 +49,16 @@ val USE_VAD_AUTOSTOP = SettingsKey(
     default = true
 )
 
+val STREAMING_TRANSCRIPTION = SettingsKey(
+    key = booleanPreferencesKey("streaming_transcription"),
+    default = false
+)
+
+val PRE_ROLL_AUDIO = SettingsKey(
+    key = booleanPreferencesKey("pre_roll_audio"),
+    default = false
+)
+
 val ENGLISH_MODEL_INDEX = SettingsKey(
     key = intPreferencesKey("english_model_index"),
     default = 0
@@ -9,8 +9,10 @@ import androidx.compose.foundation.layout.height
 import androidx.compose.material3.Button
 import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.DisposableEffect
 import androidx.compose.runtime.LaunchedEffect
 import androidx.compose.runtime.MutableState
+import androidx.compose.runtime.collectAsState
 import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.remember
 import androidx.compose.ui.Modifier
@@ -19,14 +21,19 @@ import androidx.compose.ui.text.font.FontFamily
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.unit.dp
 import kotlinx.coroutines.delay
+import org.futo.inputmethod.latin.AudioAndHapticFeedbackManager
 import org.futo.inputmethod.latin.R
+import org.futo.inputmethod.latin.sound.KeypressFeedbackStats
 import org.futo.inputmethod.latin.uix.Action
 import org.futo.inputmethod.latin.uix.ActionWindow
 import org.futo.inputmethod.latin.uix.LocalFoldingState
 import org.futo.inputmethod.latin.uix.settings.ScrollableList
 import org.futo.inputmethod.latin.uix.theme.ThemeOptions
 import org.futo.inputmethod.latin.uix.theme.Typography
+import org.futo.inputmethod.latin.xlm.PredictionStats
 import org.futo.inputmethod.v2keyboard.KeyboardSizeStateProvider
+import org.futo.voiceinput.shared.ggml.inferenceScheduler
+import org.futo.voiceinput.shared.whisper.InferenceStats
 
 val DebugLabel = Typography.Small.copy(fontFamily = FontFamily.Monospace)
 val DebugTitle = Typography.Body.Medium.copy(fontFamily = FontFamily.Monospace, fontWeight = FontWeight.Bold)
@@ -124,6 +131,12 @@ private fun getInputTypeAsString(inputType: Int): String {
 }
 
 
+private fun Long.formatMicros(): String = when {
+    this == Long.MAX_VALUE -> "inf"
+    this >= 1000 -> "${this / 1000}ms"
+    else -> "${this}us"
+}
+
 private fun getImeOptionsString(imeOptions: Int): String {
     val options = mutableListOf<String>()
 
@@ -184,6 +197,9 @@ val MemoryDebugAction = Action(
             @Composable
             override fun WindowContents(keyboardShown: Boolean) {
                 val state: MutableState<Map<String, String>> = remember { mutableStateOf(mapOf()) }
+                val feedbackStats = remember { mutableStateOf(KeypressFeedbackStats.snapshot()) }
+                val inferenceStats = remember { mutableStateOf(InferenceStats.snapshot()) }
+                val predictionStats = remember { mutableStateOf(PredictionStats.snapshot()) }
                 LaunchedEffect(Unit) {
                     while (true) {
                         delay(250)
@@ -191,8 +207,18 @@ val MemoryDebugAction = Action(
                         val newInfo = Debug.MemoryInfo()
                         Debug.getMemoryInfo(newInfo)
                         state.value = newInfo.memoryStats
+                        feedbackStats.value = KeypressFeedbackStats.snapshot()
+                        inferenceStats.value = InferenceStats.snapshot()
+                        predictionStats.value = PredictionStats.snapshot()
                     }
                 }
+
+                // Feedback stats are only collected while this window is open
+                DisposableEffect(Unit) {
+                    KeypressFeedbackStats.setEnabled(true)
+                    onDispose { KeypressFeedbackStats.setEnabled(false) }
+                }
+                val soundReadiness = AudioAndHapticFeedbackManager.getInstance().soundReadiness.collectAsState()
                 
                 val foldingState = LocalFoldingState.current
 
@@ -234,6 +260,22 @@ val MemoryDebugAction = Action(
 
                     Spacer(modifier = Modifier.height(8.dp))
 
+                    Text("Predictions", style = DebugTitle)
+                    predictionStats.value.let { stats ->
+                        Text("typing    = ${String.format("%.1f", stats.typingMillis / 1000.0f)}s, ${stats.requests} requests (${String.format("%.1f", stats.requestsPerSecond)}/s)", style = DebugLabel)
+                        Text("served    = ${stats.served} (${String.format("%.1f", stats.servedPerSecond)}/s)", style = DebugLabel)
+                        Text("dropped   = ${stats.dropped} (${String.format("%.1f", stats.droppedPerSecond)}/s)", style = DebugLabel)
+                        Text("cancelled = ${stats.cancelled} (${String.format("%.1f", stats.cancelledPerSecond)}/s)", style = DebugLabel)
+                        Text("prompts   = ${stats.prompts}, ${String.format("%.0f", stats.promptReuseRate * 100.0f)}% same context", style = DebugLabel)
+                        Text("kv cache  = ${stats.reusedTokens}/${stats.promptTokens} tokens reused (${String.format("%.0f", stats.kvCacheHitRate * 100.0f)}%)", style = DebugLabel)
+                        Text("gestures  = ${stats.gesturesRescored} rescored, ${stats.gestureFallbacks} fell back", style = DebugLabel)
+                    }
+                    Button(onClick = { PredictionStats.reset() }) {
+                        Text("Reset Prediction Stats")
+                    }
+
+                    Spacer(modifier = Modifier.height(8.dp))
+
                     Text("Screen State Info", style = DebugTitle)
                     Text("size mode     = ${(manager.getContext() as KeyboardSizeStateProvider).currentSizeState}", style = DebugLabel)
                     Text("Fold State", style = DebugTitle)
@@ -244,6 +286,46 @@ val MemoryDebugAction = Action(
 
                     Spacer(modifier = Modifier.height(8.dp))
 
+                    Text("Keypress Feedback", style = DebugTitle)
+                    feedbackStats.value.let { stats ->
+                        Text("readiness  = ${soundReadiness.value}", style = DebugLabel)
+                        Text("plays      = ${stats.mPlays}",       style = DebugLabel)
+                        Text("drops      = ${stats.mDrops}",       style = DebugLabel)
+                        Text("fallbacks  = ${stats.mFallbacks}",   style = DebugLabel)
+                        Text("steals     = ${stats.mSteals}",      style = DebugLabel)
+                        Text("shortened  = ${stats.mShortened}",   style = DebugLabel)
+                        Text("coalesced  = ${stats.mCoalesced}",   style = DebugLabel)
+                        Text("latency    = p50 <${stats.getLatencyPercentileMicros(50.0f).formatMicros()}, " +
+                                "p90 <${stats.getLatencyPercentileMicros(90.0f).formatMicros()}, " +
+                                "p99 <${stats.getLatencyPercentileMicros(99.0f).formatMicros()} " +
+                                "(${stats.latencyCount} presses)", style = DebugLabel)
+                        stats.mLatencyBuckets.forEachIndexed { bucket, count ->
+                            if (count > 0) {
+                                Text("  <${KeypressFeedbackStats.getBucketUpperBoundMicros(bucket).formatMicros()}: $count", style = DebugLabel)
+                            }
+                        }
+                    }
+                    Button(onClick = { KeypressFeedbackStats.reset() }) {
+                        Text("Reset Feedback Stats")
+                    }
+
+                    Spacer(modifier = Modifier.height(8.dp))
+
+                    Text("Voice Input", style = DebugTitle)
+                    inferenceStats.value.let { stats ->
+                        Text("serial      = ${stats.serialRuns} runs, avg ${stats.averageSerialMillis}ms, ${stats.serialBails} bails", style = DebugLabel)
+                        Text("warm        = ${stats.warmRuns} runs, avg ${stats.averageWarmMillis}ms, ${stats.warmBails} bails", style = DebugLabel)
+                        Text("model cache = ${stats.modelCacheHits} hits, ${stats.modelCacheMisses} misses, ${stats.modelCacheEvictions} evictions", style = DebugLabel)
+                        Text("dictation   = ${stats.dictationTasks} tasks, avg wait ${stats.averageDictationWaitMillis}ms, max ${stats.maxDictationWaitMillis}ms", style = DebugLabel)
+                        Text("background  = ${stats.backgroundTasks} tasks, avg wait ${stats.averageBackgroundWaitMillis}ms", style = DebugLabel)
+                        Text("queue       = ${inferenceScheduler.queueDepth} waiting, max ${stats.maxQueueDepth}, ${stats.deadlineMisses} deadline misses", style = DebugLabel)
+                    }
+                    Button(onClick = { InferenceStats.reset() }) {
+                        Text("Reset Voice Input Stats")
+                    }
+
+                    Spacer(modifier = Modifier.height(8.dp))
+
                     Text("Memory Use", style = DebugTitle)
                     state.value.forEach {
                         val value = it.value.toInt().toFloat() / 1000.0f
@@ -32,15 +32,19 @@ import org.futo.inputmethod.latin.uix.DISALLOW_SYMBOLS
 import org.futo.inputmethod.latin.uix.ENABLE_SOUND
 import org.futo.inputmethod.latin.uix.KeyboardManagerForAction
 import org.futo.inputmethod.latin.uix.PREFER_BLUETOOTH
+import org.futo.inputmethod.latin.uix.PRE_ROLL_AUDIO
 import org.futo.inputmethod.latin.uix.PersistentActionState
 import org.futo.inputmethod.latin.uix.ResourceHelper
+import org.futo.inputmethod.latin.uix.STREAMING_TRANSCRIPTION
 import org.futo.inputmethod.latin.uix.USE_VAD_AUTOSTOP
 import org.futo.inputmethod.latin.uix.VERBOSE_PROGRESS
 import org.futo.inputmethod.latin.uix.getSetting
+import org.futo.inputmethod.latin.uix.getSettingFlow
 import org.futo.inputmethod.latin.uix.setSetting
 import org.futo.inputmethod.latin.uix.utils.ModelOutputSanitizer
 import org.futo.inputmethod.latin.xlm.UserDictionaryObserver
 import org.futo.inputmethod.updates.openURI
+import org.futo.voiceinput.shared.MicPreRoll
 import org.futo.voiceinput.shared.ModelDoesNotExistException
 import org.futo.voiceinput.shared.RecognizerView
 import org.futo.voiceinput.shared.RecognizerViewListener
@@ -96,14 +100,30 @@ class VoiceInputPersistentState(val manager: KeyboardManagerForAction) : Persist
     val modelManager = ModelManager(manager.getContext())
     val soundPlayer = SoundPlayer(manager.getContext())
     val userDictionaryObserver = UserDictionaryObserver(manager.getContext())
+    val preRoll = MicPreRoll(manager.getContext())
+
+    // Kept up to date here so a press never waits on the settings store
+    @Volatile private var preRollEnabled = PRE_ROLL_AUDIO.default
+    private val preRollSettingJob = manager.getLifecycleScope().launch {
+        manager.getContext().getSettingFlow(PRE_ROLL_AUDIO).collect { preRollEnabled = it }
+    }
 
     override suspend fun cleanUp() {
-        modelManager.cleanUp()
+        preRoll.disarm()
+        modelManager.trimMemory()
     }
 
     override fun close() {
+        preRollSettingJob.cancel()
+        preRoll.disarm()
         runBlocking { modelManager.cleanUp() }
     }
+
+    override fun onActionPressed() {
+        if (preRollEnabled) {
+            preRoll.arm()
+        }
+    }
 }
 
 private class VoiceInputActionWindow(
@@ -121,6 +141,7 @@ private class VoiceInputActionWindow(
         val requestAudioFocus = context.getSetting(AUDIO_FOCUS)
         val canExpandSpace = context.getSetting(CAN_EXPAND_SPACE)
         val useVAD = context.getSetting(USE_VAD_AUTOSTOP)
+        val streamingTranscription = context.getSetting(STREAMING_TRANSCRIPTION)
 
         val primaryModel = model
         val languageSpecificModels = mutableMapOf<Language, ModelLoader>()
@@ -145,7 +166,8 @@ private class VoiceInputActionWindow(
                 preferBluetoothMic = useBluetoothAudio,
                 requestAudioFocus = requestAudioFocus,
                 canExpandSpace = canExpandSpace,
-                useVADAutoStop = useVAD
+                useVADAutoStop = useVAD,
+                streamingTranscription = streamingTranscription
             )
         )
     }
@@ -164,7 +186,8 @@ private class VoiceInputActionWindow(
                 listener = this@VoiceInputActionWindow,
                 settings = settings,
                 lifecycleScope = manager.getLifecycleScope(),
-                modelManager = state.modelManager
+                modelManager = state.modelManager,
+                preRoll = state.preRoll
             )
         } catch(e: ModelDoesNotExistException) {
             modelException.value = e
@@ -218,6 +241,7 @@ private class VoiceInputActionWindow(
     override fun close(): CloseResult {
         inputTransaction.cancel()
         runBlocking { initJob.cancelAndJoin() }
+        state.preRoll.disarm()
         recognizerView.value?.cancel()
         state.modelManager.cancelAll()
         return CloseResult.Default
@@ -394,14 +394,14 @@ fun ConfirmResourceActionDialog(
                         FileKind.VoiceInput -> stringResource(R.string.language_settings_resource_voice_input_selected)
                         FileKind.Transformer -> stringResource(R.string.language_settings_resource_transformer_selected)
                         FileKind.Dictionary -> stringResource(R.string.language_settings_resource_dictionary_selected)
-                        FileKind.Invalid -> ""
+                        FileKind.SoundPack, FileKind.Invalid -> ""
                     } + if (!hasBuiltInFallback) {
                         "\n\n" +
                                 when (resourceKind) {
                                     FileKind.VoiceInput -> stringResource(R.string.language_settings_resource_voice_input_selected_no_default_warning)
                                     FileKind.Transformer -> stringResource(R.string.language_settings_resource_transformer_selected_no_default_warning)
                                     FileKind.Dictionary -> stringResource(R.string.language_settings_resource_dictionary_selected_no_default_warning)
-                                    FileKind.Invalid -> ""
+                                    FileKind.SoundPack, FileKind.Invalid -> ""
                                 }
                     } else {
                         ""
@@ -413,7 +413,7 @@ fun ConfirmResourceActionDialog(
                         FileKind.VoiceInput -> stringResource(R.string.language_settings_resource_voice_input_selected_unset)
                         FileKind.Transformer -> stringResource(R.string.language_settings_resource_transformer_selected_unset)
                         FileKind.Dictionary -> stringResource(R.string.language_settings_resource_dictionary_selected_unset)
-                        FileKind.Invalid -> ""
+                        FileKind.SoundPack, FileKind.Invalid -> ""
                     }
                 )
             }
@@ -92,6 +92,7 @@ import org.futo.inputmethod.latin.settings.description
 import org.futo.inputmethod.latin.settings.name
 import org.futo.inputmethod.latin.settings.toEncodedString
 import org.futo.inputmethod.latin.settings.toLongPressKeyLayoutItems
+import org.futo.inputmethod.latin.sound.KeypressSoundPackImporter
 import org.futo.inputmethod.latin.uix.AndroidTextInput
 import org.futo.inputmethod.latin.uix.BasicThemeProvider
 import org.futo.inputmethod.latin.uix.KeyHintsSetting
@@ -615,6 +616,7 @@ val LongPressMenu = UserSettingsMenu(
 )
 @Composable
 private fun SoundProfileSettingItem() {
+    val context = LocalContext.current
     val soundProfile = useSharedPrefsInt(Settings.PREF_CUSTOM_KEYPRESS_PROFILE, Settings.DEFAULT_KEYPRESS_PROFILE)
 
     val soundProfileList = mapOf(
@@ -629,7 +631,13 @@ private fun SoundProfileSettingItem() {
         Settings.SOULS_KEYPRESS_PROFILE to stringResource(R.string.sound_profile_souls)
         Settings.ODETOJOY_KEYPRESS_PROFILE to stringResource(R.string.sound_profile_ode)
 */
-    )
+    ).let {
+        if(KeypressSoundPackImporter.hasImportedPack(context)) {
+            it + (Settings.IMPORTED_KEYPRESS_PROFILE to stringResource(R.string.sound_profile_imported))
+        } else {
+            it
+        }
+    }
 
     DropDownPickerSettingItem(
         label = stringResource(R.string.pref_sound_profile_title),
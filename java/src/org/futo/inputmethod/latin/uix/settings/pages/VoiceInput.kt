@@ -8,7 +8,9 @@ import org.futo.inputmethod.latin.uix.CAN_EXPAND_SPACE
 import org.futo.inputmethod.latin.uix.DISALLOW_SYMBOLS
 import org.futo.inputmethod.latin.uix.ENABLE_SOUND
 import org.futo.inputmethod.latin.uix.PREFER_BLUETOOTH
+import org.futo.inputmethod.latin.uix.PRE_ROLL_AUDIO
 import org.futo.inputmethod.latin.uix.USE_SYSTEM_VOICE_INPUT
+import org.futo.inputmethod.latin.uix.STREAMING_TRANSCRIPTION
 import org.futo.inputmethod.latin.uix.USE_VAD_AUTOSTOP
 import org.futo.inputmethod.latin.uix.VERBOSE_PROGRESS
 import org.futo.inputmethod.latin.uix.settings.NavigationItemStyle
@@ -73,6 +75,18 @@ val VoiceInputMenu = UserSettingsMenu(
             setting = USE_VAD_AUTOSTOP
         ).copy(visibilityCheck = visibilityCheckNotSystemVoiceInput),
 
+        userSettingToggleDataStore(
+            title = R.string.voice_input_settings_streaming_transcription,
+            subtitle = R.string.voice_input_settings_streaming_transcription_subtitle,
+            setting = STREAMING_TRANSCRIPTION
+        ).copy(visibilityCheck = visibilityCheckNotSystemVoiceInput),
+
+        userSettingToggleDataStore(
+            title = R.string.voice_input_settings_pre_roll,
+            subtitle = R.string.voice_input_settings_pre_roll_subtitle,
+            setting = PRE_ROLL_AUDIO
+        ).copy(visibilityCheck = visibilityCheckNotSystemVoiceInput),
+
         userSettingNavigationItem(
             title = R.string.voice_input_settings_change_models,
             subtitle = R.string.voice_input_settings_change_models_subtitle,
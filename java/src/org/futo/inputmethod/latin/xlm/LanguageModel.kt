@@ -40,6 +40,8 @@ class LanguageModel(
 
         val modelPath = modelInfoLoader.path.absolutePath
         mNativeState = openNative(modelPath)
+        promptCache.reset()
+        bannedWordsVersion = -1
 
         // TODO: Not sure how to handle finetuned model being corrupt. Maybe have finetunedA.gguf and finetunedB.gguf and swap between them
         if (mNativeState == 0L) {
@@ -140,32 +142,62 @@ class LanguageModel(
         return context
     }
 
-    private fun addPersonalDictionary(ctx: String, personalDictionary: List<String>) : String {
+    private fun buildGlossary(personalDictionary: List<String>): String? {
+        if (personalDictionary.isEmpty()) return null
+
+        val glossary = StringBuilder()
+        for (s in personalDictionary) {
+            glossary.append(s.trim { it <= ' ' }).append(", ")
+        }
+        if (glossary.length <= 2) return null
+
+        return glossary.substring(0, glossary.length - 2)
+    }
+
+    // The glossary is only rebuilt when the personal dictionary changes
+    private var glossaryVersion = -1
+    private var glossary: String? = null
+
+    private fun addPersonalDictionary(ctx: String, personalDictionary: VersionedWords) : String {
         var context = ctx
 
-        if (personalDictionary.isNotEmpty()) {
-            val glossary = StringBuilder()
-            for (s in personalDictionary) {
-                glossary.append(s.trim { it <= ' ' }).append(", ")
-            }
-            if (glossary.length > 2) {
-                context = """
-                    (Glossary: ${glossary.substring(0, glossary.length - 2)})
-                    
-                    $context
-                    """.trimIndent()
-            }
+        if (personalDictionary.version != glossaryVersion) {
+            glossary = buildGlossary(personalDictionary.words)
+            glossaryVersion = personalDictionary.version
+        }
+
+        glossary?.let {
+            context = """
+                (Glossary: $it)
+                
+                $context
+                """.trimIndent()
         }
 
         return context
     }
 
+    // The banned words are only copied to the native state when they change
+    private var bannedWordsVersion = -1
+
+    private fun updateBannedWords(bannedWords: VersionedWords) {
+        if (bannedWords.version == bannedWordsVersion) return
+
+        setBannedWordsNative(mNativeState, bannedWords.words.toTypedArray())
+        bannedWordsVersion = bannedWords.version
+    }
+
+    /**
+     * Reorders the first [maxCandidates] of [suggestedWords] by how likely the model finds them in
+     * this context, in a single decode of the context. The rest follow in their original order.
+     */
     suspend fun rescoreSuggestions(
         suggestedWords: SuggestedWords,
         composedData: ComposedData,
         ngramContext: NgramContext,
         keyDetector: KeyDetector,
-        personalDictionary: List<String>,
+        personalDictionary: VersionedWords,
+        maxCandidates: Int = suggestedWords.size()
     ): List<SuggestedWordInfo>? = withContext(LanguageModelScope) {
         if (mNativeState == 0L) {
             loadModel()
@@ -173,9 +205,8 @@ class LanguageModel(
             return@withContext null
         }
 
-        var composeInfo = withContext(Dispatchers.Main) {
-            getComposeInfo(composedData, keyDetector)
-        }
+        // Only the context is needed, so this doesn't wait for the main thread
+        var composeInfo = getComposeInfo(composedData, keyDetector)
 
         if(composeInfo.xCoords.size != composeInfo.yCoords.size) {
             Log.w("LanguageModel", "Dropping composeInfo in rescoreSuggestions with mismatching coords size")
@@ -188,8 +219,9 @@ class LanguageModel(
         context = safeguardContext(context)
         context = addPersonalDictionary(context, personalDictionary)
 
-        val wordStrings = suggestedWords.mSuggestedWordInfoList.map { it.mWord }.toTypedArray()
-        val wordScoresInput = suggestedWords.mSuggestedWordInfoList.map { it.mScore }.toTypedArray().toIntArray()
+        val candidates = suggestedWords.mSuggestedWordInfoList.take(maxCandidates)
+        val wordStrings = candidates.map { it.mWord }.toTypedArray()
+        val wordScoresInput = candidates.map { it.mScore }.toIntArray()
         val wordScoresOutput = IntArray(wordScoresInput.size) { 0 }
 
         rescoreSuggestionsNative(
@@ -202,8 +234,8 @@ class LanguageModel(
             wordScoresOutput
         )
 
-        return@withContext suggestedWords.mSuggestedWordInfoList.mapIndexed { index, suggestedWordInfo ->
-            Log.i("LanguageModel", "Suggestion [${suggestedWordInfo.word}] reweighted, from ${suggestedWordInfo.mScore} to ${wordScoresOutput[index]}")
+        val rescored = candidates.mapIndexed { index, suggestedWordInfo ->
+            Log.d("LanguageModel", "Suggestion [${suggestedWordInfo.word}] reweighted, from ${suggestedWordInfo.mScore} to ${wordScoresOutput[index]}")
             SuggestedWordInfo(
                 suggestedWordInfo.word,
                 suggestedWordInfo.mPrevWordsContext,
@@ -217,6 +249,8 @@ class LanguageModel(
                 suggestedWordInfo.mAutoCommitFirstWordConfidence
             )
         }.sortedByDescending { it.mScore }
+
+        return@withContext rescored + suggestedWords.mSuggestedWordInfoList.drop(maxCandidates)
     }
 
     suspend fun getSuggestions(
@@ -228,8 +262,8 @@ class LanguageModel(
         sessionId: Int,
         autocorrectThreshold: Float,
         inOutWeightOfLangModelVsSpatialModel: FloatArray?,
-        personalDictionary: List<String>,
-        bannedWords: Array<String>
+        personalDictionary: VersionedWords,
+        bannedWords: VersionedWords
     ): ArrayList<SuggestedWordInfo>? = withContext(LanguageModelScope) {
         if (mNativeState == 0L) {
             loadModel()
@@ -252,29 +286,40 @@ class LanguageModel(
             return@withContext null
         }
 
-        var context = getContext(composeInfo, ngramContext)
+        val rawContext = getContext(composeInfo, ngramContext)
 
         composeInfo = safeguardComposeInfo(composeInfo)
-        context = safeguardContext(context)
-        context = addPersonalDictionary(context, personalDictionary)
+
+        // Within a word the context doesn't change, so neither does the prompt
+        val contextReused = promptCache.isCurrent(rawContext, personalDictionary.version)
+        if(!contextReused) {
+            var prompt = safeguardContext(rawContext)
+            prompt = addPersonalDictionary(prompt, personalDictionary)
+            promptCache.update(rawContext, personalDictionary.version, prompt)
+        }
+        val context = promptCache.prompt
+
+        updateBannedWords(bannedWords)
 
 
         val maxResults = 128
         val outProbabilities = FloatArray(maxResults)
         val outStrings = arrayOfNulls<String>(maxResults)
+        val outPromptStats = IntArray(2)
         getSuggestionsNative(
             mNativeState,
             proximityInfoHandle,
-            context,
+            if(contextReused) null else context,
             composeInfo.partialWord,
             composeInfo.inputMode,
             composeInfo.xCoords,
             composeInfo.yCoords,
             autocorrectThreshold,
-            bannedWords,
             outStrings,
-            outProbabilities
+            outProbabilities,
+            outPromptStats
         )
+        PredictionStats.onPrompt(contextReused, outPromptStats[0], outPromptStats[1])
         val suggestions = ArrayList<SuggestedWordInfo>()
         var kind = SuggestedWordInfo.KIND_PREDICTION
         val resultMode = outStrings[maxResults - 1]
@@ -352,26 +397,32 @@ class LanguageModel(
         if (mNativeState != 0L) {
             closeNative(mNativeState)
             mNativeState = 0
+            promptCache.reset()
+            bannedWordsVersion = -1
         }
     }
 
     var mNativeState: Long = 0
+    private val promptCache = PromptCache()
     private external fun openNative(sourceDir: String): Long
     private external fun closeNative(state: Long)
     private external fun getSuggestionsNative( // inputs
         state: Long,
         proximityInfoHandle: Long,
-        context: String,
+        context: String?, // null if unchanged since the last call
         partialWord: String,
         inputMode: Int,
         inComposeX: IntArray,
         inComposeY: IntArray,
         thresholdSetting: Float,
-        bannedWords: Array<String>,  // outputs
+        // outputs
         outStrings: Array<String?>,
-        outProbs: FloatArray
+        outProbs: FloatArray,
+        outPromptStats: IntArray // prompt tokens, of which reused from the KV cache
     )
 
+    private external fun setBannedWordsNative(state: Long, bannedWords: Array<String>)
+
     private external fun rescoreSuggestionsNative(
         state: Long,
         context: String,
@@ -5,19 +5,24 @@ import android.util.Log
 import android.widget.Toast
 import androidx.datastore.preferences.core.floatPreferencesKey
 import androidx.lifecycle.LifecycleCoroutineScope
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.TimeoutCancellationException
+import kotlinx.coroutines.async
+import kotlinx.coroutines.currentCoroutineContext
 import kotlinx.coroutines.delay
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.flow.MutableSharedFlow
-import kotlinx.coroutines.flow.conflate
 import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
 import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import kotlinx.coroutines.withContext
 import kotlinx.coroutines.withTimeout
+import kotlinx.coroutines.withTimeoutOrNull
 import org.futo.inputmethod.keyboard.KeyboardSwitcher
 import org.futo.inputmethod.latin.BinaryDictionary
 import org.futo.inputmethod.latin.Dictionary
@@ -121,6 +126,12 @@ private fun areWordsRoughlyEqual(word1: String, word2: String, threshold: Int):
     return distance <= threshold
 }
 
+// How many of the dictionary's gesture candidates the transformer reorders
+private const val GESTURE_RESCORE_CANDIDATES = 8
+
+// Gesture suggestions fall back to the dictionary's order if rescoring takes longer than this
+private const val GESTURE_RESCORE_DEADLINE_MILLIS = 120L
+
 
 
 public class LanguageModelFacilitator(
@@ -135,6 +146,7 @@ public class LanguageModelFacilitator(
     private val userDictionary = UserDictionaryObserver(context)
 
     private var shouldSuggestEmojis = SHOW_EMOJI_SUGGESTIONS.default
+    private val modelRegistry = LanguageModelRegistry(context, lifecycleScope)
     private var languageModel: LanguageModel? = null
     data class PredictionInputValues(
         val composedData: ComposedData,
@@ -142,27 +154,29 @@ public class LanguageModelFacilitator(
         val inputStyle: Int,
         val sequenceId: Int
     )
-    private val sharedFlow = MutableSharedFlow<PredictionInputValues>(replay = 0, extraBufferCapacity = 1)
 
     private var currentSequenceId = 0
     private val sequenceIdFinishedFlow = MutableSharedFlow<Pair<Int, SuggestedWords?>>(replay = 1, extraBufferCapacity = 1)
 
+    // Requests are computed one at a time. Each new request cancels the one before it, which is
+    // dropped if still waiting here or has its result discarded if already being computed, so
+    // only the latest keystroke is ever waited on.
     private val computationSemaphore = Semaphore(1)
+    private var pendingRequest: Job? = null // Main thread only
     public fun hasPendingUpdate(): Boolean =
-        computationSemaphore.availablePermits == 0
+        pendingRequest?.isActive == true
 
 
     private var numConsecutiveTimeouts = 0
     private var transformerDisabled = false
     public fun blockUntilComplete(): Boolean {
         if(languageModel == null) return false
+        val sequenceId = currentSequenceId
         runBlocking {
             try {
                 withTimeout(700L) {
-                    computationSemaphore.acquire()
-                    computationSemaphore.release()
                     val suggestedWords: SuggestedWords? = try {
-                        sequenceIdFinishedFlow.first { it.first >= currentSequenceId }.second
+                        sequenceIdFinishedFlow.first { it.first >= sequenceId }.second
                     } catch (ignored: Exception) {
                         null
                     }
@@ -195,17 +209,12 @@ public class LanguageModelFacilitator(
             skipLanguage = null
             Log.d(
                 "LanguageModelFacilitator",
-                "Calling closeInternalLocked on model due to seeming locale change"
+                "Switching model due to seeming locale change"
             )
-            languageModel?.closeInternalLocked()
-            languageModel = null
-
-            // TODO: Cache value so we're not hitting this repeatedly
-            val options = ModelPaths.getModelOptions(context)
-            val model = options[locale.language]
-            if (model != null) {
-                languageModel = LanguageModel(context, lifecycleScope, model, locale)
-            } else {
+
+            // The previous model stays loaded for a while in case the user switches back
+            languageModel = modelRegistry.switchTo(locale)
+            if (languageModel == null) {
                 Log.d("LanguageModelFacilitator", "no model for ${locale.language}")
                 skipLanguage = locale.language
                 return null
@@ -235,8 +244,8 @@ public class LanguageModelFacilitator(
                 -1,
                 autocorrectThreshold,
                 floatArrayOf(),
-                userDictionary.getWords().map { it.word },
-                suggestionBlacklist.currentBlacklist.toTypedArray<String>()
+                userDictionary.getVersionedWords(),
+                suggestionBlacklist.versionedBlacklist
             )
         }catch (e: ModelLoadingException) {
             withContext(Dispatchers.Main) {
@@ -252,17 +261,116 @@ public class LanguageModelFacilitator(
         }
     }
 
-    private suspend fun processUpdateSuggestionStrip(values: PredictionInputValues) {
-        if(keyboardSwitcher.keyboard == null) return
+    // Reorders the top dictionary candidates of a finished gesture with the transformer, or returns
+    // them as they are if that doesn't finish within GESTURE_RESCORE_DEADLINE_MILLIS
+    private suspend fun rescoreGestureSuggestions(values: PredictionInputValues, results: SuggestedWords): SuggestedWords {
+        val model = languageModel ?: return results
+        if(transformerDisabled || results.size() < 2) return results
+        if(dictionaryFacilitator.mostConfidentLocale != model.locale) return results
+
+        val keyDetector = keyboardSwitcher.mainKeyboardView.mKeyDetector
+        val personalDictionary = userDictionary.getVersionedWords()
+
+        // The native call can't be interrupted, so it runs outside of this request and its result
+        // is ignored if it comes too late
+        val rescoring = lifecycleScope.async(Dispatchers.Default) {
+            model.rescoreSuggestions(
+                results,
+                values.composedData,
+                values.ngramContext,
+                keyDetector,
+                personalDictionary,
+                GESTURE_RESCORE_CANDIDATES
+            )
+        }
+
+        val rescored = try {
+            withTimeoutOrNull(GESTURE_RESCORE_DEADLINE_MILLIS) { rescoring.await() }
+        } catch(e: ModelLoadingException) {
+            null
+        } finally {
+            rescoring.cancel()
+        }
+
+        if(rescored.isNullOrEmpty()) {
+            PredictionStats.onGestureFallback()
+            return results
+        }
+        PredictionStats.onGestureRescored()
+
+        // Don't bring back a suggestion the user rejected for this gesture, like Suggest does
+        val rejected = inputLogic.mWordComposer.rejectedBatchModeSuggestion
+        val suggestions = ArrayList(rescored)
+        if(suggestions.size > 1 && suggestions[0].mWord == rejected) {
+            suggestions.add(1, suggestions.removeAt(0))
+        }
+
+        // As in Suggest, the top suggestion acts as the typed word
+        return SuggestedWords(
+            suggestions,
+            results.mRawSuggestions,
+            suggestions[0],
+            results.mTypedWordValid,
+            results.mWillAutoCorrect,
+            results.mIsObsoleteSuggestions,
+            results.mInputStyle,
+            results.mSequenceNumber
+        )
+    }
+
+    private suspend fun processRequest(values: PredictionInputValues) {
+        var started = false
+        var shown = false
+        try {
+            computationSemaphore.withPermit {
+                started = true
+                processUpdateSuggestionStrip(values)?.let { suggestedWords ->
+                    // If the main thread is blocked in blockUntilComplete, it shows these itself
+                    sequenceIdFinishedFlow.emit(Pair(values.sequenceId, suggestedWords))
+
+                    withContext(Dispatchers.Main) {
+                        showSuggestions(values, suggestedWords)
+                        shown = true
+                    }
+                }
+            }
+        } catch(e: CancellationException) {
+            // Cancellation can still arrive after the suggestions were shown
+            when {
+                shown -> PredictionStats.onServed()
+                started -> PredictionStats.onCancelled()
+                else -> PredictionStats.onDropped()
+            }
+            throw e
+        }
+
+        if(shown) PredictionStats.onServed()
+
+        // The suggestions are showing, or there were none, so blockUntilComplete has nothing to show
+        sequenceIdFinishedFlow.emit(Pair(values.sequenceId, null))
+    }
 
-        computationSemaphore.acquire()
+    private fun showSuggestions(values: PredictionInputValues, suggestedWords: SuggestedWords) {
+        inputLogic.mSuggestionStripViewAccessor.showSuggestionStrip(suggestedWords)
 
-        val suggestedWords = try {
+        if (values.composedData.mIsBatchMode) {
+            inputLogic.showBatchSuggestions(
+                suggestedWords,
+                values.inputStyle == SuggestedWords.INPUT_STYLE_TAIL_BATCH
+            )
+        }
+    }
+
+    // Returns the suggestions to show, or null if there are none
+    private suspend fun processUpdateSuggestionStrip(values: PredictionInputValues): SuggestedWords? {
+        if(keyboardSwitcher.keyboard == null) return null
+
+        val suggestedWords = run {
             inputLogic.mWordComposer.setAutoCorrection(null)
 
             if(values.composedData.mTypedWord.length > BinaryDictionary.DICTIONARY_MAX_WORD_LENGTH-1) {
                 inputLogic.mSuggestionStripViewAccessor.setNeutralSuggestionStrip()
-                return
+                return null
             }
 
             var transformerWeight = context.getSetting(BinaryDictTransformerWeightSetting)
@@ -270,9 +378,10 @@ public class LanguageModelFacilitator(
 
             val holder = AsyncResultHolder<SuggestedWords?>("Suggest")
 
+            currentCoroutineContext().ensureActive()
             inputLogic.getSuggestedWords(
                 settings.current,
-                keyboardSwitcher.keyboard ?: return,
+                keyboardSwitcher.keyboard ?: return null,
                 keyboardSwitcher.keyboardShiftMode,
                 values.inputStyle,
                 SuggestedWords.NOT_A_SEQUENCE_NUMBER
@@ -290,39 +399,20 @@ public class LanguageModelFacilitator(
             val suggestionResults = SuggestionResults(
                 14, values.ngramContext.isBeginningOfSentenceContext, false)
 
-            val lmSuggestions = runLanguageModel(values)
+            val lmSuggestions = try {
+                runLanguageModel(values)
+            } catch(e: CancellationException) {
+                job.cancel()
+                throw e
+            }
 
             if(lmSuggestions == null) {
                 holder.get(null, Constants.GET_SUGGESTED_WORDS_TIMEOUT.toLong())?.let { results ->
                     job.cancel()
+                    currentCoroutineContext().ensureActive()
 
-                    val useRescoring = false
-
-                    val finalResults = if(useRescoring && values.composedData.mIsBatchMode) {
-                        val rescored = languageModel?.rescoreSuggestions(
-                            results,
-                            values.composedData,
-                            values.ngramContext,
-                            keyboardSwitcher.mainKeyboardView.mKeyDetector,
-                            userDictionary.getWords().map { it.word }
-                        )
-
-                        if(rescored != null) {
-                            SuggestedWords(
-                                ArrayList(rescored),
-                                // TODO: These should ideally not be null/false
-                                null,
-                                null,
-                                false,
-                                false,
-                                false,
-                                results.mInputStyle,
-                                results.mSequenceNumber
-                            )
-                            // TODO: We need the swapping rejection thing, the rescored array is resorted without the swapping
-                        } else {
-                            results
-                        }
+                    val finalResults = if(values.inputStyle == SuggestedWords.INPUT_STYLE_TAIL_BATCH) {
+                        rescoreGestureSuggestions(values, results)
                     } else {
                         results
                     }
@@ -335,19 +425,9 @@ public class LanguageModelFacilitator(
                         !suggestionBlacklist.isSuggestedWordOk(it)
                     }
 
-                    sequenceIdFinishedFlow.emit(Pair(values.sequenceId, finalResults))
-
-                    withContext(Dispatchers.Main) {
-                        inputLogic.mSuggestionStripViewAccessor.showSuggestionStrip(finalResults)
-
-                        if(values.composedData.mIsBatchMode) {
-                            inputLogic.showBatchSuggestions(finalResults, values.inputStyle == SuggestedWords.INPUT_STYLE_TAIL_BATCH);
-                        }
-                    }
-
-                    sequenceIdFinishedFlow.emit(Pair(values.sequenceId, null))
+                    return finalResults
                 }
-                return
+                return null
             }
 
             val reweightedSuggestions = lmSuggestions.mapIndexedNotNull { i, it ->
@@ -458,9 +538,9 @@ public class LanguageModelFacilitator(
                 }
             }
 
-            val settingsValues = settings.current ?: return
-            val locale = dictionaryFacilitator.primaryLocale ?: return
-            val wordComposer = inputLogic.mWordComposer ?: return
+            val settingsValues = settings.current ?: return null
+            val locale = dictionaryFacilitator.primaryLocale ?: return null
+            val wordComposer = inputLogic.mWordComposer ?: return null
 
             val suggestedWords = Suggest.obtainNonBatchedInputSuggestedWords(
                 wordComposer,
@@ -475,36 +555,27 @@ public class LanguageModelFacilitator(
 
             job.cancel()
 
-            // TODO
-            if(values.sequenceId < currentSequenceId) return
+            // A newer request arrived while this one was being computed
+            currentCoroutineContext().ensureActive()
 
             suggestedWords
-        } finally {
-            computationSemaphore.release()
         }
 
-        sequenceIdFinishedFlow.emit(Pair(values.sequenceId, suggestedWords))
-
-        withContext(Dispatchers.Main) {
-            inputLogic.mSuggestionStripViewAccessor.showSuggestionStrip(suggestedWords)
-
-            if (values.composedData.mIsBatchMode) {
-                inputLogic.showBatchSuggestions(
-                    suggestedWords,
-                    values.inputStyle == SuggestedWords.INPUT_STYLE_TAIL_BATCH
-                )
-            }
-        }
-
-        sequenceIdFinishedFlow.emit(Pair(values.sequenceId, null))
+        return suggestedWords
     }
 
     public suspend fun destroyModel() {
         Log.d("LanguageModelFacilitator", "destroyModel called")
-        languageModel?.closeInternalLocked()
+        modelRegistry.closeAll()
         languageModel = null
     }
 
+    public fun onTrimMemory() {
+        lifecycleScope.launch(Dispatchers.Default) {
+            modelRegistry.trimMemory()
+        }
+    }
+
     private var trainingEnabled = false
 
     public fun launchProcessor() = lifecycleScope.launch {
@@ -528,16 +599,8 @@ public class LanguageModelFacilitator(
                 ModelPaths.modelOptionsUpdated.collect {
                     Log.d("LanguageModelFacilitator", "ModelPaths options updated, destroying model")
                     skipLanguage = null
-                    destroyModel()
-                }
-            }
-        }
-
-        launch {
-            withContext(Dispatchers.Default) {
-                sharedFlow.conflate().collect { value ->
-                    //Log.d("LanguageModelFacilitator", "Collecting")
-                    processUpdateSuggestionStrip(value)
+                    modelRegistry.invalidate()
+                    languageModel = null
                 }
             }
         }
@@ -602,9 +665,10 @@ public class LanguageModelFacilitator(
                 ++currentSequenceId
             )
 
-            lifecycleScope.launch {
-                //Log.d("LanguageModelFacilitator", "Emitting values")
-                sharedFlow.emit(values)
+            PredictionStats.onRequested()
+            pendingRequest?.cancel()
+            pendingRequest = lifecycleScope.launch(Dispatchers.Default) {
+                processRequest(values)
             }
         } catch(e: Exception) {
             Log.d("LanguageModelFacilitator", "Failed to get context, composed data snapshot, etc: $e")
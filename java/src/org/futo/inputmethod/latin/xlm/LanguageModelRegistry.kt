@@ -0,0 +1,115 @@
+package org.futo.inputmethod.latin.xlm
+
+import android.content.Context
+import android.util.Log
+import androidx.lifecycle.LifecycleCoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.util.Locale
+
+/**
+ * Owns the transformer models of [LanguageModelFacilitator] and the model options they are
+ * created from.
+ *
+ * The options are read from settings once and kept until [invalidate], which is called when
+ * [ModelPaths.signalReloadModels] fires. On a switch to another language, the model that was in
+ * use is kept loaded for [GRACE_PERIOD_MILLIS], so switching back and forth between two
+ * languages doesn't reload the model each time. At most one such model is kept.
+ */
+class LanguageModelRegistry(
+    val context: Context,
+    val lifecycleScope: LifecycleCoroutineScope
+) {
+    private val mutex = Mutex()
+    private var options: Map<String, ModelInfoLoader>? = null
+
+    private var active: LanguageModel? = null
+    private var retired: LanguageModel? = null
+    private var retiredCloseJob: Job? = null
+
+    private suspend fun getOptions(): Map<String, ModelInfoLoader> =
+        options ?: ModelPaths.getModelOptions(context).also { options = it }
+
+    /**
+     * Returns the model for the language of [locale], taking back the retired one if it matches,
+     * and retires the model that was in use. Models are per language, like the options, so
+     * switching between regional variants keeps the same model. Returns null if no model is set
+     * for the language.
+     */
+    suspend fun switchTo(locale: Locale): LanguageModel? = mutex.withLock {
+        active?.let {
+            if (it.locale.language == locale.language) return@withLock it
+            retire(it)
+            active = null
+        }
+
+        retired?.let {
+            if (it.locale.language == locale.language) {
+                Log.d("LanguageModelRegistry", "Reusing loaded model for ${locale.language}")
+                retiredCloseJob?.cancel()
+                retired = null
+                active = it
+                return@withLock it
+            }
+        }
+
+        val model = getOptions()[locale.language] ?: return@withLock null
+        LanguageModel(context, lifecycleScope, model, locale).also { active = it }
+    }
+
+    private suspend fun retire(model: LanguageModel) {
+        closeRetired()
+
+        retired = model
+        retiredCloseJob = lifecycleScope.launch(Dispatchers.Default) {
+            delay(GRACE_PERIOD_MILLIS)
+            mutex.withLock {
+                if (retired === model) {
+                    Log.d("LanguageModelRegistry", "Closing unused model for ${model.locale.language}")
+                    closeRetired()
+                }
+            }
+        }
+    }
+
+    private suspend fun closeRetired() {
+        retiredCloseJob?.cancel()
+        retiredCloseJob = null
+        retired?.closeInternalLocked()
+        retired = null
+    }
+
+    /**
+     * Closes the retired model early, to free memory.
+     */
+    suspend fun trimMemory() = mutex.withLock {
+        closeRetired()
+    }
+
+    /**
+     * Closes every model, for example because its file was changed by training.
+     */
+    suspend fun closeAll() = mutex.withLock {
+        closeRetired()
+        active?.closeInternalLocked()
+        active = null
+    }
+
+    /**
+     * Closes every model and reads the options again the next time a model is needed.
+     */
+    suspend fun invalidate() = mutex.withLock {
+        options = null
+        closeRetired()
+        active?.closeInternalLocked()
+        active = null
+    }
+
+    companion object {
+        const val GRACE_PERIOD_MILLIS = 5 * 60 * 1000L
+    }
+}
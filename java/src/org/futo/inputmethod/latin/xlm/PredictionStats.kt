@@ -0,0 +1,147 @@
+package org.futo.inputmethod.latin.xlm
+
+import android.os.SystemClock
+
+/**
+ * Counters for the suggestion requests of [LanguageModelFacilitator], shown by the debug action
+ * panel. A request is either served, dropped because a newer one arrived before it started, or
+ * cancelled because a newer one arrived while it was being computed.
+ *
+ * For the prompts decoded by the transformer, counts how often the context was reused from the
+ * previous call, and how many prompt tokens were already in the KV cache. For gestures, counts
+ * how often the transformer reordered the suggestions in time.
+ *
+ * Rates are per second of typing: the time between consecutive requests, not counting pauses
+ * longer than [TYPING_GAP_MILLIS].
+ */
+object PredictionStats {
+    const val TYPING_GAP_MILLIS = 2000L
+
+    data class Snapshot(
+        val requests: Int,
+        val served: Int,
+        val dropped: Int,
+        val cancelled: Int,
+        val typingMillis: Long,
+        val prompts: Int,
+        val promptsReused: Int,
+        val promptTokens: Long,
+        val reusedTokens: Long,
+        val gesturesRescored: Int,
+        val gestureFallbacks: Int
+    ) {
+        private fun perSecond(count: Int): Float =
+            if (typingMillis > 0) count * 1000.0f / typingMillis else 0.0f
+
+        val requestsPerSecond: Float
+            get() = perSecond(requests)
+
+        val servedPerSecond: Float
+            get() = perSecond(served)
+
+        val droppedPerSecond: Float
+            get() = perSecond(dropped)
+
+        val cancelledPerSecond: Float
+            get() = perSecond(cancelled)
+
+        /** Share of prompts whose context was unchanged since the previous one. */
+        val promptReuseRate: Float
+            get() = if (prompts > 0) promptsReused.toFloat() / prompts else 0.0f
+
+        /** Share of prompt tokens that didn't need decoding. */
+        val kvCacheHitRate: Float
+            get() = if (promptTokens > 0) reusedTokens.toFloat() / promptTokens else 0.0f
+    }
+
+    private var requests = 0
+    private var served = 0
+    private var dropped = 0
+    private var cancelled = 0
+    private var typingMillis = 0L
+    private var lastRequestAt = 0L
+    private var prompts = 0
+    private var promptsReused = 0
+    private var promptTokens = 0L
+    private var reusedTokens = 0L
+    private var gesturesRescored = 0
+    private var gestureFallbacks = 0
+
+    /** A request was made for the suggestions of a new keystroke. */
+    @Synchronized
+    fun onRequested() {
+        val now = SystemClock.elapsedRealtime()
+        if (lastRequestAt != 0L && now - lastRequestAt <= TYPING_GAP_MILLIS) {
+            typingMillis += now - lastRequestAt
+        }
+        lastRequestAt = now
+        requests++
+    }
+
+    /** The suggestions of a request were computed and shown. */
+    @Synchronized
+    fun onServed() {
+        served++
+    }
+
+    /** A request was superseded before it started. */
+    @Synchronized
+    fun onDropped() {
+        dropped++
+    }
+
+    /** A request was superseded while it was being computed, and its result discarded. */
+    @Synchronized
+    fun onCancelled() {
+        cancelled++
+    }
+
+    /**
+     * The transformer was given a prompt of [tokens] tokens, of which [reused] were already in the
+     * KV cache. [contextReused] tells whether the context was unchanged since the previous one.
+     * A prompt of no tokens was not decoded and isn't counted.
+     */
+    @Synchronized
+    fun onPrompt(contextReused: Boolean, tokens: Int, reused: Int) {
+        if (tokens <= 0) return
+        prompts++
+        if (contextReused) promptsReused++
+        promptTokens += tokens
+        reusedTokens += reused
+    }
+
+    /** The suggestions of a finished gesture were reordered by the transformer. */
+    @Synchronized
+    fun onGestureRescored() {
+        gesturesRescored++
+    }
+
+    /** Rescoring a gesture missed its deadline or failed, so the dictionary's order was kept. */
+    @Synchronized
+    fun onGestureFallback() {
+        gestureFallbacks++
+    }
+
+    @Synchronized
+    fun snapshot() = Snapshot(
+        requests, served, dropped, cancelled, typingMillis,
+        prompts, promptsReused, promptTokens, reusedTokens,
+        gesturesRescored, gestureFallbacks
+    )
+
+    @Synchronized
+    fun reset() {
+        requests = 0
+        served = 0
+        dropped = 0
+        cancelled = 0
+        typingMillis = 0L
+        lastRequestAt = 0L
+        prompts = 0
+        promptsReused = 0
+        promptTokens = 0L
+        reusedTokens = 0L
+        gesturesRescored = 0
+        gestureFallbacks = 0
+    }
+}
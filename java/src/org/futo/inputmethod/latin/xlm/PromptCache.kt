@@ -0,0 +1,39 @@
+package org.futo.inputmethod.latin.xlm
+
+/**
+ * Tracks the prompt last sent to the native side of a [LanguageModel].
+ *
+ * Consecutive keystrokes within a word share the same context, so the prompt built from it
+ * (trimmed, with the personal dictionary) can be reused as is, and the native side, which keeps
+ * its own copy and tokenization, doesn't need to be sent it again. The context only changes when
+ * a word is committed or the text around the cursor is edited, and a new prompt is built then.
+ */
+class PromptCache {
+    private var rawContext: String? = null
+    private var personalDictionaryVersion = -1
+
+    var prompt: String = ""
+        private set
+
+    /**
+     * Whether the prompt for [rawContext] and the [VersionedWords.version] of the personal
+     * dictionary is the one last sent.
+     */
+    fun isCurrent(rawContext: String, personalDictionaryVersion: Int): Boolean =
+        rawContext == this.rawContext && personalDictionaryVersion == this.personalDictionaryVersion
+
+    fun update(rawContext: String, personalDictionaryVersion: Int, prompt: String) {
+        this.rawContext = rawContext
+        this.personalDictionaryVersion = personalDictionaryVersion
+        this.prompt = prompt
+    }
+
+    /**
+     * Forgets the prompt, for when the native side no longer has it.
+     */
+    fun reset() {
+        rawContext = null
+        personalDictionaryVersion = -1
+        prompt = ""
+    }
+}
@@ -15,7 +15,10 @@ class UserDictionaryObserver(context: Context) {
     private val contentResolver = context.applicationContext.contentResolver
     private val uri: Uri = UserDictionary.Words.CONTENT_URI
     private val handler = Handler(Looper.getMainLooper())
-    private var words = mutableListOf<Word>()
+
+    // Replaced rather than modified, as they are read from other threads
+    @Volatile private var words: List<Word> = listOf()
+    @Volatile private var versionedWords = VersionedWords.Empty
 
     private val contentObserver = object : ContentObserver(handler) {
         override fun onChange(selfChange: Boolean) {
@@ -31,11 +34,16 @@ class UserDictionaryObserver(context: Context) {
 
     fun getWords(): List<Word> = words
 
+    /**
+     * The words, with a version that changes only when the user dictionary does.
+     */
+    fun getVersionedWords(): VersionedWords = versionedWords
+
     private fun updateWords() {
         val projection = arrayOf(UserDictionary.Words.WORD, UserDictionary.Words.FREQUENCY)
         val cursor: Cursor? = contentResolver.query(uri, projection, null, null, null)
 
-        words.clear()
+        var words = mutableListOf<Word>()
 
         cursor?.use {
             val wordColumn = it.getColumnIndex(UserDictionary.Words.WORD)
@@ -68,6 +76,9 @@ class UserDictionaryObserver(context: Context) {
             Log.w("UserDictionaryObserver", "User Dictionary is being trimmed to $cutoffIndex / ${words.size} due to reaching num token limit")
             words = words.subList(0, cutoffIndex)
         }
+
+        this.words = words
+        versionedWords = VersionedWords.of(words.map { it.word })
     }
 
     fun unregister() {
@@ -0,0 +1,21 @@
+package org.futo.inputmethod.latin.xlm
+
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * An immutable word list, such as the personal dictionary or the suggestion blacklist, with a
+ * version that is unique to this list. A [LanguageModel] keeps the version it last copied to
+ * its native state and only copies the words again when given a different one, so the cost of
+ * a prediction doesn't grow with the size of the list.
+ */
+class VersionedWords private constructor(val version: Int, val words: List<String>) {
+    companion object {
+        private val nextVersion = AtomicInteger(1)
+
+        val Empty = VersionedWords(0, listOf())
+
+        /** Wraps a new list of [words], with a version no other list has. */
+        fun of(words: List<String>): VersionedWords =
+            VersionedWords(nextVersion.getAndIncrement(), words)
+    }
+}
@@ -198,6 +198,43 @@ struct LanguageModelState {
         std::vector<int> general_banned_tokens;
     } specialTokens;
 
+    // The context of the last getSuggestions call. Java passes null instead of sending it again
+    // while it's unchanged, which is the case for every keystroke within a word.
+    std::string last_context;
+
+    // The last tokenized context, so an unchanged context isn't tokenized again
+    std::string tokenized_context;
+    token_sequence tokenized_context_tokens;
+    bool has_tokenized_context = false;
+
+    // Size of the last decoded prompt, and how many of its tokens were already in the KV cache
+    size_t last_prompt_tokens = 0;
+    size_t last_reused_tokens = 0;
+
+    // Set by setBannedWords when the blacklist changes, rather than tokenized for every call
+    std::vector<banned_sequence> banned_sequences;
+
+    void SetBannedWords(const std::vector<std::string> &banned_words) {
+        banned_sequences.clear();
+        banned_sequences.reserve(banned_words.size() * 2);
+        for(const std::string &bw : banned_words) {
+            auto tokenized = model->tokenize(trim(bw) + " ");
+            banned_sequences.push_back({ tokenized, compute_sequence_hash(tokenized) });
+
+            auto tokenized2 = model->tokenize(trim(bw));
+            banned_sequences.push_back({ tokenized2, compute_sequence_hash(tokenized2) });
+        }
+    }
+
+    const token_sequence &TokenizeContext(const std::string &context) {
+        if(!has_tokenized_context || context != tokenized_context) {
+            tokenized_context = context;
+            tokenized_context_tokens = model->tokenize(trim(context) + " ");
+            has_tokenized_context = true;
+        }
+        return tokenized_context_tokens;
+    }
+
     bool Initialize(const std::string &paths){
         model = std::unique_ptr<LanguageModel>(LlamaAdapter::createLanguageModel(paths));
 
@@ -346,6 +383,8 @@ struct LanguageModelState {
         size_t n_vocab = llama_n_vocab(llama_get_model(ctx));
 
         auto prompt_ff = transformer_context_fastforward(model->transformerContext, prompt, !mixes.empty());
+        last_prompt_tokens = prompt.size();
+        last_reused_tokens = prompt_ff.second;
 
         int n_batch = llamaAdapter->n_batch;
 
@@ -798,17 +837,8 @@ struct LanguageModelState {
         return outputs;
     }
 
-    std::vector<std::pair<float, std::string>> PredictNextWord(const std::string &context, const std::vector<std::string> &banned_words) {
-        std::vector<banned_sequence> banned_sequences;
-        for(const std::string &bw : banned_words) {
-            auto tokenized = model->tokenize(trim(bw) + " ");
-            banned_sequences.push_back({ tokenized, compute_sequence_hash(tokenized) });
-
-            auto tokenized2 = model->tokenize(trim(bw));
-            banned_sequences.push_back({ tokenized2, compute_sequence_hash(tokenized2) });
-        }
-
-        token_sequence next_context = model->tokenize(trim(context) + " ");
+    std::vector<std::pair<float, std::string>> PredictNextWord(const std::string &context) {
+        token_sequence next_context = TokenizeContext(context);
         next_context.insert(next_context.begin(), 1); // BOS
 
         auto decoding_result = DecodePromptAndMixes(next_context, { });
@@ -823,21 +853,12 @@ struct LanguageModelState {
         return str_results;
     }
 
-    std::vector<std::pair<float, std::string>> PredictCorrection(const std::string &context, const std::vector<TokenMix> &mixes, bool swipe_mode, WordCapitalizeMode capitals, const std::vector<std::string> &banned_words) {
+    std::vector<std::pair<float, std::string>> PredictCorrection(const std::string &context, const std::vector<TokenMix> &mixes, bool swipe_mode, WordCapitalizeMode capitals) {
         if(specialTokens.XBU == -1) return { };
 
-        std::vector<banned_sequence> banned_sequences;
-        for(const std::string &bw : banned_words) {
-            auto tokenized = model->tokenize(trim(bw) + " ");
-            banned_sequences.push_back({ tokenized, compute_sequence_hash(tokenized) });
-
-            auto tokenized2 = model->tokenize(trim(bw));
-            banned_sequences.push_back({ tokenized2, compute_sequence_hash(tokenized2) });
-        }
-
         token_sequence next_context;
         if(!context.empty()) {
-            next_context = model->tokenize(trim(context) + " ");
+            next_context = TokenizeContext(context);
         }
 
         next_context.insert(next_context.begin(), 1); // BOS
@@ -934,6 +955,9 @@ namespace latinime {
 
         minScore -= (maxScore - minScore) * 0.33f;
 
+        // All candidates scored the same, avoid dividing by zero
+        if(maxScore - minScore <= 0.0f) minScore = maxScore - 1.0f;
+
         std::vector<SuggestionItemToRescore> words;
         jsize numWords = env->GetArrayLength(inWords);
 
@@ -968,6 +992,7 @@ namespace latinime {
 
         AKLOGI("Iter");
         for(auto &entry : words) {
+            if(entry.tokens.empty()) continue;
             float pseudoScore = logits[entry.tokens[0]] / (float)entry.tokens.size();
             AKLOGI("Word [%s], %d tokens, prob[0] = %.8f", entry.word.c_str(), entry.tokens.size(), pseudoScore);
             entry.transformedScore *= pseudoScore * 1000.0f;
@@ -994,11 +1019,11 @@ namespace latinime {
          jintArray inComposeX,
          jintArray inComposeY,
          jfloat autocorrectThreshold,
-         jobjectArray bannedWordsArray,
 
          // outputs
          jobjectArray outPredictions,
-         jfloatArray outProbabilities
+         jfloatArray outProbabilities,
+         jintArray outPromptStats
     ) {
         GGML_UNUSED(clazz);
 
@@ -1007,10 +1032,14 @@ namespace latinime {
 
         size_t inputSize = env->GetArrayLength(inComposeX);
 
-        std::string contextString;
+        // A null context is the same as the last one
         if(context != nullptr) {
-            contextString = jstring2string(env, context);
+            state->last_context = jstring2string(env, context);
         }
+        const std::string contextString = state->last_context;
+
+        state->last_prompt_tokens = 0;
+        state->last_reused_tokens = 0;
 
         std::string partialWordString;
         if(partialWord != nullptr){
@@ -1029,18 +1058,6 @@ namespace latinime {
             }
         }
 
-        std::vector<std::string> bannedWords;
-        size_t numBannedWords = env->GetArrayLength(bannedWordsArray);
-        for(size_t i=0; i<numBannedWords; i++) {
-            auto bannedWord = (jstring)env->GetObjectArrayElement(bannedWordsArray, (jsize) i);
-            bannedWords.push_back(jstring2string(
-                env,
-                bannedWord
-            ));
-
-            env->DeleteLocalRef(bannedWord);
-        }
-
         TIME_START(GettingMixes)
         int xCoordinates[inputSize];
         int yCoordinates[inputSize];
@@ -1193,14 +1210,14 @@ namespace latinime {
 
         std::vector<std::pair<float, std::string>> results;
         if(partialWordString.empty()) {
-            results = state->PredictNextWord(contextString, bannedWords);
+            results = state->PredictNextWord(contextString);
 
             //for(const auto &result : results) {
             //    AKLOGI("LanguageModel suggestion %.2f [%s]", result.first, result.second.c_str());
             //}
         } else {
             bool swipeMode = inputMode == 1;
-            results = state->PredictCorrection(contextString, mixes, swipeMode, capitals, bannedWords);
+            results = state->PredictCorrection(contextString, mixes, swipeMode, capitals);
 
             //for(const auto &result : results) {
             //    AKLOGI("LanguageModel correction %.2f [%s] -> [%s]", result.first, partialWordString.c_str(), result.second.c_str());
@@ -1261,6 +1278,33 @@ namespace latinime {
         }
 
         env->ReleaseFloatArrayElements(outProbabilities, probsArray, 0);
+
+        jint promptStats[2] = { (jint)state->last_prompt_tokens, (jint)state->last_reused_tokens };
+        env->SetIntArrayRegion(outPromptStats, 0, 2, promptStats);
+    }
+
+    static void xlm_LanguageModel_setBannedWords(JNIEnv *env, jclass clazz,
+         jlong dict,
+         jobjectArray bannedWordsArray
+    ) {
+        GGML_UNUSED(clazz);
+
+        auto *state = reinterpret_cast<LanguageModelState *>(dict);
+
+        std::vector<std::string> bannedWords;
+        size_t numBannedWords = env->GetArrayLength(bannedWordsArray);
+        bannedWords.reserve(numBannedWords);
+        for(size_t i=0; i<numBannedWords; i++) {
+            auto bannedWord = (jstring)env->GetObjectArrayElement(bannedWordsArray, (jsize) i);
+            bannedWords.push_back(jstring2string(
+                env,
+                bannedWord
+            ));
+
+            env->DeleteLocalRef(bannedWord);
+        }
+
+        state->SetBannedWords(bannedWords);
     }
 
     static const JNINativeMethod sMethods[] = {
@@ -1276,9 +1320,14 @@ namespace latinime {
             },
             {
                     const_cast<char *>("getSuggestionsNative"),
-                    const_cast<char *>("(JJLjava/lang/String;Ljava/lang/String;I[I[IF[Ljava/lang/String;[Ljava/lang/String;[F)V"),
+                    const_cast<char *>("(JJLjava/lang/String;Ljava/lang/String;I[I[IF[Ljava/lang/String;[F[I)V"),
                     reinterpret_cast<void *>(xlm_LanguageModel_getSuggestions)
             },
+            {
+                    const_cast<char *>("setBannedWordsNative"),
+                    const_cast<char *>("(J[Ljava/lang/String;)V"),
+                    reinterpret_cast<void *>(xlm_LanguageModel_setBannedWords)
+            },
             {
                     const_cast<char *>("rescoreSuggestionsNative"),
                     const_cast<char *>("(JLjava/lang/String;[Ljava/lang/String;[I[I)V"),
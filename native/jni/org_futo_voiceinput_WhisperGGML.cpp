@@ -57,7 +57,7 @@ static jlong WhisperGGML_openFromBuffer(JNIEnv *env, jclass clazz, jobject buffe
     return reinterpret_cast<jlong>(state);
 }
 
-static jstring WhisperGGML_infer(JNIEnv *env, jobject instance, jlong handle, jfloatArray samples_array, jstring prompt, jobjectArray languages, jobjectArray bail_languages, jint decoding_mode, jboolean suppress_non_speech_tokens) {
+static jstring WhisperGGML_infer(JNIEnv *env, jobject instance, jlong handle, jobjectArray sample_segments, jintArray sample_ranges, jstring prompt, jobjectArray languages, jobjectArray bail_languages, jint decoding_mode, jboolean suppress_non_speech_tokens, jint num_threads) {
     AKLOGI("Attempting to infer model...");
 
     auto *state = reinterpret_cast<WhisperModelState *>(handle);
@@ -84,11 +84,47 @@ static jstring WhisperGGML_infer(JNIEnv *env, jobject instance, jlong handle, jf
 
     state->last_forbidden_languages = forbidden_languages;
 
-    size_t num_samples = env->GetArrayLength(samples_array);
-    jfloat *samples = env->GetFloatArrayElements(samples_array, nullptr);
+    // Gather the requested ranges of the recording's segments into one contiguous buffer. This is
+    // the only copy of the audio made for inference. Ranges are [start, end) pairs, in order.
+    int num_segments = env->GetArrayLength(sample_segments);
+    std::vector<jfloatArray> segments(num_segments);
+    std::vector<size_t> segment_starts(num_segments + 1, 0);
+    for (int i=0; i<num_segments; i++) {
+        segments[i] = static_cast<jfloatArray>(env->GetObjectArrayElement(sample_segments, i));
+        segment_starts[i + 1] = segment_starts[i] + (size_t)env->GetArrayLength(segments[i]);
+    }
+
+    std::vector<jint> ranges(env->GetArrayLength(sample_ranges));
+    env->GetIntArrayRegion(sample_ranges, 0, (jsize)ranges.size(), ranges.data());
+
+    size_t total_samples = 0;
+    for (size_t r=0; r+1<ranges.size(); r+=2) {
+        total_samples += (size_t)std::max(0, ranges[r + 1] - ranges[r]);
+    }
+
+    std::vector<float> samples_vec(total_samples);
+    size_t num_samples = 0;
+    int segment_index = 0;
+    for (size_t r=0; r+1<ranges.size(); r+=2) {
+        size_t position = (size_t)std::max(0, ranges[r]);
+        size_t end = std::min((size_t)std::max(0, ranges[r + 1]), segment_starts[num_segments]);
+        while (position < end) {
+            while (segment_starts[segment_index + 1] <= position) segment_index++;
+            size_t offset = position - segment_starts[segment_index];
+            size_t to_copy = std::min(end, segment_starts[segment_index + 1]) - position;
+            env->GetFloatArrayRegion(segments[segment_index], (jsize)offset, (jsize)to_copy, samples_vec.data() + num_samples);
+            num_samples += to_copy;
+            position += to_copy;
+        }
+    }
+    for (auto segment : segments) {
+        env->DeleteLocalRef(segment);
+    }
+    const float *samples = samples_vec.data();
 
     long num_procs = sysconf(_SC_NPROCESSORS_ONLN);
     if(num_procs < 2 || num_procs > 16) num_procs = 6; // Make sure the number is sane
+    if(num_threads > 0) num_procs = std::min(num_procs, (long)num_threads); // Caller-imposed limit
 
     whisper_full_params wparams = whisper_full_default_params(WHISPER_SAMPLING_GREEDY);
     wparams.print_progress = false;
@@ -263,7 +299,7 @@ static const JNINativeMethod sMethods[] = {
         },
         {
                 const_cast<char *>("inferNative"),
-                const_cast<char *>("(J[FLjava/lang/String;[Ljava/lang/String;[Ljava/lang/String;IZ)Ljava/lang/String;"),
+                const_cast<char *>("(J[[F[ILjava/lang/String;[Ljava/lang/String;[Ljava/lang/String;IZI)Ljava/lang/String;"),
                 reinterpret_cast<void *>(WhisperGGML_infer)
         },
         {
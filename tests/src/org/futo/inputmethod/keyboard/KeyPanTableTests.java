@@ -0,0 +1,72 @@
+package org.futo.inputmethod.keyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.futo.inputmethod.latin.common.Constants;
+import org.futo.inputmethod.latin.sound.KeypressSoundMixer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class KeyPanTableTests {
+    private static final int KEYBOARD_WIDTH = 1000;
+
+    private static int leftGain(final int pan) {
+        return (pan >>> 16) & 0xFFFF;
+    }
+
+    private static int rightGain(final int pan) {
+        return pan & 0xFFFF;
+    }
+
+    @Test
+    public void testKeysArePannedByPosition() {
+        final KeyPanTable table = new KeyPanTable(
+                new int[] { 'q', 'g', 'p', Constants.CODE_DELETE },
+                new int[] { 0, 450, 900, 900 },
+                new int[] { 100, 100, 100, 100 },
+                KEYBOARD_WIDTH);
+        final int left = table.getPan('q');
+        final int center = table.getPan('g');
+        final int right = table.getPan('p');
+        assertTrue(leftGain(left) > rightGain(left));
+        assertEquals(KeypressSoundMixer.PAN_CENTER, center);
+        assertTrue(rightGain(right) > leftGain(right));
+        assertEquals(leftGain(left), rightGain(right));
+        assertEquals(right, table.getPan(Constants.CODE_DELETE));
+    }
+
+    @Test
+    public void testUnknownCodeIsCentered() {
+        final KeyPanTable table = new KeyPanTable(new int[] { 'a' }, new int[] { 0 },
+                new int[] { 100 }, KEYBOARD_WIDTH);
+        assertEquals(KeypressSoundMixer.PAN_CENTER, table.getPan('z'));
+        assertEquals(KeypressSoundMixer.PAN_CENTER, KeyPanTable.EMPTY.getPan('a'));
+    }
+
+    @Test
+    public void testFirstKeyWinsForDuplicateCodes() {
+        final KeyPanTable table = new KeyPanTable(
+                new int[] { Constants.CODE_SHIFT, Constants.CODE_SHIFT },
+                new int[] { 0, 900 }, new int[] { 100, 100 }, KEYBOARD_WIDTH);
+        final int pan = table.getPan(Constants.CODE_SHIFT);
+        assertTrue(leftGain(pan) > rightGain(pan));
+    }
+
+    @Test
+    public void testWideCodeRangeUsesSparseLookup() {
+        final int emoji = 0x1F600;
+        final KeyPanTable table = new KeyPanTable(new int[] { 'a', emoji },
+                new int[] { 0, 900 }, new int[] { 100, 100 }, KEYBOARD_WIDTH);
+        final int left = table.getPan('a');
+        final int right = table.getPan(emoji);
+        assertTrue(leftGain(left) > rightGain(left));
+        assertTrue(rightGain(right) > leftGain(right));
+        assertEquals(KeypressSoundMixer.PAN_CENTER, table.getPan('b'));
+    }
+}
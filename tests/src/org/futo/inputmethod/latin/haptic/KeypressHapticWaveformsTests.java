@@ -0,0 +1,70 @@
+package org.futo.inputmethod.latin.haptic;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.futo.inputmethod.latin.common.Constants;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class KeypressHapticWaveformsTests {
+    @Test
+    public void testKeyClasses() {
+        assertEquals(KeypressHapticWaveforms.CLASS_LETTER,
+                KeypressHapticWaveforms.getKeyClass('a', false));
+        assertEquals(KeypressHapticWaveforms.CLASS_SPACE,
+                KeypressHapticWaveforms.getKeyClass(Constants.CODE_SPACE, false));
+        assertEquals(KeypressHapticWaveforms.CLASS_DELETE,
+                KeypressHapticWaveforms.getKeyClass(Constants.CODE_DELETE, false));
+        assertEquals(KeypressHapticWaveforms.CLASS_ENTER,
+                KeypressHapticWaveforms.getKeyClass(Constants.CODE_ENTER, false));
+        assertEquals(KeypressHapticWaveforms.CLASS_REPEAT,
+                KeypressHapticWaveforms.getKeyClass(Constants.CODE_DELETE, true));
+    }
+
+    @Test
+    public void testStrongestClassWins() {
+        final int repeat = 1 << KeypressHapticWaveforms.CLASS_REPEAT;
+        final int letter = 1 << KeypressHapticWaveforms.CLASS_LETTER;
+        final int space = 1 << KeypressHapticWaveforms.CLASS_SPACE;
+        final int delete = 1 << KeypressHapticWaveforms.CLASS_DELETE;
+        final int enter = 1 << KeypressHapticWaveforms.CLASS_ENTER;
+        assertEquals(KeypressHapticWaveforms.CLASS_REPEAT,
+                KeypressHapticWaveforms.getStrongestClass(repeat));
+        assertEquals(KeypressHapticWaveforms.CLASS_ENTER,
+                KeypressHapticWaveforms.getStrongestClass(letter | enter));
+        assertEquals(KeypressHapticWaveforms.CLASS_DELETE,
+                KeypressHapticWaveforms.getStrongestClass(space | delete | repeat));
+    }
+
+    @Test
+    public void testWaveformsFollowBaseDuration() {
+        final KeypressHapticWaveforms waveforms = new KeypressHapticWaveforms(20);
+        assertEquals(20, waveforms.getDurationMillis(KeypressHapticWaveforms.CLASS_LETTER));
+        // Repeats keep the old half-length vibration.
+        assertEquals(10, waveforms.getDurationMillis(KeypressHapticWaveforms.CLASS_REPEAT));
+        assertEquals(30, waveforms.getDurationMillis(KeypressHapticWaveforms.CLASS_ENTER));
+        for (int keyClass = 0; keyClass < KeypressHapticWaveforms.CLASS_COUNT; keyClass++) {
+            assertEquals(waveforms.getTimings(keyClass).length,
+                    waveforms.getAmplitudes(keyClass).length);
+        }
+    }
+
+    @Test
+    public void testRegularPressesKeepDefaultAmplitude() {
+        final KeypressHapticWaveforms waveforms = new KeypressHapticWaveforms(20);
+        assertEquals(KeypressHapticWaveforms.DEFAULT_AMPLITUDE,
+                waveforms.getAmplitudes(KeypressHapticWaveforms.CLASS_LETTER)[0]);
+        assertEquals(KeypressHapticWaveforms.DEFAULT_AMPLITUDE,
+                waveforms.getAmplitudes(KeypressHapticWaveforms.CLASS_SPACE)[0]);
+        assertEquals(KeypressHapticWaveforms.DEFAULT_AMPLITUDE,
+                waveforms.getAmplitudes(KeypressHapticWaveforms.CLASS_DELETE)[0]);
+        assertEquals(KeypressHapticWaveforms.DEFAULT_AMPLITUDE,
+                waveforms.getAmplitudes(KeypressHapticWaveforms.CLASS_ENTER)[0]);
+    }
+
+}
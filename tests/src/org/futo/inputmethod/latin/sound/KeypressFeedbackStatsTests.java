@@ -0,0 +1,82 @@
+package org.futo.inputmethod.latin.sound;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class KeypressFeedbackStatsTests {
+    @Before
+    public void setUp() {
+        KeypressFeedbackStats.setEnabled(true);
+        KeypressFeedbackStats.reset();
+    }
+
+    @After
+    public void tearDown() {
+        KeypressFeedbackStats.setEnabled(false);
+    }
+
+    @Test
+    public void testDisabledStatsIgnoreEvents() {
+        KeypressFeedbackStats.setEnabled(false);
+        KeypressFeedbackStats.onPlay();
+        KeypressFeedbackStats.onFallback();
+        KeypressFeedbackStats.recordLatency(1000000);
+        final KeypressFeedbackStats.Snapshot snapshot = KeypressFeedbackStats.snapshot();
+        assertEquals(0, snapshot.mPlays);
+        assertEquals(0, snapshot.mFallbacks);
+        assertEquals(0, snapshot.getLatencyCount());
+    }
+
+    @Test
+    public void testBuckets() {
+        assertEquals(0, KeypressFeedbackStats.getBucket(0));
+        assertEquals(0, KeypressFeedbackStats.getBucket(249));
+        assertEquals(1, KeypressFeedbackStats.getBucket(250));
+        assertEquals(1, KeypressFeedbackStats.getBucket(499));
+        assertEquals(2, KeypressFeedbackStats.getBucket(500));
+        assertEquals(KeypressFeedbackStats.LATENCY_BUCKET_COUNT - 1,
+                KeypressFeedbackStats.getBucket(Long.MAX_VALUE / 1000));
+        assertEquals(500, KeypressFeedbackStats.getBucketUpperBoundMicros(1));
+    }
+
+    @Test
+    public void testPercentiles() {
+        for (int i = 0; i < 9; i++) {
+            KeypressFeedbackStats.recordLatency(100 * 1000L);
+        }
+        KeypressFeedbackStats.recordLatency(3 * 1000 * 1000L);
+        final KeypressFeedbackStats.Snapshot snapshot = KeypressFeedbackStats.snapshot();
+        assertEquals(10, snapshot.getLatencyCount());
+        assertEquals(250, snapshot.getLatencyPercentileMicros(50.0f));
+        assertEquals(250, snapshot.getLatencyPercentileMicros(90.0f));
+        assertEquals(4000, snapshot.getLatencyPercentileMicros(99.0f));
+    }
+
+    @Test
+    public void testMixerReportsLatencyStealsAndDrops() {
+        final PcmSample sample = new PcmSample(new short[64], 44100);
+        final KeypressSoundMixer mixer = new KeypressSoundMixer(16, 1, 1024);
+        assertEquals(true, mixer.play(sample, 1.0f, KeypressSoundMixer.PAN_CENTER,
+                Integer.MAX_VALUE, System.nanoTime()));
+        assertEquals(true, mixer.play(sample, 1.0f));
+        mixer.mix(new short[16], 16);
+        for (int i = 0; i < 10; i++) {
+            mixer.play(sample, 1.0f);
+        }
+        final KeypressFeedbackStats.Snapshot snapshot = KeypressFeedbackStats.snapshot();
+        // Only the first trigger carried a press time.
+        assertEquals(1, snapshot.getLatencyCount());
+        // Two triggers for one voice.
+        assertEquals(1, snapshot.mSteals);
+        assertEquals(mixer.getDroppedTriggerCount(), snapshot.mDrops);
+    }
+}
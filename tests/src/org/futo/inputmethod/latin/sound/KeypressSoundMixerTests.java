@@ -0,0 +1,192 @@
+package org.futo.inputmethod.latin.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class KeypressSoundMixerTests {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int FRAMES = 64;
+
+    private static PcmSample constantSample(final int length, final short value) {
+        final short[] data = new short[length];
+        Arrays.fill(data, value);
+        return new PcmSample(data, SAMPLE_RATE);
+    }
+
+    @Test
+    public void testSilentWhenIdle() {
+        final KeypressSoundMixer mixer = new KeypressSoundMixer(FRAMES);
+        final short[] out = new short[FRAMES];
+        Arrays.fill(out, (short) 123);
+        assertEquals(0, mixer.mix(out, FRAMES));
+        for (final short value : out) {
+            assertEquals(0, value);
+        }
+        assertTrue(mixer.isIdle());
+    }
+
+    @Test
+    public void testVoicesAreSummedWithGain() {
+        final KeypressSoundMixer mixer = new KeypressSoundMixer(FRAMES);
+        assertTrue(mixer.play(constantSample(FRAMES * 2, (short) 1000), 1.0f));
+        assertTrue(mixer.play(constantSample(FRAMES * 2, (short) 1000), 0.5f));
+        final short[] out = new short[FRAMES];
+        assertEquals(2, mixer.mix(out, FRAMES));
+        assertEquals(1500, out[0]);
+        assertEquals(1500, out[FRAMES - 1]);
+        assertEquals(2, mixer.mix(out, FRAMES));
+        assertTrue(mixer.isIdle());
+    }
+
+    @Test
+    public void testShortSampleIsPaddedWithSilence() {
+        final KeypressSoundMixer mixer = new KeypressSoundMixer(FRAMES);
+        mixer.play(constantSample(10, (short) 200), 1.0f);
+        final short[] out = new short[FRAMES];
+        mixer.mix(out, FRAMES);
+        assertEquals(200, out[9]);
+        assertEquals(0, out[10]);
+        assertTrue(mixer.isIdle());
+    }
+
+    @Test
+    public void testShortenedVoiceFadesOut() {
+        final int length = KeypressSoundMixer.FADE_OUT_FRAMES * 2;
+        final KeypressSoundMixer mixer = new KeypressSoundMixer(length * 2);
+        assertTrue(mixer.play(constantSample(length * 2, (short) 1000), 1.0f,
+                KeypressSoundMixer.PAN_CENTER, length, 0));
+        final short[] out = new short[length * 2];
+        mixer.mix(out, length * 2);
+        final int fadeStart = length - KeypressSoundMixer.FADE_OUT_FRAMES;
+        assertEquals(1000, out[fadeStart - 1]);
+        assertEquals(1000, out[fadeStart]);
+        assertTrue(out[length - 1] > 0 && out[length - 1] < 20);
+        assertTrue(out[fadeStart + 10] > out[fadeStart + 20]);
+        assertEquals(0, out[length]);
+        assertTrue(mixer.isIdle());
+    }
+
+    @Test
+    public void testStereoVoicesArePanned() {
+        final KeypressSoundMixer mixer = new KeypressSoundMixer(FRAMES, 2,
+                KeypressSoundMixer.DEFAULT_MAX_VOICES,
+                KeypressSoundMixer.DEFAULT_VOICE_FRAME_BUDGET);
+        assertTrue(mixer.play(constantSample(FRAMES, (short) 1000), 1.0f,
+                KeypressSoundMixer.packPan(1.0f, 0.5f), Integer.MAX_VALUE, 0));
+        assertTrue(mixer.play(constantSample(FRAMES, (short) 1000), 1.0f));
+        final short[] out = new short[FRAMES * 2];
+        assertEquals(2, mixer.mix(out, FRAMES));
+        assertEquals(2000, out[0]);
+        assertEquals(1500, out[1]);
+        assertEquals(2000, out[FRAMES * 2 - 2]);
+        assertEquals(1500, out[FRAMES * 2 - 1]);
+    }
+
+    @Test
+    public void testMonoMixerIgnoresPan() {
+        final KeypressSoundMixer mixer = new KeypressSoundMixer(FRAMES);
+        assertTrue(mixer.play(constantSample(FRAMES, (short) 1000), 1.0f,
+                KeypressSoundMixer.packPan(0.0f, 1.0f), Integer.MAX_VALUE, 0));
+        final short[] out = new short[FRAMES];
+        mixer.mix(out, FRAMES);
+        assertEquals(1000, out[0]);
+    }
+
+    @Test
+    public void testOutputIsClipped() {
+        final KeypressSoundMixer mixer = new KeypressSoundMixer(FRAMES);
+        mixer.play(constantSample(FRAMES, Short.MAX_VALUE), 1.0f);
+        mixer.play(constantSample(FRAMES, Short.MAX_VALUE), 1.0f);
+        mixer.play(constantSample(FRAMES, (short) -30000), 0.1f);
+        final short[] out = new short[FRAMES];
+        mixer.mix(out, FRAMES);
+        assertEquals(Short.MAX_VALUE, out[0]);
+    }
+
+    @Test
+    public void testOldestVoiceIsStolen() {
+        final KeypressSoundMixer mixer = new KeypressSoundMixer(FRAMES, 2, Integer.MAX_VALUE);
+        mixer.play(constantSample(FRAMES * 4, (short) 1), 1.0f);
+        mixer.play(constantSample(FRAMES * 4, (short) 10), 1.0f);
+        mixer.play(constantSample(FRAMES * 4, (short) 100), 1.0f);
+        final short[] out = new short[FRAMES];
+        assertEquals(2, mixer.mix(out, FRAMES));
+        assertEquals(110, out[0]);
+        assertEquals(1, mixer.getStolenVoiceCount());
+    }
+
+    @Test
+    public void testVoiceFrameBudgetLimitsMixedVoices() {
+        final KeypressSoundMixer mixer = new KeypressSoundMixer(FRAMES, 8, FRAMES * 3);
+        for (int i = 0; i < 5; i++) {
+            mixer.play(constantSample(FRAMES * 4, (short) 1), 1.0f);
+        }
+        final short[] out = new short[FRAMES];
+        assertEquals(3, mixer.mix(out, FRAMES));
+        assertEquals(3, out[0]);
+        assertEquals(2, mixer.getStolenVoiceCount());
+    }
+
+    @Test
+    public void testFullTriggerQueueDropsPresses() {
+        final KeypressSoundMixer mixer = new KeypressSoundMixer(FRAMES, 1, Integer.MAX_VALUE);
+        final PcmSample sample = constantSample(FRAMES, (short) 1);
+        int accepted = 0;
+        for (int i = 0; i < 16; i++) {
+            if (mixer.play(sample, 1.0f)) {
+                accepted++;
+            }
+        }
+        assertTrue(accepted < 16);
+        assertEquals(16 - accepted, mixer.getDroppedTriggerCount());
+    }
+
+    @Test
+    public void testStopAllSilencesVoicesAndQueue() {
+        final KeypressSoundMixer mixer = new KeypressSoundMixer(FRAMES);
+        mixer.play(constantSample(FRAMES * 4, (short) 1000), 1.0f);
+        final short[] out = new short[FRAMES];
+        mixer.mix(out, FRAMES);
+        mixer.play(constantSample(FRAMES * 4, (short) 1000), 1.0f);
+        mixer.stopAll();
+        assertEquals(0, mixer.mix(out, FRAMES));
+        assertEquals(0, out[0]);
+        assertFalse(mixer.hasPendingTriggers());
+    }
+
+    @Test
+    public void testPressAfterStopAllIsPlayed() {
+        final KeypressSoundMixer mixer = new KeypressSoundMixer(FRAMES);
+        mixer.stopAll();
+        mixer.play(constantSample(FRAMES, (short) 1000), 1.0f);
+        final short[] out = new short[FRAMES];
+        assertEquals(1, mixer.mix(out, FRAMES));
+        assertEquals(1000, out[0]);
+    }
+
+    @Test
+    public void testStopAllKeepsPressesQueuedAfterIt() {
+        final KeypressSoundMixer mixer = new KeypressSoundMixer(FRAMES);
+        final short[] out = new short[FRAMES];
+        mixer.play(constantSample(FRAMES * 4, (short) 1000), 1.0f);
+        mixer.mix(out, FRAMES);
+        mixer.play(constantSample(FRAMES * 4, (short) 1000), 1.0f);
+        mixer.stopAll();
+        mixer.play(constantSample(FRAMES * 4, (short) 10), 1.0f);
+        assertEquals(1, mixer.mix(out, FRAMES));
+        assertEquals(10, out[0]);
+        assertEquals(1, mixer.mix(out, FRAMES));
+        assertEquals(10, out[0]);
+    }
+}
@@ -0,0 +1,96 @@
+package org.futo.inputmethod.latin.sound;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class KeypressSoundPackTests {
+    private static final String MANIFEST =
+            "{\"name\":\"Pack\",\"rules\":[{\"keys\":\"all\",\"samples\":[\"click\"]},"
+            + "{\"codes\":[\"space\"],\"samples\":[\"thock\"]}]}";
+
+    private static byte[] buildPack(final List<String> names, final List<PcmSample> samples)
+            throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        KeypressSoundPack.write(out, 44100, MANIFEST, names, samples);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final PcmSample click = new PcmSample(new short[] { 1, -2, 3 }, 44100);
+        final PcmSample thock = new PcmSample(new short[] { Short.MAX_VALUE, Short.MIN_VALUE },
+                44100);
+        final KeypressSoundPack pack = KeypressSoundPack.wrap(
+                buildPack(Arrays.asList("click", "thock"), Arrays.asList(click, thock)));
+        assertEquals(44100, pack.getSampleRate());
+        assertEquals(MANIFEST, pack.getManifest());
+        assertEquals(Arrays.asList("click", "thock"), pack.getSampleNames());
+        assertArrayEquals(click.mData, pack.readSample("click", 44100).mData);
+        assertArrayEquals(thock.mData, pack.readSample("thock", 44100).mData);
+    }
+
+    @Test
+    public void testResamplesOnRead() throws IOException {
+        final KeypressSoundPack pack = KeypressSoundPack.wrap(buildPack(
+                Arrays.asList("click", "thock"),
+                Arrays.asList(new PcmSample(new short[441], 44100),
+                        new PcmSample(new short[1], 44100))));
+        final PcmSample sample = pack.readSample("click", 48000);
+        assertEquals(48000, sample.mSampleRate);
+        assertEquals(480, sample.getLengthInFrames());
+    }
+
+    @Test
+    public void testRejectsUnknownSample() throws IOException {
+        final KeypressSoundPack pack = KeypressSoundPack.wrap(buildPack(
+                Arrays.asList("click"), Arrays.asList(new PcmSample(new short[1], 44100))));
+        try {
+            pack.readSample("thock", 44100);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testRejectsTruncatedPack() throws IOException {
+        final byte[] bytes = buildPack(Arrays.asList("click"),
+                Arrays.asList(new PcmSample(new short[64], 44100)));
+        try {
+            KeypressSoundPack.wrap(Arrays.copyOf(bytes, bytes.length - 2));
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // Expected.
+        }
+        try {
+            KeypressSoundPack.wrap(new byte[64]);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testPackManifestUsesGivenId() throws JSONException {
+        final KeypressSoundProfile profile =
+                KeypressSoundProfileParser.parseSoundPack(MANIFEST, 100);
+        assertEquals(100, profile.mId);
+        assertEquals("Pack", profile.mName);
+        assertEquals(Arrays.asList("click", "thock"), profile.getSampleNames());
+    }
+}
@@ -0,0 +1,101 @@
+package org.futo.inputmethod.latin.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.futo.inputmethod.latin.common.Constants;
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class KeypressSoundProfileTests {
+    private static final int START = -19;
+    private static final int END = 591;
+    private static final int[] EXTRA_CODES = { 8364, 8482 };
+
+    private static final String MANIFEST = "{ \"profiles\": [ {"
+            + "  \"id\": 1, \"name\": \"test\", \"rules\": ["
+            + "    { \"keys\": \"all\", \"samples\": [\"key_{0..2}\"] },"
+            + "    { \"chars\": \"qwe\", \"samples\": [\"row\"] },"
+            + "    { \"codes\": [\"delete\", \"space\"], \"samples\": [\"key_1\", \"special\"] },"
+            + "    { \"codes\": [\"enter\"], \"samples\": [\"do\", \"re\", \"mi\"],"
+            + "      \"mode\": \"sequence\", \"order\": [2, 1, 0, 1, 2, 2] },"
+            + "    { \"codes\": [8364], \"samples\": [\"key_0\", \"row\"], \"mode\": \"round_robin\" }"
+            + "  ] } ] }";
+
+    private static KeypressSoundProfile parseSingle(final String manifest) throws JSONException {
+        final List<KeypressSoundProfile> profiles = KeypressSoundProfileParser.parse(manifest);
+        assertEquals(1, profiles.size());
+        return profiles.get(0);
+    }
+
+    @Test
+    public void testSampleNamesAreExpandedAndDeduplicated() throws JSONException {
+        final KeypressSoundProfile profile = parseSingle(MANIFEST);
+        assertEquals(1, profile.mId);
+        assertEquals("test", profile.mName);
+        assertEquals(Arrays.asList("key_0", "key_1", "key_2", "row", "special", "do", "re", "mi"),
+                profile.getSampleNames());
+        assertEquals(5, profile.getRules().size());
+    }
+
+    @Test
+    public void testRulesApplyInOrder() throws JSONException {
+        final KeypressSoundTable table = parseSingle(MANIFEST).createTable(START, END, EXTRA_CODES);
+        // "all" spreads key_0..key_2 over the range by position.
+        assertEquals(0, table.lookup(START));
+        assertEquals(1, table.lookup(START + 1));
+        assertEquals(2, table.lookup(START + 2));
+        assertEquals(1, table.lookup(8482));
+        // Later rules override earlier ones.
+        assertEquals(3, table.lookup('q'));
+        assertEquals(3, table.lookup('e'));
+        assertEquals(1, table.lookup(Constants.CODE_DELETE));
+        assertEquals(4, table.lookup(Constants.CODE_SPACE));
+        assertEquals(8, table.getSampleCount());
+    }
+
+    @Test
+    public void testSequenceAndRoundRobin() throws JSONException {
+        final KeypressSoundTable table = parseSingle(MANIFEST).createTable(START, END, EXTRA_CODES);
+        final int[] melody = new int[6];
+        for (int i = 0; i < melody.length; i++) {
+            melody[i] = table.nextSampleIndex(Constants.CODE_ENTER);
+        }
+        assertEquals(Arrays.toString(new int[] { 7, 6, 5, 6, 7, 7 }), Arrays.toString(melody));
+        assertEquals(7, table.nextSampleIndex(Constants.CODE_ENTER));
+
+        assertEquals(0, table.nextSampleIndex(8364));
+        assertEquals(3, table.nextSampleIndex(8364));
+        assertEquals(0, table.nextSampleIndex(8364));
+    }
+
+    @Test
+    public void testRejectsInvalidManifests() {
+        final String[] invalid = {
+                "{ \"profiles\": [ { \"id\": 1, \"rules\": [ { \"samples\": [\"a\"] } ] } ] }",
+                "{ \"profiles\": [ { \"id\": 1, \"rules\": [ { \"keys\": \"all\","
+                        + " \"samples\": [] } ] } ] }",
+                "{ \"profiles\": [ { \"id\": 1, \"rules\": [ { \"codes\": [\"nope\"],"
+                        + " \"samples\": [\"a\"] } ] } ] }",
+                "{ \"profiles\": [ { \"id\": 1, \"rules\": [ { \"keys\": \"all\","
+                        + " \"samples\": [\"a\"], \"mode\": \"sequence\", \"order\": [1] } ] } ] }",
+        };
+        for (final String manifest : invalid) {
+            try {
+                KeypressSoundProfileParser.parse(manifest);
+                fail("Expected a JSONException for " + manifest);
+            } catch (JSONException e) {
+                // Expected.
+            }
+        }
+    }
+}
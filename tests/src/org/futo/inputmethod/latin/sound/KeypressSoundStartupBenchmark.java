@@ -0,0 +1,172 @@
+package org.futo.inputmethod.latin.sound;
+
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.AudioManager;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.futo.inputmethod.latin.AudioAndHapticFeedbackManager;
+import org.futo.inputmethod.latin.InputAttributes;
+import org.futo.inputmethod.latin.common.Constants;
+import org.futo.inputmethod.latin.settings.Settings;
+import org.futo.inputmethod.latin.settings.SettingsValues;
+import org.futo.inputmethod.latin.uix.PreferenceUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+/**
+ * Measures the startup warmup of {@link AudioAndHapticFeedbackManager}, from
+ * {@link AudioAndHapticFeedbackManager#warmUp()} to the first audible click of a custom profile.
+ * Results are reported as instrumentation status and in logcat:
+ * <pre>
+ *   adb shell am instrument -w -e class \
+ *       org.futo.inputmethod.latin.sound.KeypressSoundStartupBenchmark \
+ *       org.futo.inputmethod.latin.tests/androidx.test.runner.AndroidJUnitRunner
+ * </pre>
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class KeypressSoundStartupBenchmark {
+    private static final String TAG = KeypressSoundStartupBenchmark.class.getSimpleName();
+    private static final int ITERATIONS = 5;
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final long POLL_MILLIS = 1;
+
+    private static final class Timings {
+        long mPrimedNanos;
+        long mReadyNanos;
+        long mFirstClickNanos;
+    }
+
+    private Context mContext;
+    private Instrumentation mInstrumentation;
+    private SharedPreferences mPrefs;
+    private boolean mPreviousSoundOn;
+    private int mPreviousProfile;
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mContext = InstrumentationRegistry.getTargetContext();
+        final AudioManager audioManager =
+                (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
+        assumeTrue("Keypress sounds only play in normal ringer mode",
+                audioManager.getRingerMode() == AudioManager.RINGER_MODE_NORMAL);
+
+        mPrefs = PreferenceUtils.INSTANCE.getDefaultSharedPreferences(mContext);
+        mPreviousSoundOn = mPrefs.getBoolean(Settings.PREF_SOUND_ON, false);
+        mPreviousProfile = mPrefs.getInt(Settings.PREF_CUSTOM_KEYPRESS_PROFILE,
+                Settings.DEFAULT_KEYPRESS_PROFILE);
+        mPrefs.edit()
+                .putBoolean(Settings.PREF_SOUND_ON, true)
+                .putInt(Settings.PREF_CUSTOM_KEYPRESS_PROFILE, Settings.BLUE_KEYPRESS_PROFILE)
+                .commit();
+        AudioAndHapticFeedbackManager.init(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        if (mPrefs == null) {
+            return;
+        }
+        mInstrumentation.runOnMainSync(() -> AudioAndHapticFeedbackManager.getInstance().release());
+        mPrefs.edit()
+                .putBoolean(Settings.PREF_SOUND_ON, mPreviousSoundOn)
+                .putInt(Settings.PREF_CUSTOM_KEYPRESS_PROFILE, mPreviousProfile)
+                .commit();
+    }
+
+    private static long waitForReadiness(final AudioAndHapticFeedbackManager manager,
+            final KeypressSoundReadiness readiness) throws InterruptedException {
+        final long deadline = System.nanoTime() + TIMEOUT_MILLIS * 1000000L;
+        while (true) {
+            final KeypressSoundReadiness current = manager.getSoundReadiness().getValue();
+            assertNotEquals(KeypressSoundReadiness.UNAVAILABLE, current);
+            if (current.compareTo(readiness) >= 0) {
+                return System.nanoTime();
+            }
+            assertTrue("Not " + readiness + " within " + TIMEOUT_MILLIS + "ms",
+                    System.nanoTime() < deadline);
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    private static long waitForAudible(final AudioAndHapticFeedbackManager manager,
+            final long sinceNanos) throws InterruptedException {
+        final long deadline = System.nanoTime() + TIMEOUT_MILLIS * 1000000L;
+        while (manager.getLastAudibleSoundNanos() <= sinceNanos) {
+            assertTrue("No audible buffer within " + TIMEOUT_MILLIS + "ms",
+                    System.nanoTime() < deadline);
+            Thread.sleep(POLL_MILLIS);
+        }
+        return manager.getLastAudibleSoundNanos();
+    }
+
+    // Same order as LatinIME: settings are loaded, then the warmup starts on the UI thread.
+    private Timings runStartup() throws InterruptedException {
+        final AudioAndHapticFeedbackManager manager = AudioAndHapticFeedbackManager.getInstance();
+        final SettingsValues settingsValues = new SettingsValues(mContext, mPrefs,
+                mContext.getResources(),
+                new InputAttributes(null, false, mContext.getPackageName()));
+        final long[] start = new long[1];
+        mInstrumentation.runOnMainSync(() -> {
+            manager.release();
+            manager.onSettingsChanged(settingsValues);
+            start[0] = System.nanoTime();
+            manager.warmUp();
+        });
+
+        final Timings timings = new Timings();
+        timings.mPrimedNanos = waitForReadiness(manager, KeypressSoundReadiness.PRIMED)
+                - start[0];
+        timings.mReadyNanos = waitForReadiness(manager, KeypressSoundReadiness.READY) - start[0];
+
+        final long[] pressNanos = new long[1];
+        mInstrumentation.runOnMainSync(() -> {
+            pressNanos[0] = System.nanoTime();
+            manager.performAudioFeedback(Constants.CODE_SPACE);
+        });
+        timings.mFirstClickNanos = waitForAudible(manager, pressNanos[0]) - pressNanos[0];
+        return timings;
+    }
+
+    private static long median(final long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    @Test
+    public void benchmarkTimeToFirstAudibleClick() throws Exception {
+        final long[] primed = new long[ITERATIONS];
+        final long[] ready = new long[ITERATIONS];
+        final long[] firstClick = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            final Timings timings = runStartup();
+            primed[i] = timings.mPrimedNanos;
+            ready[i] = timings.mReadyNanos;
+            firstClick[i] = timings.mFirstClickNanos;
+        }
+
+        final Bundle results = new Bundle();
+        results.putLong("primed_median_us", median(primed) / 1000);
+        results.putLong("ready_median_us", median(ready) / 1000);
+        results.putLong("first_press_to_click_median_us", median(firstClick) / 1000);
+        Log.i(TAG, results.toString());
+        mInstrumentation.sendStatus(0, results);
+    }
+}
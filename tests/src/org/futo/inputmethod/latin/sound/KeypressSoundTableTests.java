@@ -0,0 +1,120 @@
+package org.futo.inputmethod.latin.sound;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class KeypressSoundTableTests {
+    private static PcmSample sample() {
+        return new PcmSample(new short[1], 44100);
+    }
+
+    @Test
+    public void testDenseAndSparseLookup() {
+        final KeypressSoundTable.Builder builder = new KeypressSoundTable.Builder(-19, 591);
+        final PcmSample letter = sample();
+        final PcmSample special = sample();
+        final PcmSample action = sample();
+        final int letterIndex = builder.addSample(letter);
+        final int specialIndex = builder.addSample(special);
+        final int actionIndex = builder.addSample(action);
+        builder.map('a', letterIndex).map(8364, specialIndex).map(-1050, actionIndex);
+        final KeypressSoundTable table = builder.build();
+
+        assertEquals(3, table.getSampleCount());
+        assertSame(letter, table.nextSample('a'));
+        assertSame(special, table.nextSample(8364));
+        assertSame(action, table.nextSample(-1050));
+        assertEquals(KeypressSoundTable.NO_SOUND, table.lookup('b'));
+        assertEquals(KeypressSoundTable.NO_SOUND, table.lookup(8365));
+        assertNull(table.nextSample(Integer.MIN_VALUE));
+        assertNull(table.nextSample(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testRemapReplacesEarlierMapping() {
+        final KeypressSoundTable.Builder builder = new KeypressSoundTable.Builder(-19, 591);
+        final int first = builder.addSample(sample());
+        final int second = builder.addSample(sample());
+        builder.map(-5, first).map(-5, second).map(9000, first).map(9000, second);
+        final KeypressSoundTable table = builder.build();
+        assertEquals(second, table.lookup(-5));
+        assertEquals(second, table.lookup(9000));
+    }
+
+    @Test
+    public void testBuiltTableIsUnaffectedByLaterMappings() {
+        final KeypressSoundTable.Builder builder = new KeypressSoundTable.Builder(0, 10);
+        final int index = builder.addSample(sample());
+        final KeypressSoundTable table = builder.build();
+        builder.map(5, index);
+        assertEquals(KeypressSoundTable.NO_SOUND, table.lookup(5));
+    }
+
+    @Test
+    public void testMappingUnknownSampleThrows() {
+        final KeypressSoundTable.Builder builder = new KeypressSoundTable.Builder(0, 10);
+        try {
+            builder.map(5, 0);
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testCycleAdvancesOnEveryPress() {
+        final KeypressSoundTable.Builder builder = new KeypressSoundTable.Builder(0, 127);
+        final int a = builder.addSample(sample());
+        final int b = builder.addSample(sample());
+        final int cycle = builder.addCycle(new int[] { a, b, b });
+        builder.mapCycle('x', cycle).mapCycle('y', cycle);
+        final KeypressSoundTable table = builder.build();
+
+        assertEquals(a, table.lookup('x'));
+        assertEquals(a, table.nextSampleIndex('x'));
+        assertEquals(b, table.nextSampleIndex('y'));
+        assertEquals(b, table.nextSampleIndex('x'));
+        assertEquals(a, table.nextSampleIndex('y'));
+    }
+
+    @Test
+    public void testPendingSamplesBecomeResident() {
+        final KeypressSoundTable.Builder builder = new KeypressSoundTable.Builder(0, 127);
+        final int first = builder.addPendingSample();
+        final int second = builder.addPendingSample();
+        builder.map('a', first).map('b', second);
+        final KeypressSoundTable pending = builder.build();
+        assertFalse(pending.isComplete());
+        assertNull(pending.nextSample('a'));
+
+        final PcmSample resident = sample();
+        final KeypressSoundTable partial = pending.withSample(second, resident);
+        assertNull(pending.nextSample('b'));
+        assertSame(resident, partial.nextSample('b'));
+        assertFalse(partial.isComplete());
+        assertTrue(partial.withSample(first, sample()).isComplete());
+    }
+
+    @Test
+    public void testLoadOrderPutsPriorityCodesFirst() {
+        final KeypressSoundTable.Builder builder = new KeypressSoundTable.Builder(0, 127);
+        for (int i = 0; i < 4; i++) {
+            builder.map('a' + i, builder.addPendingSample());
+        }
+        final KeypressSoundTable table = builder.build();
+        assertArrayEquals(new int[] { 2, 0, 1, 3 }, table.getLoadOrder(new int[] { 'c', 'z', 'a', 'c' }));
+    }
+}
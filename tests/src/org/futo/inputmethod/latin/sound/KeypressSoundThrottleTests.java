@@ -0,0 +1,58 @@
+package org.futo.inputmethod.latin.sound;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class KeypressSoundThrottleTests {
+    // 10 presses per second: the minimum interval is 100ms and presses within 50ms coalesce.
+    private static final int MAX_EVENTS_PER_SECOND = 10;
+
+    @Test
+    public void testSlowTypingPlaysInFull() {
+        final KeypressSoundThrottle throttle = new KeypressSoundThrottle(MAX_EVENTS_PER_SECOND);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(KeypressSoundThrottle.PLAY, throttle.onPress(i * 150, false, true));
+        }
+    }
+
+    @Test
+    public void testFastPressesPlayInFullWhenNotFastTyping() {
+        final KeypressSoundThrottle throttle = new KeypressSoundThrottle(MAX_EVENTS_PER_SECOND);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(KeypressSoundThrottle.PLAY, throttle.onPress(i * 20, false, false));
+        }
+    }
+
+    @Test
+    public void testFastTypingAboveRateIsShortened() {
+        final KeypressSoundThrottle throttle = new KeypressSoundThrottle(MAX_EVENTS_PER_SECOND);
+        assertEquals(KeypressSoundThrottle.PLAY, throttle.onPress(0, false, true));
+        assertEquals(KeypressSoundThrottle.PLAY_SHORTENED, throttle.onPress(60, false, true));
+        assertEquals(KeypressSoundThrottle.PLAY_SHORTENED, throttle.onPress(120, false, true));
+        // Too close to the previous click to be heard separately.
+        assertEquals(KeypressSoundThrottle.SKIP, throttle.onPress(130, false, true));
+    }
+
+    @Test
+    public void testKeyRepeatIsCoalescedAndShortened() {
+        final KeypressSoundThrottle throttle = new KeypressSoundThrottle(MAX_EVENTS_PER_SECOND);
+        int played = 0;
+        // 20 repeats per second, as with the default key repeat interval.
+        for (int i = 0; i < 20; i++) {
+            final int decision = throttle.onPress(i * 50, true, false);
+            if (decision != KeypressSoundThrottle.SKIP) {
+                assertEquals(KeypressSoundThrottle.PLAY_SHORTENED, decision);
+                played++;
+            }
+        }
+        assertEquals(10, played);
+    }
+
+}
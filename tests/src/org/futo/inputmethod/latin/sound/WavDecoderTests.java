@@ -0,0 +1,74 @@
+package org.futo.inputmethod.latin.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class WavDecoderTests {
+    private static byte[] buildWav(final int format, final int channels, final int sampleRate,
+            final int bitsPerSample, final byte[] data) {
+        final ByteBuffer buffer = ByteBuffer.allocate(44 + data.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("RIFF".getBytes()).putInt(36 + data.length).put("WAVE".getBytes());
+        buffer.put("fmt ".getBytes()).putInt(16)
+                .putShort((short) format)
+                .putShort((short) channels)
+                .putInt(sampleRate)
+                .putInt(sampleRate * channels * bitsPerSample / 8)
+                .putShort((short) (channels * bitsPerSample / 8))
+                .putShort((short) bitsPerSample);
+        buffer.put("data".getBytes()).putInt(data.length).put(data);
+        return buffer.array();
+    }
+
+    @Test
+    public void testDecodes16BitMono() throws IOException {
+        final ByteBuffer data = ByteBuffer.allocate(6).order(ByteOrder.LITTLE_ENDIAN);
+        data.putShort((short) 0).putShort((short) 16384).putShort((short) -16384);
+        final PcmSample sample = WavDecoder.decode(buildWav(1, 1, 44100, 16, data.array()), 44100);
+        assertEquals(3, sample.getLengthInFrames());
+        assertEquals(44100, sample.mSampleRate);
+        assertEquals(0, sample.mData[0]);
+        assertEquals(16383, sample.mData[1]);
+        assertEquals(-16383, sample.mData[2]);
+    }
+
+    @Test
+    public void testDownmixesStereoFloat() throws IOException {
+        final ByteBuffer data = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        data.putFloat(1.0f).putFloat(0.0f).putFloat(-0.5f).putFloat(-0.5f);
+        final PcmSample sample = WavDecoder.decode(buildWav(3, 2, 44100, 32, data.array()), 44100);
+        assertEquals(2, sample.getLengthInFrames());
+        assertEquals(16383, sample.mData[0]);
+        assertEquals(-16383, sample.mData[1]);
+    }
+
+    @Test
+    public void testResamplesToTargetRate() throws IOException {
+        final byte[] data = new byte[2 * 441];
+        final PcmSample sample = WavDecoder.decode(buildWav(1, 1, 44100, 16, data), 48000);
+        assertEquals(48000, sample.mSampleRate);
+        assertEquals(480, sample.getLengthInFrames());
+    }
+
+    @Test
+    public void testRejectsNonWav() {
+        try {
+            WavDecoder.decode(new byte[64], 44100);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+}
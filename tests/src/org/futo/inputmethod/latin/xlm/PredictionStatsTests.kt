@@ -0,0 +1,76 @@
+package org.futo.inputmethod.latin.xlm
+
+import androidx.test.filters.SmallTest
+import androidx.test.runner.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@SmallTest
+@RunWith(AndroidJUnit4::class)
+class PredictionStatsTests {
+    @Before
+    fun setUp() {
+        PredictionStats.reset()
+    }
+
+    @Test
+    fun testCounts() {
+        repeat(4) { PredictionStats.onRequested() }
+        PredictionStats.onDropped()
+        PredictionStats.onDropped()
+        PredictionStats.onCancelled()
+        PredictionStats.onServed()
+        PredictionStats.onGestureRescored()
+        PredictionStats.onGestureFallback()
+        PredictionStats.onGestureFallback()
+
+        val snapshot = PredictionStats.snapshot()
+        assertEquals(4, snapshot.requests)
+        assertEquals(2, snapshot.dropped)
+        assertEquals(1, snapshot.cancelled)
+        assertEquals(1, snapshot.served)
+        assertEquals(1, snapshot.gesturesRescored)
+        assertEquals(2, snapshot.gestureFallbacks)
+    }
+
+    @Test
+    fun testNoRatesWithoutTyping() {
+        PredictionStats.onRequested()
+        PredictionStats.onServed()
+
+        val snapshot = PredictionStats.snapshot()
+        assertEquals(0L, snapshot.typingMillis)
+        assertEquals(0.0f, snapshot.servedPerSecond, 0.0f)
+    }
+
+    @Test
+    fun testTypingTimeBetweenRequests() {
+        PredictionStats.onRequested()
+        Thread.sleep(50)
+        PredictionStats.onRequested()
+        PredictionStats.onServed()
+
+        val snapshot = PredictionStats.snapshot()
+        assertTrue(snapshot.typingMillis >= 50)
+        assertTrue(snapshot.typingMillis <= PredictionStats.TYPING_GAP_MILLIS)
+        assertEquals(1000.0f / snapshot.typingMillis, snapshot.servedPerSecond, 0.001f)
+    }
+
+    @Test
+    fun testPromptReuse() {
+        PredictionStats.onPrompt(false, 40, 30)
+        PredictionStats.onPrompt(true, 42, 41)
+        PredictionStats.onPrompt(true, 0, 0)
+
+        val snapshot = PredictionStats.snapshot()
+        assertEquals(2, snapshot.prompts)
+        assertEquals(1, snapshot.promptsReused)
+        assertEquals(82L, snapshot.promptTokens)
+        assertEquals(71L, snapshot.reusedTokens)
+        assertEquals(0.5f, snapshot.promptReuseRate, 0.0f)
+        assertEquals(71.0f / 82.0f, snapshot.kvCacheHitRate, 0.0001f)
+    }
+}
@@ -0,0 +1,60 @@
+package org.futo.voiceinput.shared.util
+
+import androidx.test.filters.SmallTest
+import androidx.test.runner.AndroidJUnit4
+import org.junit.Assert.assertArrayEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@SmallTest
+@RunWith(AndroidJUnit4::class)
+class SilenceTrimmerTests {
+    // Silences of 40 samples or more are trimmed down to 10 samples on each side
+    private fun trimmer(pattern: String) = SilenceTrimmer(guardSamples = 10, minSilenceSamples = 40).apply {
+        // One VAD frame of 10 samples per character: 'S' for speech, '.' for silence
+        pattern.forEachIndexed { i, frame ->
+            onVadFrame((i + 1) * FRAME, FRAME, frame == 'S')
+        }
+    }
+
+    @Test
+    fun testSilenceBetweenSpeechKeepsGuards() {
+        val trimmer = trimmer("SSSSSSSSSS" + ".........." + "SSSSSSSSSS")
+        assertArrayEquals(intArrayOf(0, 110, 190, 300), trimmer.keptRanges(0, 300))
+    }
+
+    @Test
+    fun testSilenceAtEdgesKeepsGuardOnSpeechSideOnly() {
+        val trimmer = trimmer(".........." + "SSSSSSSSSS" + "..........")
+        assertArrayEquals(intArrayOf(90, 210), trimmer.keptRanges(0, 300))
+    }
+
+    @Test
+    fun testShortSilenceKeepsSpeechInOneRange() {
+        val trimmer = trimmer("SSSSSSSSSS" + "..." + "SSSSSSSSSS")
+        assertArrayEquals(intArrayOf(0, 230), trimmer.keptRanges(0, 230))
+    }
+
+    @Test
+    fun testAllSilenceIsKept() {
+        val trimmer = trimmer("..............................")
+        assertArrayEquals(intArrayOf(0, 300), trimmer.keptRanges(0, 300))
+    }
+
+    @Test
+    fun testSilenceCutOffAtEndHasNoTrailingGuard() {
+        // Still recording: the silence goes on past the end of the range
+        val trimmer = trimmer("SSSSSSSSSS" + "....................")
+        assertArrayEquals(intArrayOf(0, 110), trimmer.keptRanges(0, 250))
+    }
+
+    @Test
+    fun testSpeechCutOffAtEndIsKept() {
+        val trimmer = trimmer(".........." + "SSSSS")
+        assertArrayEquals(intArrayOf(90, 150), trimmer.keptRanges(0, 150))
+    }
+
+    companion object {
+        private const val FRAME = 10
+    }
+}
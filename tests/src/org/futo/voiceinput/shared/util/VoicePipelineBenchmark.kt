@@ -0,0 +1,89 @@
+package org.futo.voiceinput.shared.util
+
+import android.os.Bundle
+import android.util.Log
+import androidx.test.InstrumentationRegistry
+import androidx.test.filters.LargeTest
+import androidx.test.runner.AndroidJUnit4
+import kotlinx.coroutines.runBlocking
+import org.futo.inputmethod.latin.sound.WavDecoder
+import org.futo.inputmethod.latin.utils.JniUtils
+import org.futo.voiceinput.shared.ggml.DecodingMode
+import org.futo.voiceinput.shared.ggml.WhisperGGML
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.channels.FileChannel
+
+/**
+ * Runs WAV fixtures through [VoicePipelineProfile] on a device, including Whisper inference, and
+ * reports the real-time factor, per-stage latency and peak heap of each as instrumentation status
+ * and in logcat. The fixtures and model are pushed to the device beforehand:
+ * <pre>
+ *   adb shell am instrument -w -e class \
+ *       org.futo.voiceinput.shared.util.VoicePipelineBenchmark \
+ *       -e voiceFixtures /data/local/tmp/voice -e whisperModel /data/local/tmp/tiny.bin \
+ *       org.futo.inputmethod.latin.tests/androidx.test.runner.AndroidJUnitRunner
+ * </pre>
+ * Skipped when either argument is missing. The JVM harness in the benchmarks module covers the
+ * stages before inference without a device.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4::class)
+class VoicePipelineBenchmark {
+    @Test
+    fun benchmarkFixtures() {
+        val arguments = InstrumentationRegistry.getArguments()
+        val fixtures = arguments.getString("voiceFixtures")?.let { directory ->
+            File(directory).listFiles { _, name -> name.lowercase().endsWith(".wav") }?.sorted()
+        }.orEmpty()
+        val modelPath = arguments.getString("whisperModel")
+        assumeTrue(fixtures.isNotEmpty() && modelPath != null)
+
+        JniUtils.loadNativeLibrary()
+        val model = RandomAccessFile(modelPath, "r").use { file ->
+            WhisperGGML(file.channel.map(FileChannel.MapMode.READ_ONLY, 0, file.length()))
+        }
+
+        val profile = VoicePipelineProfile(infer = { samples, ranges ->
+            runBlocking {
+                model.infer(
+                    samples = samples,
+                    ranges = ranges,
+                    prompt = "",
+                    languages = arrayOf(),
+                    bailLanguages = arrayOf(),
+                    decodingMode = DecodingMode.BeamSearch5,
+                    suppressNonSpeechTokens = false,
+                    partialResultCallback = { }
+                )
+            }
+        })
+
+        try {
+            val results = Bundle()
+            for (fixture in fixtures) {
+                val pcm = fixture.inputStream().use { WavDecoder.decode(it, SampleStore.SAMPLE_RATE) }.mData
+                val result = profile.run(fixture.name, pcm)
+
+                val prefix = fixture.nameWithoutExtension
+                results.putDouble("${prefix}_rtf", result.realTimeFactor)
+                results.putLong("${prefix}_peak_heap_kb", result.peakHeapBytes / 1024)
+                for (stage in result.stages) {
+                    results.putDouble("${prefix}_${stage.name}_ms", stage.millis)
+                }
+                Log.i(TAG, "${fixture.name}: ${result.text}")
+            }
+            Log.i(TAG, results.toString())
+            InstrumentationRegistry.getInstrumentation().sendStatus(0, results)
+        } finally {
+            model.close()
+        }
+    }
+
+    companion object {
+        private val TAG = VoicePipelineBenchmark::class.java.simpleName
+    }
+}
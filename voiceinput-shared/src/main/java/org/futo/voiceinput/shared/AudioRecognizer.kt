@@ -38,16 +38,17 @@ import org.futo.voiceinput.shared.types.MagnitudeState
 import org.futo.voiceinput.shared.types.ModelInferenceCallback
 import org.futo.voiceinput.shared.types.ModelLoader
 import org.futo.voiceinput.shared.ui.MicrophoneDeviceState
+import org.futo.voiceinput.shared.util.SampleStore
+import org.futo.voiceinput.shared.util.SilenceTrimmer
 import org.futo.voiceinput.shared.whisper.DecodingConfiguration
 import org.futo.voiceinput.shared.whisper.ModelManager
 import org.futo.voiceinput.shared.whisper.MultiModelRunConfiguration
 import org.futo.voiceinput.shared.whisper.MultiModelRunner
+import org.futo.voiceinput.shared.whisper.StreamingTranscriber
 import org.futo.voiceinput.shared.whisper.isBlankResult
-import java.nio.FloatBuffer
 import java.nio.ShortBuffer
 import kotlin.math.min
 import kotlin.math.pow
-import kotlin.math.sqrt
 
 private fun getRecordingDeviceKind(type: Int): String {
     return when (type) {
@@ -77,11 +78,20 @@ private fun getRecordingDeviceKind(type: Int): String {
     }
 }
 
+// Ten minutes of 16kHz float samples
+const val DEFAULT_MAX_SAMPLE_MEMORY_BYTES = SampleStore.SAMPLE_RATE * 60 * 10 * 4
+
 data class RecordingSettings(
     val preferBluetoothMic: Boolean,
     val requestAudioFocus: Boolean,
     val canExpandSpace: Boolean,
-    val useVADAutoStop: Boolean
+    val useVADAutoStop: Boolean,
+    // Memory ceiling for recorded audio when canExpandSpace is set; recording stops once it's reached
+    val maxSampleMemoryBytes: Int = DEFAULT_MAX_SAMPLE_MEMORY_BYTES,
+    // Transcribe while recording, leaving only the last few seconds to decode once it stops
+    val streamingTranscription: Boolean = false,
+    // Leave long silences found by the VAD out of what is transcribed
+    val trimSilence: Boolean = true
 )
 
 data class AudioRecognizerSettings(
@@ -97,20 +107,34 @@ class AudioRecognizer(
     private val lifecycleScope: LifecycleCoroutineScope,
     modelManager: ModelManager,
     private val listener: AudioRecognizerListener,
-    private val settings: AudioRecognizerSettings
+    private val settings: AudioRecognizerSettings,
+    private val preRoll: MicPreRoll? = null
 ) {
     private var isRecording = false
+    @Volatile private var isStreaming = false
     private var recorder: AudioRecord? = null
 
     private val modelRunner = MultiModelRunner(modelManager)
 
     private val canExpandSpace = settings.recordingConfiguration.canExpandSpace
     private val useVAD = settings.recordingConfiguration.useVADAutoStop
+    private val silenceTrimmer = if (settings.recordingConfiguration.trimSilence) SilenceTrimmer() else null
 
-    private var floatSamples: FloatBuffer = FloatBuffer.allocate(16000 * 30)
+    private val floatSamples = SampleStore(
+        maxSamples = if (canExpandSpace) {
+            settings.recordingConfiguration.maxSampleMemoryBytes / 4
+        } else {
+            SampleStore.SAMPLE_RATE * 30
+        }
+    )
     private var recorderJob: Job? = null
     private var modelJob: Job? = null
     private var loadModelJob: Job? = null
+    private var streamingJob: Job? = null
+    private var streamingTranscriber: StreamingTranscriber? = null
+
+    // Where the current recorder's own audio begins, after any pre-roll taken from [preRoll]
+    private var recorderStartSample = 0
 
     private var focusRequest: AudioFocusRequest? = null
 
@@ -225,6 +249,9 @@ class AudioRecognizer(
         modelJob?.cancel()
         isRecording = false
 
+        isStreaming = false
+        streamingJob?.cancel()
+
         modelRunner.cancelAll()
 
         unfocusAudio()
@@ -296,18 +323,6 @@ class AudioRecognizer(
         modelRunner.preload(settings.modelRunConfiguration)
     }
 
-    private fun expandSpaceIfAllowed(): Boolean {
-        if(canExpandSpace) {
-            // Allocate an extra 30 seconds
-            val newSampleBuffer = FloatBuffer.allocate(floatSamples.capacity() + 16000 * 30)
-            //Log.d("AudioRecognizer", "Allocating extra space: ${floatSamples.capacity() / 16000} -> ${newSampleBuffer.capacity() / 16000}")
-            newSampleBuffer.put(floatSamples.array(), 0, floatSamples.capacity() - floatSamples.remaining())
-            floatSamples = newSampleBuffer
-            return true
-        }
-        return false
-    }
-
     private suspend fun recordingJob(recorder: AudioRecord, vad: VadModel?) {
         var hasTalked = false
         var anyNoiseAtAll = false
@@ -333,7 +348,7 @@ class AudioRecognizer(
             if (nRead <= 0) break
             yield()
 
-            var isRunningOutOfSpace = (floatSamples.remaining() < nRead.coerceAtLeast(1600)) && !expandSpaceIfAllowed()
+            val isRunningOutOfSpace = floatSamples.remaining < nRead.coerceAtLeast(1600)
 
             val hasNotTalkedRecently = hasTalked && (numConsecutiveNonSpeech > 66) && useVAD
             if (isRunningOutOfSpace || hasNotTalkedRecently) {
@@ -345,7 +360,7 @@ class AudioRecognizer(
             }
 
             // Run VAD
-            if(useVAD && vad != null) {
+            if(vad != null) {
                 var remainingSamples = nRead
                 var offset = 0
                 while (remainingSamples > 0) {
@@ -354,6 +369,9 @@ class AudioRecognizer(
                         vadSampleBuffer.clear()
                         vadSampleBuffer.rewind()
 
+                        // The frame ends where this read's samples not yet fed to the VAD begin
+                        silenceTrimmer?.onVadFrame(floatSamples.size + offset, 480, isSpeech)
+
                         if (!isSpeech) {
                             numConsecutiveNonSpeech++
                             numConsecutiveSpeech = 0
@@ -374,19 +392,19 @@ class AudioRecognizer(
                 }
             }
 
-            floatSamples.put(samples.sliceArray(0 until nRead).map { it.toFloat() / Short.MAX_VALUE.toFloat() }.toFloatArray())
+            // Converts in place and measures the level in the same pass, without allocating.
+            val rms = floatSamples.putPcm16(samples, nRead)
 
             // Don't set hasTalked if the start sound may still be playing, otherwise on some
-            // devices the rms just explodes and `hasTalked` is always true
-            val startSoundPassed = (floatSamples.position() > 16000 * 0.6)
+            // devices the rms just explodes and `hasTalked` is always true. The sound starts
+            // with the recorder, not with any pre-roll before it.
+            val startSoundPassed = (floatSamples.size - recorderStartSample > 16000 * 0.6)
             if (!startSoundPassed) {
                 numConsecutiveSpeech = 0
                 numConsecutiveNonSpeech = 0
             }
 
-            val rms = sqrt(samples.sumOf { (it.toFloat() / Short.MAX_VALUE.toFloat()).pow(2).toDouble() } / samples.size).toFloat()
-
-            if (startSoundPassed && ((rms > 0.01) || (numConsecutiveSpeech > 8))) {
+            if (startSoundPassed && ((rms > 0.01) || (useVAD && numConsecutiveSpeech > 8))) {
                 hasTalked = true
             }
 
@@ -396,7 +414,7 @@ class AudioRecognizer(
             }
 
             // Check if mic is blocked
-            val blockCheckTimePassed = (floatSamples.position() > 2 * 16000) // two seconds
+            val blockCheckTimePassed = (floatSamples.size - recorderStartSample > 2 * 16000) // two seconds
             if (!anyNoiseAtAll && canMicBeBlocked && blockCheckTimePassed) {
                 isMicBlocked = true
             }
@@ -424,14 +442,14 @@ class AudioRecognizer(
                     samples, 0, 1600, AudioRecord.READ_NON_BLOCKING
                 )
                 if (nRead2 > 0) {
-                    if (floatSamples.remaining() < nRead2 && !expandSpaceIfAllowed()) {
+                    if (floatSamples.remaining < nRead2) {
                         yield()
                         withContext(Dispatchers.Main) {
                             finish()
                         }
                         break
                     }
-                    floatSamples.put(samples.sliceArray(0 until nRead2).map { it.toFloat() / Short.MAX_VALUE.toFloat() }.toFloatArray())
+                    floatSamples.putPcm16(samples, nRead2)
                 } else {
                     break
                 }
@@ -453,19 +471,34 @@ class AudioRecognizer(
 
         val bluetoothInfo = setCommunicationDevice(preferBluetoothMic)
 
+        // The pre-roll recorder uses the default microphone, so it can only be kept when no
+        // Bluetooth microphone was selected. Its audio is used either way.
+        val preRolled = preRoll?.take()
+        if (preRolled != null && bluetoothInfo.first) {
+            preRolled.recorder.stop()
+            preRolled.recorder.release()
+        }
+
         val task = {
             recorder?.release()
 
-            val recorder = createAudioRecorder()
-
-            recorder.startRecording()
+            val recorder = if (preRolled != null && !bluetoothInfo.first) {
+                preRolled.recorder
+            } else {
+                createAudioRecorder().also { it.startRecording() }
+            }
             this.recorder = recorder
 
+            if (preRolled != null && preRolled.samples.size <= floatSamples.remaining) {
+                floatSamples.putPcm16(preRolled.samples, preRolled.samples.size)
+            }
+            recorderStartSample = floatSamples.size
+
             isRecording = true
 
             recorderJob = lifecycleScope.launch {
                 withContext(Dispatchers.Default) {
-                    if(useVAD) {
+                    if(useVAD || silenceTrimmer != null) {
                         createVad().use { vad ->
                             recordingJob(recorder, vad)
                         }
@@ -520,6 +553,38 @@ class AudioRecognizer(
                 }
             }
         }
+
+        if (settings.recordingConfiguration.streamingTranscription) {
+            startStreaming()
+        }
+    }
+
+    private fun startStreaming() {
+        val transcriber = StreamingTranscriber(floatSamples) { start, end, precedingText ->
+            modelRunner.run(
+                floatSamples,
+                settings.modelRunConfiguration,
+                settings.decodingConfiguration,
+                streamingCallback(precedingText),
+                ranges = speechRanges(start, end),
+                precedingText = precedingText
+            )
+        }
+        streamingTranscriber = transcriber
+        isStreaming = true
+
+        streamingJob = lifecycleScope.launch {
+            withContext(Dispatchers.Default) {
+                loadModelJob?.join()
+                try {
+                    transcriber.runWhileRecording({ isStreaming }) { text ->
+                        withContext(Dispatchers.Main) {
+                            runnerCallback.partialResult(text)
+                        }
+                    }
+                } catch(_: InferenceCancelledException) { }
+            }
+        }
     }
 
     private val runnerCallback: ModelInferenceCallback = object : ModelInferenceCallback {
@@ -537,6 +602,26 @@ class AudioRecognizer(
         }
     }
 
+    // Chunks decoded while recording show up after the committed text, and only report their
+    // status once recording has finished and the remaining audio is being decoded
+    private fun streamingCallback(precedingText: String): ModelInferenceCallback = object : ModelInferenceCallback {
+        override fun updateStatus(state: InferenceState) {
+            if(!isStreaming) runnerCallback.updateStatus(state)
+        }
+
+        override fun languageDetected(language: Language) {
+            runnerCallback.languageDetected(language)
+        }
+
+        override fun partialResult(string: String) {
+            if(isBlankResult(string)) return
+            runnerCallback.partialResult(StreamingTranscriber.join(precedingText, string))
+        }
+    }
+
+    private fun speechRanges(start: Int, end: Int): IntArray =
+        silenceTrimmer?.keptRanges(start, end) ?: intArrayOf(start, end)
+
     private suspend fun runModel() {
         loadModelJob?.let {
             if (it.isActive) {
@@ -545,16 +630,22 @@ class AudioRecognizer(
             }
         }
 
-        val floatArray = floatSamples.array().sliceArray(0 until floatSamples.position())
-
         yield()
+        val transcriber = streamingTranscriber
         val outputText = try {
-             modelRunner.run(
-                floatArray,
-                settings.modelRunConfiguration,
-                settings.decodingConfiguration,
-                runnerCallback
-            ).trim()
+            if (transcriber != null) {
+                // Let the chunk being decoded finish, then only the rest of the audio is left
+                streamingJob?.join()
+                transcriber.finish().trim()
+            } else {
+                modelRunner.run(
+                    floatSamples,
+                    settings.modelRunConfiguration,
+                    settings.decodingConfiguration,
+                    runnerCallback,
+                    ranges = speechRanges(0, floatSamples.size)
+                ).trim()
+            }
         }catch(e: InferenceCancelledException) {
             yield()
             return
@@ -582,6 +673,7 @@ class AudioRecognizer(
         }
 
         isRecording = false
+        isStreaming = false
         recorder?.stop()
 
         listener.processing()
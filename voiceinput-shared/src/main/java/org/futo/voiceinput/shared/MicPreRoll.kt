@@ -0,0 +1,168 @@
+package org.futo.voiceinput.shared
+
+import android.Manifest
+import android.content.Context
+import android.content.pm.PackageManager
+import android.media.AudioFormat
+import android.media.AudioRecord
+import android.media.MediaRecorder
+import android.os.SystemClock
+import org.futo.voiceinput.shared.util.SampleStore
+import kotlin.concurrent.thread
+
+/**
+ * Opens the microphone as soon as the voice input action is pressed, before the recognizer is
+ * up, and keeps the last [windowSamples] in a fixed ring buffer. The next [AudioRecognizer] takes
+ * over the running recorder and starts its recording with the buffered audio, so the first
+ * syllable isn't lost to the time it takes to open the action and start a recorder.
+ *
+ * Nothing is recorded without the microphone permission. If no recognizer takes the recorder
+ * within [ARM_TIMEOUT_MILLIS], for example because the press turned into a scroll, it is released
+ * and the audio is discarded.
+ */
+class MicPreRoll(
+    private val context: Context,
+    windowSamples: Int = DEFAULT_WINDOW_SAMPLES
+) {
+    /**
+     * A running [recorder] and the audio it captured before being taken, oldest first.
+     */
+    class Taken(val recorder: AudioRecord, val samples: ShortArray)
+
+    private val ring = ShortArray(windowSamples)
+    private val chunk = ShortArray(CHUNK_SAMPLES)
+
+    // Total samples written to the ring since arming; the oldest is at written - ring.size
+    private var written = 0L
+
+    private var recorder: AudioRecord? = null
+    private var reader: Thread? = null
+    @Volatile private var running = false
+    @Volatile private var armedAt = 0L
+
+    /**
+     * Starts buffering, or extends the timeout if already armed. Only records the time on the
+     * caller's thread; the recorder is opened on the reader thread, which stops without
+     * recording if the microphone permission isn't granted.
+     */
+    @Synchronized
+    fun arm() {
+        armedAt = SystemClock.elapsedRealtime()
+        if (running) return
+
+        written = 0L
+        running = true
+        reader = thread(name = "voice-input-pre-roll", isDaemon = true) { record() }
+    }
+
+    private fun open(): AudioRecord? {
+        if (context.checkSelfPermission(Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
+            return null
+        }
+
+        val recorder = try {
+            AudioRecord(
+                MediaRecorder.AudioSource.VOICE_RECOGNITION,
+                SampleStore.SAMPLE_RATE,
+                AudioFormat.CHANNEL_IN_MONO,
+                AudioFormat.ENCODING_PCM_16BIT,
+                SampleStore.SAMPLE_RATE * 2 * 5
+            ).also { it.startRecording() }
+        } catch (e: SecurityException) {
+            return null
+        } catch (e: IllegalStateException) {
+            return null
+        }
+
+        if (recorder.recordingState != AudioRecord.RECORDSTATE_RECORDING) {
+            recorder.release()
+            return null
+        }
+        return recorder
+    }
+
+    private fun record() {
+        val recorder = open()
+        synchronized(this) {
+            if (recorder == null) {
+                // A take() waiting for this thread finds no recorder and returns null
+                if (running) {
+                    running = false
+                    reader = null
+                }
+                return
+            }
+            this.recorder = recorder
+        }
+        read(recorder)
+    }
+
+    private fun read(recorder: AudioRecord) {
+        while (running && SystemClock.elapsedRealtime() - armedAt < ARM_TIMEOUT_MILLIS) {
+            val nRead = recorder.read(chunk, 0, chunk.size, AudioRecord.READ_BLOCKING)
+            if (nRead <= 0) break
+
+            for (i in 0 until nRead) {
+                ring[((written + i) % ring.size).toInt()] = chunk[i]
+            }
+            written += nRead
+        }
+
+        synchronized(this) {
+            // Not taken in time, or the recorder failed
+            if (running && this.recorder === recorder) {
+                running = false
+                this.recorder = null
+                reader = null
+                recorder.release()
+            }
+        }
+    }
+
+    /**
+     * Hands the running recorder and its buffered audio over to the caller, who becomes
+     * responsible for releasing it. Waits for the recorder to open if it is still starting.
+     * Returns null if not armed or if the recorder could not be opened.
+     */
+    fun take(): Taken? {
+        val reader = synchronized(this) {
+            if (!running) return null
+            running = false
+            reader
+        }
+
+        // Stops within one chunk once the recorder is open
+        reader?.join()
+
+        synchronized(this) {
+            this.reader = null
+            val recorder = recorder ?: return null
+            this.recorder = null
+
+            val count = minOf(written, ring.size.toLong()).toInt()
+            val start = written - count
+            val samples = ShortArray(count) { ring[((start + it) % ring.size).toInt()] }
+            return Taken(recorder, samples)
+        }
+    }
+
+    /**
+     * Stops buffering and discards the audio.
+     */
+    fun disarm() {
+        take()?.recorder?.let {
+            it.stop()
+            it.release()
+        }
+    }
+
+    companion object {
+        // Long enough to cover opening the action and starting a recorder
+        const val DEFAULT_WINDOW_SAMPLES = SampleStore.SAMPLE_RATE
+
+        const val ARM_TIMEOUT_MILLIS = 3000L
+
+        // 30ms, so a take() never waits long for the reader to stop
+        private const val CHUNK_SAMPLES = 480
+    }
+}
@@ -64,7 +64,8 @@ class RecognizerView(
     private val listener: RecognizerViewListener,
     private val settings: RecognizerViewSettings,
     lifecycleScope: LifecycleCoroutineScope,
-    modelManager: ModelManager
+    modelManager: ModelManager,
+    preRoll: MicPreRoll? = null
 ) {
     private val magnitudeState = mutableFloatStateOf(0.0f)
     private val statusState = mutableStateOf(MagnitudeState.NOT_TALKED_YET)
@@ -206,7 +207,8 @@ class RecognizerView(
             modelRunConfiguration = settings.modelRunConfiguration,
             decodingConfiguration = settings.decodingConfiguration,
             recordingConfiguration = settings.recordingConfiguration
-        )
+        ),
+        preRoll = preRoll
     )
 
     fun reset() {
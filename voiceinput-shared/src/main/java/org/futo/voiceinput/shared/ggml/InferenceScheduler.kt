@@ -0,0 +1,197 @@
+package org.futo.voiceinput.shared.ggml
+
+import android.os.SystemClock
+import android.util.Log
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.suspendCancellableCoroutine
+import org.futo.voiceinput.shared.whisper.InferenceStats
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.thread
+import kotlin.concurrent.withLock
+import kotlin.coroutines.resumeWithException
+
+// In order of precedence
+enum class InferencePriority {
+    // The user is waiting for the result
+    Dictation,
+
+    // Loading models ahead of time
+    Preload,
+
+    // Freeing models that are no longer needed
+    Cleanup
+}
+
+class InferenceDeadlineException : Exception("The deadline passed before the work could start")
+
+/**
+ * Runs the blocking native work of voice input (loading, running and freeing models) on a small
+ * pool of threads, taking the highest priority work first.
+ *
+ * Only [backgroundWorkers] threads take [InferencePriority.Preload] and
+ * [InferencePriority.Cleanup] work at a time, so the rest are always free for dictation and a
+ * slow preload never delays a transcription. Work that hasn't started is dropped when its
+ * coroutine is cancelled; work that has started is asked to stop through its `onCancel`, which
+ * the native code checks between steps.
+ */
+class InferenceScheduler(
+    name: String,
+    workers: Int = 3,
+    private val backgroundWorkers: Int = 1
+) {
+    init {
+        require(workers > backgroundWorkers) { "At least one worker must be kept for dictation" }
+    }
+
+    private inner class Task(
+        val priority: InferencePriority,
+        val onCancel: () -> Unit,
+        val execute: () -> Unit,
+        val expire: () -> Unit
+    ) {
+        val queuedAt = SystemClock.elapsedRealtime()
+        var running = false
+        var finished = false
+    }
+
+    private val lock = ReentrantLock()
+    private val available = lock.newCondition()
+    private val queues = Array(InferencePriority.entries.size) { ArrayDeque<Task>() }
+    private var runningBackground = 0
+
+    /** Number of tasks waiting for a thread. */
+    val queueDepth: Int
+        get() = lock.withLock { queues.sumOf { it.size } }
+
+    init {
+        for (i in 0 until workers) {
+            thread(name = "$name-$i", isDaemon = true) { work() }
+        }
+    }
+
+    /**
+     * Runs [block] on a worker thread and returns its result. If it hasn't finished by
+     * [deadline] (in [SystemClock.elapsedRealtime] time) it is dropped with an
+     * [InferenceDeadlineException] if it hasn't started, or [onCancel] is called if it has.
+     * A result that arrives after the caller was cancelled is passed to [onDiscarded].
+     */
+    suspend fun <T> run(
+        priority: InferencePriority,
+        deadline: Long = NO_DEADLINE,
+        onCancel: () -> Unit = { },
+        onDiscarded: (T) -> Unit = { },
+        block: () -> T
+    ): T = coroutineScope {
+        var watchdog: Job? = null
+        try {
+            suspendCancellableCoroutine { continuation ->
+                val task = Task(
+                    priority = priority,
+                    onCancel = onCancel,
+                    execute = {
+                        val result = runCatching(block)
+                        result.onSuccess { value ->
+                            continuation.resume(value) { _ -> onDiscarded(value) }
+                        }.onFailure { continuation.resumeWithException(it) }
+                    },
+                    expire = { continuation.resumeWithException(InferenceDeadlineException()) }
+                )
+                continuation.invokeOnCancellation { cancel(task, expired = false) }
+                enqueue(task)
+
+                if (deadline != NO_DEADLINE) {
+                    watchdog = launch {
+                        delay(deadline - SystemClock.elapsedRealtime())
+                        InferenceStats.onDeadlineMissed()
+                        cancel(task, expired = true)
+                    }
+                }
+            }
+        } finally {
+            watchdog?.cancel()
+        }
+    }
+
+    /**
+     * Queues [block] without waiting for it.
+     */
+    fun submit(priority: InferencePriority, block: () -> Unit) {
+        enqueue(Task(priority, onCancel = { }, execute = block, expire = { }))
+    }
+
+    private fun enqueue(task: Task) {
+        val depth = lock.withLock {
+            queues[task.priority.ordinal].addLast(task)
+            available.signal()
+            queues.sumOf { it.size }
+        }
+        InferenceStats.onQueued(depth)
+    }
+
+    private fun cancel(task: Task, expired: Boolean) {
+        val running = lock.withLock {
+            if (task.finished) return
+            if (!task.running) {
+                queues[task.priority.ordinal].remove(task)
+                task.finished = true
+            }
+            task.running
+        }
+
+        if (running) {
+            task.onCancel()
+        } else if (expired) {
+            task.expire()
+        }
+    }
+
+    private fun poll(): Task? {
+        for (priority in InferencePriority.entries) {
+            if (priority != InferencePriority.Dictation && runningBackground >= backgroundWorkers) {
+                return null
+            }
+            queues[priority.ordinal].removeFirstOrNull()?.let { return it }
+        }
+        return null
+    }
+
+    private fun work() {
+        while (true) {
+            val task = lock.withLock {
+                var next = poll()
+                while (next == null) {
+                    available.await()
+                    next = poll()
+                }
+                next.running = true
+                if (next.priority != InferencePriority.Dictation) runningBackground++
+                next
+            }
+
+            InferenceStats.onStarted(task.priority, SystemClock.elapsedRealtime() - task.queuedAt)
+            try {
+                task.execute()
+            } catch (e: Throwable) {
+                // Only tasks queued with submit() get here; run() hands failures to its caller
+                Log.e(TAG, "${task.priority} task failed", e)
+            } finally {
+                lock.withLock {
+                    task.running = false
+                    task.finished = true
+                    if (task.priority != InferencePriority.Dictation) runningBackground--
+                    // A background slot may have opened up
+                    available.signalAll()
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val TAG = "InferenceScheduler"
+
+        const val NO_DEADLINE = Long.MAX_VALUE
+    }
+}
@@ -1,13 +1,11 @@
 package org.futo.voiceinput.shared.ggml
 
 import androidx.annotation.Keep
-import kotlinx.coroutines.DelicateCoroutinesApi
-import kotlinx.coroutines.newSingleThreadContext
-import kotlinx.coroutines.withContext
+import org.futo.voiceinput.shared.util.SampleStore
 import java.nio.Buffer
 
-@OptIn(DelicateCoroutinesApi::class)
-val inferenceContext = newSingleThreadContext("whisper-ggml-inference")
+// Loads, runs and frees every model, so a run never waits behind a preload or cleanup
+val inferenceScheduler = InferenceScheduler("whisper-ggml-inference")
 
 enum class DecodingMode(val value: Int) {
     Greedy(0),
@@ -22,7 +20,23 @@ class InvalidModelException : Exception("The Whisper model could not be loaded f
 class WhisperGGML(
     modelBuffer: Buffer
 ) {
+    // The mapped model file, which is what the loaded model keeps resident
+    val modelSizeBytes: Long = modelBuffer.capacity().toLong()
+
+    @Volatile
     private var handle: Long = 0L
+
+    // Held by the native calls using the handle, so the model is only freed once its own run
+    // has stopped
+    private val nativeLock = Any()
+
+    // Runs queued or in progress, and whether close() was called, guarded by usageLock. The
+    // model is only queued for freeing once no run uses it, so the cleanup never holds a
+    // scheduler thread while waiting for a transcription to finish
+    private val usageLock = Any()
+    private var activeRuns = 0
+    private var closeRequested = false
+
     init {
         handle = openFromBufferNative(modelBuffer)
 
@@ -41,22 +55,48 @@ class WhisperGGML(
     // empty languages = autodetect any language
     // 1 language = will force that language
     // 2 or more languages = autodetect between those languages
-    @Throws(BailLanguageException::class, InferenceCancelledException::class)
+    // ranges selects the parts of the recording to transcribe, as ascending [start, end) pairs
+    // threads = 0 uses all cores
+    // deadline is in SystemClock.elapsedRealtime() time, see InferenceScheduler.run
+    @Throws(BailLanguageException::class, InferenceCancelledException::class, InferenceDeadlineException::class)
     suspend fun infer(
-        samples: FloatArray,
+        samples: SampleStore,
+        ranges: IntArray = intArrayOf(0, samples.size),
         prompt: String,
         languages: Array<String>,
         bailLanguages: Array<String>,
         decodingMode: DecodingMode,
         suppressNonSpeechTokens: Boolean,
-        partialResultCallback: (String) -> Unit
-    ): String = withContext(inferenceContext) {
-        if(handle == 0L) {
-            throw IllegalStateException("WhisperGGML has already been closed, cannot infer")
+        partialResultCallback: (String) -> Unit,
+        priority: InferencePriority = InferencePriority.Dictation,
+        deadline: Long = InferenceScheduler.NO_DEADLINE,
+        threads: Int = 0
+    ): String {
+        synchronized(usageLock) {
+            if(closeRequested) {
+                throw IllegalStateException("WhisperGGML has already been closed, cannot infer")
+            }
+            activeRuns++
         }
-        this@WhisperGGML.partialResultCallback = partialResultCallback
+        val result = try {
+            inferenceScheduler.run(priority, deadline, onCancel = { cancel() }) {
+                synchronized(nativeLock) {
+                    if(handle == 0L) {
+                        throw IllegalStateException("WhisperGGML has already been closed, cannot infer")
+                    }
+                    this@WhisperGGML.partialResultCallback = partialResultCallback
 
-        val result = inferNative(handle, samples, prompt, languages, bailLanguages, decodingMode.value, suppressNonSpeechTokens).trim()
+                    // The ranges are gathered into one buffer natively, the only copy of the audio
+                    inferNative(handle, samples.segments(ranges.last()), ranges, prompt, languages, bailLanguages, decodingMode.value, suppressNonSpeechTokens, threads).trim()
+                }
+            }
+        } finally {
+            val closeNow = synchronized(usageLock) {
+                activeRuns--
+                closeRequested && activeRuns == 0
+            }
+            if(closeNow) submitClose()
+        }
 
         if(result.contains("<>CANCELLED<>")) {
             if(result.contains("flag")) {
@@ -69,7 +109,7 @@ class WhisperGGML(
             }
 
         } else {
-            return@withContext result
+            return result
         }
     }
 
@@ -78,16 +118,31 @@ class WhisperGGML(
         cancelNative(handle)
     }
 
-    suspend fun close() = withContext(inferenceContext) {
-        if(handle != 0L) {
-            closeNative(handle)
+    // Returns right away; the model is freed at cleanup priority once its own runs, if any, have
+    // ended, without waiting for other models
+    fun close() {
+        val closeNow = synchronized(usageLock) {
+            if(closeRequested) return
+            closeRequested = true
+            activeRuns == 0
+        }
+        if(closeNow) submitClose()
+    }
+
+    private fun submitClose() {
+        inferenceScheduler.submit(InferencePriority.Cleanup) {
+            synchronized(nativeLock) {
+                if(handle != 0L) {
+                    closeNative(handle)
+                }
+                handle = 0L
+            }
         }
-        handle = 0L
     }
 
     private external fun openNative(path: String): Long
     private external fun openFromBufferNative(buffer: Buffer): Long
-    private external fun inferNative(handle: Long, samples: FloatArray, prompt: String, languages: Array<String>, bailLanguages: Array<String>, decodingMode: Int, suppressNonSpeechTokens: Boolean): String
+    private external fun inferNative(handle: Long, sampleSegments: Array<FloatArray>, sampleRanges: IntArray, prompt: String, languages: Array<String>, bailLanguages: Array<String>, decodingMode: Int, suppressNonSpeechTokens: Boolean, numThreads: Int): String
     private external fun cancelNative(handle: Long)
     private external fun closeNative(handle: Long)
 }
\ No newline at end of file
@@ -0,0 +1,208 @@
+package org.futo.voiceinput.shared.util
+
+import kotlin.math.log10
+import kotlin.math.max
+
+/**
+ * Float-based log-mel spectrogram with the same output as [AudioFeatureExtraction.melSpectrogram],
+ * meant to be kept and reused: the filter bank, window, FFT and scratch buffers are created
+ * once, and each mel filter only sums the frequency bins where it is non-zero (a few bins out
+ * of 201 instead of all of them).
+ *
+ * Frames can be computed as audio arrives with a [Stream]; [melSpectrogram] is a stream fed
+ * with a whole recording. Not thread-safe; use one extractor per thread.
+ */
+class MelSpectrogramExtractor(
+    val featureSize: Int = 80,
+    val samplingRate: Int = 16000,
+    val hopLength: Int = 160,
+    val chunkLength: Int = 30,
+    val nFFT: Int = 400
+) {
+    private val numSamples = chunkLength * samplingRate
+
+    /** Number of frames in the output; one frame per hop of a full chunk. */
+    val numFrames = numSamples / hopLength
+
+    private val numFrequencyBins = nFFT / 2 + 1
+    private val window = FloatArray(nFFT).also { window ->
+        createHannWindow(nFFT).forEachIndexed { i, value -> window[i] = value.toFloat() }
+    }
+    private val fft = RealFft(nFFT)
+    private val power = FloatArray(numFrequencyBins)
+    private val windowed = FloatArray(nFFT)
+
+    // Each filter's weights for bins filterStarts[m] until filterStarts[m] + filterWeights[m].size
+    private val filterStarts = IntArray(featureSize)
+    private val filterWeights: Array<FloatArray>
+
+    init {
+        val filters = melFilterBank(
+            numFrequencyBins = numFrequencyBins,
+            numMelFilters = featureSize,
+            minFrequency = 0.0,
+            maxFrequency = 8000.0,
+            samplingRate = samplingRate,
+            norm = Normalization.Slaney,
+            melScale = MelScale.Slaney
+        )
+
+        filterWeights = Array(featureSize) { m ->
+            val first = (0 until numFrequencyBins).firstOrNull { filters[it][m] != 0.0 } ?: 0
+            val last = (0 until numFrequencyBins).lastOrNull { filters[it][m] != 0.0 } ?: -1
+            filterStarts[m] = first
+            FloatArray(last - first + 1) { filters[first + it][m].toFloat() }
+        }
+    }
+
+    // log10 of the mel energies of the nFFT samples of frame at offset, one value per filter
+    // written every stride floats of output from outputOffset. Returns the largest value.
+    private fun logMelFrame(frame: FloatArray, offset: Int, output: FloatArray, outputOffset: Int, stride: Int): Float {
+        for (i in 0 until nFFT) {
+            windowed[i] = frame[offset + i] * window[i]
+        }
+        fft.powerSpectrum(windowed, 0, power)
+
+        var maxValue = Float.NEGATIVE_INFINITY
+        for (m in 0 until featureSize) {
+            val weights = filterWeights[m]
+            val start = filterStarts[m]
+            var energy = 0.0f
+            for (k in weights.indices) {
+                energy += weights[k] * power[start + k]
+            }
+            val value = log10(max(1e-10f, energy))
+            output[outputOffset + m * stride] = value
+            maxValue = max(maxValue, value)
+        }
+        return maxValue
+    }
+
+    /**
+     * Computes frames from audio pushed as it arrives, centered and padded exactly as
+     * [melSpectrogram] does. Frames are written to [logMel] as they complete, so they can be
+     * used before the recording ends; [normalizeInto] produces the model input.
+     */
+    inner class Stream {
+        /** Unnormalized log-mel values, `featureSize` rows of [numFrames] frames. */
+        val logMel = FloatArray(featureSize * numFrames)
+
+        /** Number of frames of [logMel] computed so far. */
+        var frameCount = 0
+            private set
+
+        private var maxValue = Float.NEGATIVE_INFINITY
+
+        // The samples of the frame being filled, centered with nFFT / 2 samples of reflection
+        private val buffer = FloatArray(nFFT)
+        private var buffered = 0
+
+        // The first samples, held back until the reflection before them is known
+        private val head = FloatArray(nFFT / 2 + 1)
+        private var headCount = 0
+
+        private var samplesPushed = 0
+        private var finished = false
+
+        private val zeros = FloatArray(nFFT)
+        private val reflection = FloatArray(nFFT / 2)
+
+        /**
+         * Appends [count] samples of [samples] from [offset]. Samples past [chunkLength] seconds
+         * are ignored.
+         */
+        fun push(samples: FloatArray, offset: Int = 0, count: Int = samples.size - offset) {
+            check(!finished) { "Stream is already finished" }
+            val accepted = minOf(count, numSamples - samplesPushed)
+            var index = offset
+            val end = offset + max(0, accepted)
+            while (index < end && headCount < head.size) {
+                head[headCount++] = samples[index++]
+                if (headCount == head.size) {
+                    // buffer[k] = y[nFFT / 2 - k] for the reflection, then y itself follows
+                    for (k in 0 until nFFT / 2) append(head[nFFT / 2 - k])
+                    for (k in 0 until headCount) append(head[k])
+                }
+            }
+            while (index < end) {
+                append(samples[index++])
+            }
+            samplesPushed += max(0, accepted)
+        }
+
+        /**
+         * Pads the end of the audio like [melSpectrogram] and computes the remaining frames.
+         */
+        fun finish() {
+            if (finished) return
+            val paddedLength = minOf(numSamples, samplesPushed + hopLength).coerceAtLeast(nFFT)
+            while (samplesPushed < paddedLength) {
+                push(zeros, 0, minOf(zeros.size, paddedLength - samplesPushed))
+            }
+            finished = true
+
+            // Reflect the last samples: y[L - 2 - i] for i in 0 until nFFT / 2
+            for (i in 0 until nFFT / 2) reflection[i] = buffer[buffered - 2 - i]
+            for (i in 0 until nFFT / 2) append(reflection[i])
+        }
+
+        /**
+         * Starts over for a new recording, keeping the buffers.
+         */
+        fun reset() {
+            frameCount = 0
+            maxValue = Float.NEGATIVE_INFINITY
+            buffered = 0
+            headCount = 0
+            samplesPushed = 0
+            finished = false
+        }
+
+        private fun append(sample: Float) {
+            buffer[buffered++] = sample
+            if (buffered < nFFT) return
+
+            if (frameCount < numFrames) {
+                maxValue = max(maxValue, logMelFrame(buffer, 0, logMel, frameCount, numFrames))
+                frameCount++
+            }
+            System.arraycopy(buffer, hopLength, buffer, 0, nFFT - hopLength)
+            buffered = nFFT - hopLength
+        }
+
+        /**
+         * Writes the normalized `featureSize x numFrames` model input into [output], with frames
+         * not computed yet treated as silence.
+         */
+        fun normalizeInto(output: FloatArray) {
+            val silence = log10(1e-10f)
+            val floor = max(maxValue, if (frameCount < numFrames) silence else Float.NEGATIVE_INFINITY) - 8.0f
+            for (m in 0 until featureSize) {
+                val row = m * numFrames
+                for (j in 0 until numFrames) {
+                    val value = if (j < frameCount) logMel[row + j] else silence
+                    output[row + j] = (max(value, floor) + 4.0f) / 4.0f
+                }
+            }
+        }
+    }
+
+    /**
+     * The normalized `featureSize x numFrames` log-mel spectrogram of the first [count] samples,
+     * written into [output].
+     */
+    fun melSpectrogram(
+        samples: FloatArray,
+        count: Int = samples.size,
+        output: FloatArray = FloatArray(featureSize * numFrames)
+    ): FloatArray {
+        val stream = batchStream
+        stream.reset()
+        stream.push(samples, 0, count)
+        stream.finish()
+        stream.normalizeInto(output)
+        return output
+    }
+
+    private val batchStream by lazy { Stream() }
+}
@@ -0,0 +1,26 @@
+package org.futo.voiceinput.shared.util
+
+private const val PCM16_SCALE = 1.0f / Short.MAX_VALUE
+
+/**
+ * Converts [count] 16-bit samples of [source], starting at [sourceOffset], to floats in
+ * [destination] starting at [destinationOffset]. Returns the sum of squares of the converted
+ * samples, so callers can measure the level in the same pass.
+ *
+ * Allocation-free, so it can run on every captured chunk without producing garbage.
+ */
+fun convertPcm16(
+    source: ShortArray,
+    sourceOffset: Int,
+    count: Int,
+    destination: FloatArray,
+    destinationOffset: Int
+): Double {
+    var sumOfSquares = 0.0
+    for (i in 0 until count) {
+        val value = source[sourceOffset + i] * PCM16_SCALE
+        destination[destinationOffset + i] = value
+        sumOfSquares += value * value
+    }
+    return sumOfSquares
+}
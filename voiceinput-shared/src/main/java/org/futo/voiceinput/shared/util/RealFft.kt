@@ -0,0 +1,146 @@
+package org.futo.voiceinput.shared.util
+
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.sin
+
+/**
+ * Spectrum of real input of an even length [size], such as Whisper's 400-sample frames,
+ * without allocating per call. The input is packed into a complex FFT of half the size, which is
+ * computed as a mixed-radix Cooley-Tukey transform so sizes that aren't a power of two work.
+ *
+ * Not thread-safe; each instance owns its scratch buffers.
+ */
+class RealFft(val size: Int) {
+    init {
+        require(size >= 2 && size % 2 == 0) { "RealFft size must be even" }
+    }
+
+    private val half = size / 2
+    private val factors = factorize(half)
+
+    // Input position of each leaf of the recursion, so the stages can run in place
+    private val permutation = IntArray(half).also { fillPermutation(it, 0, 0, 1, half, 0) }
+
+    // e^(-2*pi*i*j/half) and e^(-2*pi*i*k/size), for the stages and for unpacking
+    private val twiddleRe = FloatArray(half) { cos(-2.0 * PI * it / half).toFloat() }
+    private val twiddleIm = FloatArray(half) { sin(-2.0 * PI * it / half).toFloat() }
+    private val unpackRe = FloatArray(half + 1) { cos(-2.0 * PI * it / size).toFloat() }
+    private val unpackIm = FloatArray(half + 1) { sin(-2.0 * PI * it / size).toFloat() }
+
+    private val re = FloatArray(half)
+    private val im = FloatArray(half)
+    private val maxRadix = factors.max()
+    private val butterflyRe = FloatArray(maxRadix)
+    private val butterflyIm = FloatArray(maxRadix)
+
+    private fun factorize(n: Int): IntArray {
+        val result = mutableListOf<Int>()
+        var remaining = n
+        for (radix in intArrayOf(4, 2, 3, 5)) {
+            while (remaining % radix == 0) {
+                result.add(radix)
+                remaining /= radix
+            }
+        }
+        var radix = 7
+        while (remaining > 1) {
+            while (remaining % radix == 0) {
+                result.add(radix)
+                remaining /= radix
+            }
+            radix += 2
+        }
+        return if (result.isEmpty()) intArrayOf(1) else result.toIntArray()
+    }
+
+    private fun fillPermutation(out: IntArray, position: Int, offset: Int, stride: Int, n: Int, level: Int): Int {
+        if (n == 1) {
+            out[position] = offset
+            return position + 1
+        }
+        val radix = factors[level]
+        var next = position
+        for (q in 0 until radix) {
+            next = fillPermutation(out, next, offset + q * stride, stride * radix, n / radix, level + 1)
+        }
+        return next
+    }
+
+    private val spectrumRe = FloatArray(half + 1)
+    private val spectrumIm = FloatArray(half + 1)
+
+    /**
+     * Writes `|X[k]|^2` for `k in 0..size/2` of the [size] samples of [input] starting at
+     * [inputOffset] into [power].
+     */
+    fun powerSpectrum(input: FloatArray, inputOffset: Int, power: FloatArray) {
+        spectrum(input, inputOffset, spectrumRe, spectrumIm)
+        for (k in 0..half) {
+            power[k] = spectrumRe[k] * spectrumRe[k] + spectrumIm[k] * spectrumIm[k]
+        }
+    }
+
+    /**
+     * Writes `X[k]` for `k in 0..size/2` of the [size] samples of [input] starting at
+     * [inputOffset] into [outputRe] and [outputIm]. The other half mirrors it for real input.
+     */
+    fun spectrum(input: FloatArray, inputOffset: Int, outputRe: FloatArray, outputIm: FloatArray) {
+        for (i in 0 until half) {
+            val source = inputOffset + 2 * permutation[i]
+            re[i] = input[source]
+            im[i] = input[source + 1]
+        }
+
+        transform()
+
+        // Separate the spectra of the even and odd samples, then combine them
+        for (k in 0..half) {
+            val a = k % half
+            val b = (half - k) % half
+            val evenRe = (re[a] + re[b]) * 0.5f
+            val evenIm = (im[a] - im[b]) * 0.5f
+            val oddRe = (im[a] + im[b]) * 0.5f
+            val oddIm = (re[b] - re[a]) * 0.5f
+
+            outputRe[k] = evenRe + unpackRe[k] * oddRe - unpackIm[k] * oddIm
+            outputIm[k] = evenIm + unpackRe[k] * oddIm + unpackIm[k] * oddRe
+        }
+    }
+
+    private fun transform() {
+        var subSize = 1
+        for (level in factors.indices.reversed()) {
+            val radix = factors[level]
+            val blockSize = subSize * radix
+            val twiddleStep = half / blockSize
+            val radixStep = half / radix
+
+            var block = 0
+            while (block < half) {
+                for (k in 0 until subSize) {
+                    // Twiddle each sub-transform's k-th output, then a radix-point DFT across them
+                    for (q in 0 until radix) {
+                        val index = block + q * subSize + k
+                        val t = (q * k * twiddleStep) % half
+                        butterflyRe[q] = re[index] * twiddleRe[t] - im[index] * twiddleIm[t]
+                        butterflyIm[q] = re[index] * twiddleIm[t] + im[index] * twiddleRe[t]
+                    }
+                    for (s in 0 until radix) {
+                        var sumRe = 0.0f
+                        var sumIm = 0.0f
+                        for (q in 0 until radix) {
+                            val t = (q * s % radix) * radixStep
+                            sumRe += butterflyRe[q] * twiddleRe[t] - butterflyIm[q] * twiddleIm[t]
+                            sumIm += butterflyRe[q] * twiddleIm[t] + butterflyIm[q] * twiddleRe[t]
+                        }
+                        re[block + s * subSize + k] = sumRe
+                        im[block + s * subSize + k] = sumIm
+                    }
+                }
+                block += blockSize
+            }
+            subSize = blockSize
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.futo.voiceinput.shared.util
+
+import java.nio.BufferOverflowException
+import kotlin.math.min
+import kotlin.math.sqrt
+
+/**
+ * Append-only store for recorded audio, made of fixed-size float segments. Growing it never
+ * copies what was already recorded, and segments are only allocated as they fill, up to
+ * [maxSamples]. The segments are handed to inference as they are; the native side gathers them
+ * into the one contiguous buffer it needs.
+ *
+ * One thread appends; other threads may read the samples below [size] while it does, since
+ * recorded samples never change and [size] is only advanced after they are written.
+ */
+class SampleStore(
+    val maxSamples: Int,
+    private val segmentSamples: Int = DEFAULT_SEGMENT_SAMPLES
+) {
+    init {
+        require(maxSamples > 0 && segmentSamples > 0) { "SampleStore sizes must be positive" }
+    }
+
+    // Sized up front so readers never see the list itself change, only slots being filled.
+    private val segments = arrayOfNulls<FloatArray>((maxSamples + segmentSamples - 1) / segmentSamples)
+
+    @Volatile
+    var size: Int = 0
+        private set
+
+    val remaining: Int
+        get() = maxSamples - size
+
+    /**
+     * Appends [count] 16-bit samples from [source], converted to floats, and returns their RMS
+     * level. Only allocates when a new segment is started.
+     */
+    fun putPcm16(source: ShortArray, count: Int): Float {
+        if (count > remaining) throw BufferOverflowException()
+        var sumOfSquares = 0.0
+        var written = 0
+        var end = size
+        while (written < count) {
+            val segmentIndex = end / segmentSamples
+            val segmentOffset = end % segmentSamples
+            // The last segment only extends to the ceiling.
+            val segment = segments[segmentIndex]
+                ?: FloatArray(min(segmentSamples, maxSamples - end)).also { segments[segmentIndex] = it }
+            val toWrite = min(count - written, segment.size - segmentOffset)
+            sumOfSquares += convertPcm16(source, written, toWrite, segment, segmentOffset)
+            written += toWrite
+            end += toWrite
+        }
+        size = end
+        return if (count > 0) sqrt(sumOfSquares / count).toFloat() else 0.0f
+    }
+
+    /**
+     * The segments holding the first [end] samples, in order. The last one may be partly
+     * filled; samples past [end] are not meaningful.
+     */
+    @JvmOverloads
+    fun segments(end: Int = size): Array<FloatArray> {
+        require(end in 0..size) { "end $end is outside of the recorded $size samples" }
+        val used = (end + segmentSamples - 1) / segmentSamples
+        return Array(used) { segments[it]!! }
+    }
+
+    /**
+     * The RMS level of the [count] samples starting at [start].
+     */
+    fun rms(start: Int, count: Int): Float {
+        require(start >= 0 && count >= 0 && start + count <= size) { "Range is outside of the recorded samples" }
+        if (count == 0) return 0.0f
+        var sumOfSquares = 0.0
+        var index = start
+        val end = start + count
+        while (index < end) {
+            val segment = segments[index / segmentSamples]!!
+            val segmentOffset = index % segmentSamples
+            val toRead = min(end - index, segment.size - segmentOffset)
+            for (i in segmentOffset until segmentOffset + toRead) {
+                sumOfSquares += segment[i] * segment[i]
+            }
+            index += toRead
+        }
+        return sqrt(sumOfSquares / count).toFloat()
+    }
+
+    /**
+     * Forgets the recorded samples but keeps the segments for reuse.
+     */
+    fun clear() {
+        size = 0
+    }
+
+    companion object {
+        const val SAMPLE_RATE = 16000
+
+        // Ten seconds per segment.
+        const val DEFAULT_SEGMENT_SAMPLES = SAMPLE_RATE * 10
+    }
+}
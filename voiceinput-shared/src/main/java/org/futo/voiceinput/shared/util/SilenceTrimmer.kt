@@ -0,0 +1,90 @@
+package org.futo.voiceinput.shared.util
+
+/**
+ * Records where the VAD heard no speech while recording, so long silences can be left out of
+ * what is sent to inference. Encoder time grows with the number of samples, so pauses, the
+ * silence before the user starts talking and the silence that triggers auto-stop are otherwise
+ * paid for in full.
+ *
+ * Silences of at least [minSilenceSamples] are cut down to [guardSamples] on each side, which
+ * keeps word onsets and endings the VAD might have missed. Audio the VAD never looked at is
+ * always kept. The kept ranges returned by [keptRanges] are also the boundaries needed to map a
+ * position in the trimmed audio back to the recording.
+ *
+ * Frames are added from the recording thread while other threads may read the ranges.
+ */
+class SilenceTrimmer(
+    private val guardSamples: Int = DEFAULT_GUARD_SAMPLES,
+    private val minSilenceSamples: Int = DEFAULT_MIN_SILENCE_SAMPLES
+) {
+    init {
+        require(guardSamples >= 0 && minSilenceSamples >= 2 * guardSamples) {
+            "A trimmed silence must be long enough to keep both guards"
+        }
+    }
+
+    // Non-speech spans as ascending, non-adjacent [start, end) pairs of recording positions
+    private var silences = IntArray(64)
+    private var silenceCount = 0
+
+    /**
+     * Records the VAD decision for the frame of [frameSamples] samples ending at [frameEnd].
+     */
+    @Synchronized
+    fun onVadFrame(frameEnd: Int, frameSamples: Int, isSpeech: Boolean) {
+        if (isSpeech) return
+        val frameStart = maxOf(0, frameEnd - frameSamples)
+
+        val last = silenceCount * 2 - 1
+        if (silenceCount > 0 && silences[last] >= frameStart) {
+            silences[last] = maxOf(silences[last], frameEnd)
+            return
+        }
+
+        if (silenceCount * 2 == silences.size) {
+            silences = silences.copyOf(silences.size * 2)
+        }
+        silences[silenceCount * 2] = frameStart
+        silences[silenceCount * 2 + 1] = frameEnd
+        silenceCount++
+    }
+
+    /**
+     * The parts of `[start, end)` to transcribe, as ascending [start, end) pairs.
+     */
+    @Synchronized
+    fun keptRanges(start: Int, end: Int): IntArray {
+        val ranges = IntArray((silenceCount + 1) * 2)
+        var count = 0
+        var keptStart = start
+        for (i in 0 until silenceCount) {
+            val silenceStart = maxOf(silences[i * 2], start)
+            val silenceEnd = minOf(silences[i * 2 + 1], end)
+            if (silenceEnd - silenceStart < minSilenceSamples) continue
+
+            // Silence running into the edges of the range keeps no guard there; the audio
+            // beyond the edge is not being transcribed.
+            val trimStart = if (silenceStart == start) start else silenceStart + guardSamples
+            val trimEnd = if (silenceEnd == end) end else silenceEnd - guardSamples
+            if (trimStart > keptStart) {
+                ranges[count++] = keptStart
+                ranges[count++] = trimStart
+            }
+            keptStart = maxOf(keptStart, trimEnd)
+        }
+        if (count == 0 && keptStart >= end) {
+            // Nothing but silence; leave it to the model rather than decode no audio at all
+            return intArrayOf(start, end)
+        }
+        if (keptStart < end) {
+            ranges[count++] = keptStart
+            ranges[count++] = end
+        }
+        return ranges.copyOf(count)
+    }
+
+    companion object {
+        const val DEFAULT_GUARD_SAMPLES = SampleStore.SAMPLE_RATE / 4
+        const val DEFAULT_MIN_SILENCE_SAMPLES = SampleStore.SAMPLE_RATE
+    }
+}
@@ -0,0 +1,173 @@
+package org.futo.voiceinput.shared.util
+
+import kotlin.math.sqrt
+
+// The same level StreamingTranscriber treats as silence
+private fun isLoudFrame(frame: ShortArray): Boolean {
+    var sumOfSquares = 0.0
+    for (sample in frame) {
+        val value = sample / Short.MAX_VALUE.toDouble()
+        sumOfSquares += value * value
+    }
+    return sqrt(sumOfSquares / frame.size) > 0.01
+}
+
+/**
+ * Runs recorded audio through the stages voice input puts it through and times each one, so the
+ * pipeline can be measured from fixtures instead of by dictating on a device:
+ *
+ *  - capture: conversion into a [SampleStore] in the chunks AudioRecognizer reads
+ *  - vad: gating 30ms frames and trimming the silences with a [SilenceTrimmer]
+ *  - mel: the log-mel features of the kept audio, one 30 second window at a time
+ *  - infer: [infer] on the kept ranges, if given
+ *
+ * The VAD used while recording is a native Android library, so frames are gated by [isSpeech],
+ * which defaults to an energy threshold. Not thread-safe; buffers are reused between runs.
+ */
+class VoicePipelineProfile(
+    private val isSpeech: (frame: ShortArray) -> Boolean = ::isLoudFrame,
+    private val infer: ((samples: SampleStore, ranges: IntArray) -> String)? = null
+) {
+    class Stage(val name: String, val nanos: Long) {
+        val millis: Double
+            get() = nanos / 1e6
+    }
+
+    class Result(
+        val name: String,
+        val audioSamples: Int,
+        val keptSamples: Int,
+        val stages: List<Stage>,
+        val peakHeapBytes: Long,
+        val text: String?
+    ) {
+        val audioSeconds: Double
+            get() = audioSamples.toDouble() / SampleStore.SAMPLE_RATE
+
+        val totalMillis: Double
+            get() = stages.sumOf { it.millis }
+
+        /** Processing time over the length of the audio; below 1 keeps up with speech. */
+        val realTimeFactor: Double
+            get() = totalMillis / 1000.0 / audioSeconds
+    }
+
+    private val extractor = MelSpectrogramExtractor()
+    private val stream = extractor.Stream()
+    private val features = FloatArray(extractor.featureSize * extractor.numFrames)
+    private val windowSamples = extractor.numFrames * extractor.hopLength
+
+    private val chunk = ShortArray(CAPTURE_CHUNK_SAMPLES)
+    private val frame = ShortArray(VAD_FRAME_SAMPLES)
+
+    private val runtime = Runtime.getRuntime()
+    private var peakHeapBytes = 0L
+
+    private fun sampleHeap() {
+        peakHeapBytes = maxOf(peakHeapBytes, runtime.totalMemory() - runtime.freeMemory())
+    }
+
+    private inline fun measure(name: String, stage: () -> Unit): Stage {
+        val start = System.nanoTime()
+        stage()
+        val nanos = System.nanoTime() - start
+        sampleHeap()
+        return Stage(name, nanos)
+    }
+
+    /**
+     * Runs 16kHz mono [pcm] through every stage. The peak heap is sampled between chunks and
+     * stages, relative to the heap in use when the run started.
+     */
+    fun run(name: String, pcm: ShortArray): Result {
+        val baselineHeapBytes = runtime.totalMemory() - runtime.freeMemory()
+        peakHeapBytes = baselineHeapBytes
+        val stages = mutableListOf<Stage>()
+
+        val samples = SampleStore(maxOf(1, pcm.size))
+        stages += measure("capture") {
+            var offset = 0
+            while (offset < pcm.size) {
+                val count = minOf(chunk.size, pcm.size - offset)
+                System.arraycopy(pcm, offset, chunk, 0, count)
+                samples.putPcm16(chunk, count)
+                offset += count
+                sampleHeap()
+            }
+        }
+
+        var ranges = intArrayOf(0, samples.size)
+        stages += measure("vad") {
+            val trimmer = SilenceTrimmer()
+            var end = VAD_FRAME_SAMPLES
+            while (end <= pcm.size) {
+                System.arraycopy(pcm, end - VAD_FRAME_SAMPLES, frame, 0, VAD_FRAME_SAMPLES)
+                trimmer.onVadFrame(end, VAD_FRAME_SAMPLES, isSpeech(frame))
+                end += VAD_FRAME_SAMPLES
+            }
+            ranges = trimmer.keptRanges(0, samples.size)
+        }
+
+        var keptSamples = 0
+        for (i in ranges.indices step 2) keptSamples += ranges[i + 1] - ranges[i]
+
+        stages += measure("mel") {
+            extractFeatures(samples, ranges)
+        }
+
+        var text: String? = null
+        infer?.let { infer ->
+            stages += measure("infer") {
+                text = infer(samples, ranges)
+            }
+        }
+
+        return Result(
+            name = name,
+            audioSamples = pcm.size,
+            keptSamples = keptSamples,
+            stages = stages,
+            peakHeapBytes = peakHeapBytes - baselineHeapBytes,
+            text = text
+        )
+    }
+
+    private fun extractFeatures(samples: SampleStore, ranges: IntArray) {
+        val segments = samples.segments()
+        stream.reset()
+        var inWindow = 0
+        for (i in ranges.indices step 2) {
+            var index = ranges[i]
+            val end = ranges[i + 1]
+            while (index < end) {
+                val segment = segments[index / SampleStore.DEFAULT_SEGMENT_SAMPLES]
+                val offset = index % SampleStore.DEFAULT_SEGMENT_SAMPLES
+                val count = minOf(end - index, segment.size - offset, windowSamples - inWindow)
+                stream.push(segment, offset, count)
+                index += count
+                inWindow += count
+
+                if (inWindow == windowSamples) {
+                    finishWindow()
+                    inWindow = 0
+                }
+            }
+        }
+        if (inWindow > 0) finishWindow()
+    }
+
+    private fun finishWindow() {
+        stream.finish()
+        stream.normalizeInto(features)
+        stream.reset()
+        sampleHeap()
+    }
+
+    companion object {
+        // What AudioRecognizer reads from the recorder at a time, 100ms
+        const val CAPTURE_CHUNK_SAMPLES = 1600
+
+        // The VAD's frame size, 30ms
+        const val VAD_FRAME_SAMPLES = 480
+    }
+}
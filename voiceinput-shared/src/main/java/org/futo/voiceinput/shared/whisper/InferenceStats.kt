@@ -0,0 +1,149 @@
+package org.futo.voiceinput.shared.whisper
+
+import org.futo.voiceinput.shared.ggml.InferencePriority
+
+/**
+ * Counters for voice input inference, the model cache and the inference scheduler, shown by the
+ * debug action panel.
+ * Updated at most a few times per run, so they are always collected.
+ */
+object InferenceStats {
+    data class Snapshot(
+        val serialRuns: Int,
+        val serialMillis: Long,
+        val serialBails: Int,
+        val warmRuns: Int,
+        val warmMillis: Long,
+        val warmBails: Int,
+        val modelCacheHits: Int,
+        val modelCacheMisses: Int,
+        val modelCacheEvictions: Int,
+        val dictationTasks: Int,
+        val dictationWaitMillis: Long,
+        val maxDictationWaitMillis: Long,
+        val backgroundTasks: Int,
+        val backgroundWaitMillis: Long,
+        val maxQueueDepth: Int,
+        val deadlineMisses: Int
+    ) {
+        val averageSerialMillis: Long
+            get() = if (serialRuns > 0) serialMillis / serialRuns else 0
+
+        val averageWarmMillis: Long
+            get() = if (warmRuns > 0) warmMillis / warmRuns else 0
+
+        val averageDictationWaitMillis: Long
+            get() = if (dictationTasks > 0) dictationWaitMillis / dictationTasks else 0
+
+        val averageBackgroundWaitMillis: Long
+            get() = if (backgroundTasks > 0) backgroundWaitMillis / backgroundTasks else 0
+    }
+
+    private var serialRuns = 0
+    private var serialMillis = 0L
+    private var serialBails = 0
+    private var warmRuns = 0
+    private var warmMillis = 0L
+    private var warmBails = 0
+    private var modelCacheHits = 0
+    private var modelCacheMisses = 0
+    private var modelCacheEvictions = 0
+    private var dictationTasks = 0
+    private var dictationWaitMillis = 0L
+    private var maxDictationWaitMillis = 0L
+    private var backgroundTasks = 0
+    private var backgroundWaitMillis = 0L
+    private var maxQueueDepth = 0
+    private var deadlineMisses = 0
+
+    /**
+     * A run finished in [millis] of wall-clock time. [warmSecondary] tells whether the secondary
+     * model was acquired alongside the primary one, [bailed] whether a language-specific model
+     * transcribed instead of the primary.
+     */
+    @Synchronized
+    fun onRun(millis: Long, warmSecondary: Boolean, bailed: Boolean) {
+        if (warmSecondary) {
+            warmRuns++
+            warmMillis += millis
+            if (bailed) warmBails++
+        } else {
+            serialRuns++
+            serialMillis += millis
+            if (bailed) serialBails++
+        }
+    }
+
+    /** A model was found already loaded in the [ModelManager]. */
+    @Synchronized
+    fun onModelCacheHit() {
+        modelCacheHits++
+    }
+
+    /** A model had to be loaded. */
+    @Synchronized
+    fun onModelCacheMiss() {
+        modelCacheMisses++
+    }
+
+    /** A loaded model was closed to stay within the memory budget or on low memory. */
+    @Synchronized
+    fun onModelEviction() {
+        modelCacheEvictions++
+    }
+
+    /** A task was queued on the inference scheduler, leaving [depth] tasks waiting. */
+    @Synchronized
+    fun onQueued(depth: Int) {
+        maxQueueDepth = maxOf(maxQueueDepth, depth)
+    }
+
+    /** A scheduler task of [priority] started after waiting [waitMillis] for a thread. */
+    @Synchronized
+    fun onStarted(priority: InferencePriority, waitMillis: Long) {
+        if (priority == InferencePriority.Dictation) {
+            dictationTasks++
+            dictationWaitMillis += waitMillis
+            maxDictationWaitMillis = maxOf(maxDictationWaitMillis, waitMillis)
+        } else {
+            backgroundTasks++
+            backgroundWaitMillis += waitMillis
+        }
+    }
+
+    /** A scheduler task was dropped or stopped because its deadline passed. */
+    @Synchronized
+    fun onDeadlineMissed() {
+        deadlineMisses++
+    }
+
+    @Synchronized
+    fun snapshot() = Snapshot(
+        serialRuns, serialMillis, serialBails,
+        warmRuns, warmMillis, warmBails,
+        modelCacheHits, modelCacheMisses, modelCacheEvictions,
+        dictationTasks, dictationWaitMillis, maxDictationWaitMillis,
+        backgroundTasks, backgroundWaitMillis,
+        maxQueueDepth, deadlineMisses
+    )
+
+    @Synchronized
+    fun reset() {
+        serialRuns = 0
+        serialMillis = 0L
+        serialBails = 0
+        warmRuns = 0
+        warmMillis = 0L
+        warmBails = 0
+        modelCacheHits = 0
+        modelCacheMisses = 0
+        modelCacheEvictions = 0
+        dictationTasks = 0
+        dictationWaitMillis = 0L
+        maxDictationWaitMillis = 0L
+        backgroundTasks = 0
+        backgroundWaitMillis = 0L
+        maxQueueDepth = 0
+        deadlineMisses = 0
+    }
+}
@@ -1,36 +1,203 @@
 package org.futo.voiceinput.shared.whisper
 
+import android.app.ActivityManager
 import android.content.Context
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import org.futo.voiceinput.shared.ggml.InferencePriority
+import org.futo.voiceinput.shared.ggml.InferenceScheduler
 import org.futo.voiceinput.shared.ggml.WhisperGGML
+import org.futo.voiceinput.shared.ggml.inferenceScheduler
 import org.futo.voiceinput.shared.types.ModelLoader
 
 
+/**
+ * Keeps loaded Whisper models around between recordings, within a memory budget.
+ *
+ * Models are evicted least recently used first once their mapped sizes add up to more than
+ * [budgetBytes]. A model is pinned while it is being run ([acquireModel] to [releaseModel]) and
+ * is never evicted while pinned; the model just obtained is kept even if it alone exceeds the
+ * budget.
+ *
+ * Models are loaded on the [inferenceScheduler] at the given priority. A load that can't start
+ * before its deadline fails with an InferenceDeadlineException. Only one copy of a model is loaded
+ * at a time: a caller asking for a model that is still loading, for example dictation while a
+ * preload is in progress, waits for that load, and loads it itself only if that load fails.
+ */
 class ModelManager(
-    val context: Context
+    val context: Context,
+    private val budgetBytes: Long = defaultBudgetBytes(context)
 ) {
-    private val loadedModels: HashMap<Any, WhisperGGML> = hashMapOf()
+    private class Entry(val model: WhisperGGML) {
+        var pins = 0
+    }
+
+    // In access order, least recently used first
+    private val loadedModels = LinkedHashMap<Any, Entry>(4, 0.75f, true)
+
+    // Loads in progress, guarded by the lock of loadedModels. Later callers for the same model
+    // wait for these instead of loading a second copy
+    private val loadingModels = HashMap<Any, CompletableDeferred<Unit>>()
+
+    suspend fun obtainModel(
+        model: ModelLoader,
+        priority: InferencePriority = InferencePriority.Dictation,
+        deadline: Long = InferenceScheduler.NO_DEADLINE
+    ): WhisperGGML = obtain(model, pin = false, priority, deadline)
+
+    /**
+     * Obtains [model] and pins it until a matching [releaseModel].
+     */
+    suspend fun acquireModel(
+        model: ModelLoader,
+        priority: InferencePriority = InferencePriority.Dictation,
+        deadline: Long = InferenceScheduler.NO_DEADLINE
+    ): WhisperGGML = obtain(model, pin = true, priority, deadline)
 
-    fun obtainModel(model: ModelLoader): WhisperGGML {
+    suspend fun releaseModel(model: WhisperGGML) {
+        synchronized(loadedModels) {
+            loadedModels.values.firstOrNull { it.model === model }?.let { it.pins-- }
+        }
+        closeAll(evictOverBudget(keep = null))
+    }
+
+    private suspend fun obtain(
+        model: ModelLoader,
+        pin: Boolean,
+        priority: InferencePriority,
+        deadline: Long
+    ): WhisperGGML {
         val key = model.key(context)
-        if (!loadedModels.contains(key)) {
-            loadedModels[key] = model.loadGGML(context)
+        val load = CompletableDeferred<Unit>()
+        val inProgress = synchronized(loadedModels) {
+            loadedModels[key]?.let {
+                if (pin) it.pins++
+                InferenceStats.onModelCacheHit()
+                return it.model
+            }
+
+            loadingModels[key].also { if (it == null) loadingModels[key] = load }
         }
 
-        return loadedModels[key]!!
+        if (inProgress != null) {
+            try {
+                inProgress.await()
+            } catch(e: Exception) {
+                // The other load failed or missed its deadline, so this caller loads it instead,
+                // unless it was cancelled itself
+                currentCoroutineContext().ensureActive()
+            }
+            return obtain(model, pin, priority, deadline)
+        }
+
+        // Loaded outside the lock so other models can be loaded at the same time
+        val entry = try {
+            val loaded = inferenceScheduler.run(priority, deadline, onDiscarded = { it.close() }) {
+                model.loadGGML(context)
+            }
+            InferenceStats.onModelCacheMiss()
+
+            synchronized(loadedModels) {
+                loadingModels.remove(key)
+                Entry(loaded).also {
+                    loadedModels[key] = it
+                    if (pin) it.pins++
+                }
+            }
+        } catch(e: Throwable) {
+            synchronized(loadedModels) {
+                loadingModels.remove(key)
+            }
+            load.completeExceptionally(e)
+            throw e
+        }
+        load.complete(Unit)
+
+        closeAll(evictOverBudget(keep = entry))
+        return entry.model
+    }
+
+    private fun evictOverBudget(keep: Entry?): List<WhisperGGML> = synchronized(loadedModels) {
+        var total = loadedModels.values.sumOf { it.model.modelSizeBytes }
+        val evicted = mutableListOf<WhisperGGML>()
+        val iterator = loadedModels.values.iterator()
+        while (total > budgetBytes && iterator.hasNext()) {
+            val entry = iterator.next()
+            if (entry === keep || entry.pins > 0) continue
+
+            iterator.remove()
+            total -= entry.model.modelSizeBytes
+            evicted.add(entry.model)
+        }
+        evicted
+    }
+
+    private fun closeAll(models: List<WhisperGGML>) {
+        for (model in models) {
+            InferenceStats.onModelEviction()
+            model.close()
+        }
+    }
+
+    /**
+     * Whether there is enough free memory to keep a second model loaded while the primary one
+     * runs.
+     */
+    fun canKeepSecondaryLoaded(): Boolean {
+        val activityManager = context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
+        if (activityManager.isLowRamDevice) return false
+
+        val memoryInfo = ActivityManager.MemoryInfo()
+        activityManager.getMemoryInfo(memoryInfo)
+        return !memoryInfo.lowMemory
+                && memoryInfo.availMem - memoryInfo.threshold > SECONDARY_HEADROOM_BYTES
     }
 
     fun cancelAll() {
-        loadedModels.forEach {
-            it.value.cancel()
+        synchronized(loadedModels) {
+            loadedModels.values.forEach {
+                it.model.cancel()
+            }
+        }
+    }
+
+    /**
+     * Releases every model that isn't in use, for when the system is low on memory.
+     */
+    suspend fun trimMemory() {
+        val evicted = synchronized(loadedModels) {
+            val unpinned = loadedModels.values.filter { it.pins == 0 }
+            loadedModels.values.removeAll(unpinned.toSet())
+            unpinned.map { it.model }
         }
+        closeAll(evicted)
     }
 
     suspend fun cleanUp() {
-        for (model in loadedModels.entries) {
-            model.value.cancel()
-            model.value.close()
+        val models = synchronized(loadedModels) {
+            loadedModels.values.map { it.model }.also { loadedModels.clear() }
+        }
+
+        for (model in models) {
+            model.cancel()
+            model.close()
         }
+    }
+
+    companion object {
+        // Room for a second model's weights, on top of the working memory of the primary's run
+        private const val SECONDARY_HEADROOM_BYTES = 512L * 1024 * 1024
 
-        loadedModels.clear()
+        private const val MIN_BUDGET_BYTES = 256L * 1024 * 1024
+
+        // An eighth of the device's memory, enough for a primary model and a language-specific
+        // one of the sizes offered on most devices
+        fun defaultBudgetBytes(context: Context): Long {
+            val activityManager = context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
+            val memoryInfo = ActivityManager.MemoryInfo()
+            activityManager.getMemoryInfo(memoryInfo)
+            return maxOf(MIN_BUDGET_BYTES, memoryInfo.totalMem / 8)
+        }
     }
 }
@@ -1,18 +1,28 @@
 package org.futo.voiceinput.shared.whisper
 
+import android.os.SystemClock
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.async
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import org.futo.voiceinput.shared.ggml.BailLanguageException
 import org.futo.voiceinput.shared.ggml.DecodingMode
 import org.futo.voiceinput.shared.ggml.InferenceCancelledException
+import org.futo.voiceinput.shared.ggml.InferenceDeadlineException
+import org.futo.voiceinput.shared.ggml.InferencePriority
+import org.futo.voiceinput.shared.ggml.WhisperGGML
 import org.futo.voiceinput.shared.types.InferenceState
 import org.futo.voiceinput.shared.types.Language
 import org.futo.voiceinput.shared.types.ModelInferenceCallback
 import org.futo.voiceinput.shared.types.ModelLoader
 import org.futo.voiceinput.shared.types.getLanguageFromWhisperString
 import org.futo.voiceinput.shared.types.toWhisperString
+import org.futo.voiceinput.shared.util.SampleStore
 
 
 data class MultiModelRunConfiguration(
@@ -29,80 +39,164 @@ data class DecodingConfiguration(
 class MultiModelRunner(
     private val modelManager: ModelManager
 ) {
+    // Models that can't start loading before the deadline are left for run() to load when it
+    // needs them, at dictation priority
     suspend fun preload(runConfiguration: MultiModelRunConfiguration) = coroutineScope {
         val jobs = mutableListOf<Job>()
-
-        jobs.add(launch(Dispatchers.Default) {
-            modelManager.obtainModel(runConfiguration.primaryModel)
-        })
+        val deadline = SystemClock.elapsedRealtime() + PRELOAD_DEADLINE_MILLIS
+
+        // Pinned so that loading the language-specific models can't evict it
+        val primaryModel = async(Dispatchers.Default) {
+            try {
+                modelManager.acquireModel(runConfiguration.primaryModel, InferencePriority.Preload, deadline)
+            } catch(e: InferenceDeadlineException) {
+                null
+            }
+        }
 
         if (runConfiguration.languageSpecificModels.count() < 2) {
             runConfiguration.languageSpecificModels.forEach {
                 jobs.add(launch(Dispatchers.Default) {
-                    modelManager.obtainModel(it.value)
+                    try {
+                        modelManager.obtainModel(it.value, InferencePriority.Preload, deadline)
+                    } catch(e: InferenceDeadlineException) { }
                 })
             }
         }
 
         jobs.forEach { it.join() }
+        primaryModel.await()?.let { modelManager.releaseModel(it) }
     }
 
     @Throws(InferenceCancelledException::class)
     suspend fun run(
-        samples: FloatArray,
+        samples: SampleStore,
         runConfiguration: MultiModelRunConfiguration,
         decodingConfiguration: DecodingConfiguration,
-        callback: ModelInferenceCallback
+        callback: ModelInferenceCallback,
+        ranges: IntArray = intArrayOf(0, samples.size),
+        precedingText: String = ""
     ): String = coroutineScope {
+        val startTime = SystemClock.elapsedRealtime()
         callback.updateStatus(InferenceState.LoadingModel)
-        val primaryModel = modelManager.obtainModel(runConfiguration.primaryModel)
-
-        val allowedLanguages = decodingConfiguration.languages.map { it.toWhisperString() }.toTypedArray()
-        val bailLanguages = runConfiguration.languageSpecificModels.filter { it.value != runConfiguration.primaryModel }.keys.map { it.toWhisperString() }.toTypedArray()
+        val primaryModel = modelManager.acquireModel(runConfiguration.primaryModel)
+        var warmSecondary: Deferred<WhisperGGML?>? = null
+        try {
+            val allowedLanguages = decodingConfiguration.languages.map { it.toWhisperString() }.toTypedArray()
+            val bailLanguages = runConfiguration.languageSpecificModels.filter { it.value != runConfiguration.primaryModel }.keys.map { it.toWhisperString() }.toTypedArray()
+
+            val glossary = if(decodingConfiguration.glossary.isNotEmpty()) {
+                "(Glossary: " + decodingConfiguration.glossary.joinToString(separator = ", ") + ")"
+            } else {
+                ""
+            }
 
-        val glossary = if(decodingConfiguration.glossary.isNotEmpty()) {
-            "(Glossary: " + decodingConfiguration.glossary.joinToString(separator = ", ") + ")"
-        } else {
-            ""
-        }
+            // Whisper continues from the prompt, so text already transcribed before [ranges] keeps
+            // the wording and casing consistent across the chunks of a streamed recording
+            val prompt = if(precedingText.isNotBlank()) {
+                (glossary + " " + precedingText.takeLast(MAX_PRECEDING_TEXT_CHARS)).trim()
+            } else {
+                glossary
+            }
 
-        val result = try {
-            callback.updateStatus(InferenceState.Encoding)
-            primaryModel.infer(
-                samples = samples,
-                prompt = glossary,
-                languages = allowedLanguages,
-                bailLanguages = bailLanguages,
-                decodingMode = DecodingMode.BeamSearch5,
-                suppressNonSpeechTokens = decodingConfiguration.suppressSymbols,
-                partialResultCallback = {
-                    callback.partialResult(it)
+            // With a single secondary language, its model is acquired alongside the primary one, and
+            // loaded while the primary encodes if it isn't loaded yet, so a bail to that language
+            // doesn't wait for the load. It only transcribes once the primary's language detection
+            // has picked its language, which is when the primary bails, so the primary keeps every
+            // core to itself when it doesn't
+            val secondary = runConfiguration.languageSpecificModels.entries
+                .filter { it.value != runConfiguration.primaryModel }
+                .singleOrNull()
+                ?.takeIf { modelManager.canKeepSecondaryLoaded() }
+            val secondaryLanguage = secondary?.key
+            warmSecondary = secondary?.let { entry ->
+                async {
+                    try {
+                        modelManager.acquireModel(entry.value)
+                    } catch(e: CancellationException) {
+                        throw e
+                    } catch(e: Exception) {
+                        // Loaded again on demand if the primary bails
+                        null
+                    }
                 }
-            )
-        } catch(e: BailLanguageException) {
-            callback.updateStatus(InferenceState.SwitchingModel)
-            val language = getLanguageFromWhisperString(e.language)
-
-            val specificModelLoader = runConfiguration.languageSpecificModels[language]!!
-            val specificModel = modelManager.obtainModel(specificModelLoader)
-
-            specificModel.infer(
-                samples = samples,
-                prompt = glossary,
-                languages = arrayOf(e.language),
-                bailLanguages = arrayOf(),
-                decodingMode = DecodingMode.BeamSearch5,
-                suppressNonSpeechTokens = decodingConfiguration.suppressSymbols,
-                partialResultCallback = {
-                    callback.partialResult(it)
+            }
+
+            var bailed = false
+            val result = try {
+                callback.updateStatus(InferenceState.Encoding)
+                primaryModel.infer(
+                    samples = samples,
+                    ranges = ranges,
+                    prompt = prompt,
+                    languages = allowedLanguages,
+                    bailLanguages = bailLanguages,
+                    decodingMode = DecodingMode.BeamSearch5,
+                    suppressNonSpeechTokens = decodingConfiguration.suppressSymbols,
+                    partialResultCallback = {
+                        callback.partialResult(it)
+                    }
+                )
+            } catch(e: BailLanguageException) {
+                bailed = true
+                callback.updateStatus(InferenceState.SwitchingModel)
+                val language = getLanguageFromWhisperString(e.language)
+
+                // The warm model is released with the primary one below
+                val warmModel = if (language == secondaryLanguage) warmSecondary?.await() else null
+                val specificModel = warmModel
+                    ?: modelManager.acquireModel(runConfiguration.languageSpecificModels[language]!!)
+
+                try {
+                    specificModel.infer(
+                        samples = samples,
+                        ranges = ranges,
+                        prompt = prompt,
+                        languages = arrayOf(e.language),
+                        bailLanguages = arrayOf(),
+                        decodingMode = DecodingMode.BeamSearch5,
+                        suppressNonSpeechTokens = decodingConfiguration.suppressSymbols,
+                        partialResultCallback = {
+                            callback.partialResult(it)
+                        }
+                    )
+                } finally {
+                    if (specificModel !== warmModel) {
+                        withContext(NonCancellable) { modelManager.releaseModel(specificModel) }
+                    }
                 }
+            }
+
+            InferenceStats.onRun(
+                millis = SystemClock.elapsedRealtime() - startTime,
+                warmSecondary = warmSecondary != null,
+                bailed = bailed
             )
-        }
 
-        return@coroutineScope result
+            return@coroutineScope result
+        } finally {
+            withContext(NonCancellable) {
+                modelManager.releaseModel(primaryModel)
+                // Not needed anymore if it is still loading; the next preload loads it again
+                warmSecondary?.let { load ->
+                    load.cancel()
+                    try {
+                        load.await()
+                    } catch(e: CancellationException) {
+                        null
+                    }
+                }?.let { modelManager.releaseModel(it) }
+            }
+        }
     }
 
     fun cancelAll() {
         modelManager.cancelAll()
     }
+
+    companion object {
+        private const val MAX_PRECEDING_TEXT_CHARS = 200
+
+        private const val PRELOAD_DEADLINE_MILLIS = 5000L
+    }
 }
\ No newline at end of file
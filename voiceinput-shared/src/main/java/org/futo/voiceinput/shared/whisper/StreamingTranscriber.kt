@@ -0,0 +1,119 @@
+package org.futo.voiceinput.shared.whisper
+
+import kotlinx.coroutines.delay
+import org.futo.voiceinput.shared.util.SampleStore
+
+/**
+ * Transcribes a recording chunk by chunk while it is still being captured, so that once the
+ * user stops only the audio after the last committed chunk is left to decode.
+ *
+ * Chunks end in the middle of a pause, where a cut can't split a word, and their text is
+ * committed and never decoded again. If the user doesn't pause for [MAX_CHUNK_SAMPLES], the
+ * chunk is cut at its quietest point instead, keeping each decode within one Whisper window.
+ * Each chunk is decoded with the committed text as context, so the chunks read as one text.
+ *
+ * [transcribeRange] decodes the samples in `[start, end)` given the text that precedes them.
+ */
+class StreamingTranscriber(
+    private val samples: SampleStore,
+    private val transcribeRange: suspend (start: Int, end: Int, precedingText: String) -> String
+) {
+    private var committedEnd = 0
+    private var committedText = ""
+
+    // Pause detection, advanced one frame at a time as audio arrives
+    private var scanPosition = 0
+    private var silentFrames = 0
+
+    /**
+     * Commits chunks until [isRecording] returns false, reporting the committed text so far to
+     * [onCommitted] after each one. Must have returned before [finish] is called.
+     */
+    suspend fun runWhileRecording(isRecording: () -> Boolean, onCommitted: suspend (String) -> Unit) {
+        while (isRecording()) {
+            delay(POLL_INTERVAL_MS)
+            if (!isRecording()) break
+            val cut = findCut() ?: continue
+
+            commit(cut, transcribeRange(committedEnd, cut, committedText))
+            onCommitted(committedText)
+        }
+    }
+
+    /**
+     * Decodes the audio after the last committed chunk and returns the whole transcription.
+     */
+    suspend fun finish(): String {
+        val end = samples.size
+        if (end > committedEnd) {
+            commit(end, transcribeRange(committedEnd, end, committedText))
+        }
+        return committedText
+    }
+
+    private fun commit(end: Int, text: String) {
+        committedEnd = end
+        scanPosition = end
+        silentFrames = 0
+        if (isBlankResult(text)) return
+
+        committedText = join(committedText, text)
+    }
+
+    private fun findCut(): Int? {
+        val size = samples.size
+        while (scanPosition + FRAME_SAMPLES <= size) {
+            val isSilent = samples.rms(scanPosition, FRAME_SAMPLES) < SILENCE_RMS
+            scanPosition += FRAME_SAMPLES
+            silentFrames = if (isSilent) silentFrames + 1 else 0
+
+            // Cut halfway through the pause, leaving some silence on both sides of the cut
+            val cut = scanPosition - silentFrames * FRAME_SAMPLES / 2
+            if (silentFrames >= MIN_PAUSE_FRAMES && cut - committedEnd >= MIN_CHUNK_SAMPLES) {
+                return cut
+            }
+
+            if (scanPosition - committedEnd >= MAX_CHUNK_SAMPLES) {
+                return findQuietestFrame(scanPosition - FORCED_CUT_SEARCH_SAMPLES, scanPosition)
+            }
+        }
+        return null
+    }
+
+    private fun findQuietestFrame(start: Int, end: Int): Int {
+        var quietest = end
+        var quietestRms = Float.MAX_VALUE
+        var position = start
+        while (position + FRAME_SAMPLES <= end) {
+            val rms = samples.rms(position, FRAME_SAMPLES)
+            if (rms < quietestRms) {
+                quietestRms = rms
+                quietest = position + FRAME_SAMPLES / 2
+            }
+            position += FRAME_SAMPLES
+        }
+        return quietest
+    }
+
+    companion object {
+        /**
+         * Appends the text of a chunk to the text that precedes it.
+         */
+        fun join(precedingText: String, text: String): String = when {
+            precedingText.isEmpty() -> text.trim()
+            text.isBlank() -> precedingText
+            else -> precedingText + " " + text.trim()
+        }
+
+        private const val POLL_INTERVAL_MS = 500L
+
+        // 30ms frames, the same size the VAD works with
+        private const val FRAME_SAMPLES = 480
+        private const val SILENCE_RMS = 0.01f
+        private const val MIN_PAUSE_FRAMES = 14
+
+        private const val MIN_CHUNK_SAMPLES = SampleStore.SAMPLE_RATE * 4
+        private const val MAX_CHUNK_SAMPLES = SampleStore.SAMPLE_RATE * 20
+        private const val FORCED_CUT_SEARCH_SAMPLES = SampleStore.SAMPLE_RATE * 3
+    }
+}